@@ -0,0 +1,145 @@
+package com.muayad.salaahtracker.benchmarks;
+
+import com.muayad.salaahtracker.DatabaseManager;
+import com.muayad.salaahtracker.Prayer;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+/**
+ * A seeded SQLite database for the data-access benchmarks.
+ *
+ * Every user gets a row for each of the five prayers on each of {@code days}
+ * days ending on {@link #lastDay()}, about 70% of them completed, plus the
+ * matching daily_summary rows (only the daily_summary rows when
+ * PRAYER_STORAGE=mask). Two thirds of the users have a Telegram chat
+ * linked. Rows are inserted in (user, day, prayer) order, so a row's id is
+ * {@link #prayerLogId}.
+ *
+ * storage=file uses a temp file (WAL, like production); storage=memory uses a
+ * shared-cache in-memory database that lives as long as the pool keeps a
+ * connection open.
+ */
+public final class BenchmarkDatabase implements AutoCloseable {
+
+    private final DatabaseManager manager;
+    private final File file;
+    private final int users;
+    private final int days;
+    private final LocalDate lastDay;
+
+    private BenchmarkDatabase(DatabaseManager manager, File file, int users, int days, LocalDate lastDay) {
+        this.manager = manager;
+        this.file = file;
+        this.users = users;
+        this.days = days;
+        this.lastDay = lastDay;
+    }
+
+    public static BenchmarkDatabase create(String storage, int users, int days) throws IOException, SQLException {
+        File file = null;
+        String url;
+        if ("memory".equals(storage)) {
+            url = "jdbc:sqlite:file:bench-" + UUID.randomUUID() + "?mode=memory&cache=shared";
+        } else {
+            file = File.createTempFile("salaah-bench", ".db");
+            url = "jdbc:sqlite:" + file.getAbsolutePath();
+        }
+        DatabaseManager manager = new DatabaseManager(url);
+        manager.initializeDatabase();
+        LocalDate lastDay = LocalDate.of(2025, 12, 31);
+        BenchmarkDatabase db = new BenchmarkDatabase(manager, file, users, days, lastDay);
+        db.seed();
+        return db;
+    }
+
+    private void seed() throws SQLException {
+        SplittableRandom random = new SplittableRandom(42);
+        LocalDate firstDay = lastDay.minusDays(days - 1);
+        boolean rows = manager.getPrayerStorage() == DatabaseManager.PrayerStorage.ROWS;
+        try (Connection conn = manager.connectForWrite()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement user = conn.prepareStatement("INSERT INTO users (username, password, telegram_chat_id) VALUES (?, ?, ?)");
+                 PreparedStatement log = conn.prepareStatement("INSERT INTO prayer_log (user_id, prayer_name, prayer_date, prayer_day, is_completed) VALUES (?, ?, ?, ?, ?)");
+                 PreparedStatement summary = conn.prepareStatement("INSERT INTO daily_summary (user_id, summary_day, completed_mask) VALUES (?, ?, ?)")) {
+                for (int userId = 1; userId <= users; userId++) {
+                    user.setString(1, "bench" + userId);
+                    user.setString(2, "$2a$10$benchmarkbenchmarkbenchmarkbenchmarkbenchmarkbenchmar");
+                    user.setString(3, userId % 3 == 0 ? null : String.valueOf(100_000_000L + userId));
+                    user.executeUpdate();
+
+                    for (int d = 0; d < days; d++) {
+                        LocalDate date = firstDay.plusDays(d);
+                        int mask = 0;
+                        for (Prayer prayer : Prayer.values()) {
+                            boolean completed = random.nextInt(10) < 7;
+                            if (completed) {
+                                mask |= prayer.bit();
+                            }
+                            if (rows) {
+                                log.setInt(1, userId);
+                                log.setString(2, prayer.getDisplayName());
+                                log.setString(3, date.toString());
+                                log.setLong(4, date.toEpochDay());
+                                log.setInt(5, completed ? 1 : 0);
+                                log.addBatch();
+                            }
+                        }
+                        summary.setInt(1, userId);
+                        summary.setLong(2, date.toEpochDay());
+                        summary.setInt(3, mask);
+                        summary.addBatch();
+                    }
+                    if (rows) {
+                        log.executeBatch();
+                    }
+                    summary.executeBatch();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    public DatabaseManager manager() {
+        return manager;
+    }
+
+    public int users() {
+        return users;
+    }
+
+    public int days() {
+        return days;
+    }
+
+    public LocalDate lastDay() {
+        return lastDay;
+    }
+
+    // ids follow the seeding order: (user, day offset from the first day, prayer); under
+    // PRAYER_STORAGE=mask they are the day/prayer ids DatabaseManager hands out instead
+    public int prayerLogId(int userId, int dayOffset, Prayer prayer) {
+        if (manager.getPrayerStorage() == DatabaseManager.PrayerStorage.MASK) {
+            return DatabaseManager.maskPrayerId(lastDay.minusDays(days - 1).plusDays(dayOffset).toEpochDay(), prayer);
+        }
+        return ((userId - 1) * days + dayOffset) * Prayer.count() + prayer.ordinal() + 1;
+    }
+
+    @Override
+    public void close() {
+        manager.close();
+        if (file != null) {
+            for (String suffix : new String[] {"", "-wal", "-shm"}) {
+                new File(file.getAbsolutePath() + suffix).delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.muayad.salaahtracker.benchmarks;
+
+import java.util.Arrays;
+
+/**
+ * Entry point of benchmarks.jar: JMH's own Main, with the GC profiler switched
+ * on unless another profiler was asked for, so every run reports allocation
+ * rate (gc.alloc.rate.norm = bytes per operation) next to throughput and
+ * latency percentiles.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        if (!Arrays.asList(args).contains("-prof")) {
+            String[] withGc = Arrays.copyOf(args, args.length + 2);
+            withGc[args.length] = "-prof";
+            withGc[args.length + 1] = "gc";
+            args = withGc;
+        }
+        org.openjdk.jmh.Main.main(args);
+    }
+}
@@ -0,0 +1,118 @@
+package com.muayad.salaahtracker.benchmarks;
+
+import com.muayad.salaahtracker.Prayer;
+import com.muayad.salaahtracker.PrayerLog;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * DatabaseManager's read and write paths against a seeded SQLite database.
+ * Each call picks a random user (and day, for writes) so the statement cache
+ * is exercised but not a single hot row.
+ *
+ * getChatIdsForMissingPrayer was replaced by the keyset-paged
+ * forEachChatIdMissingPrayer; that is what missingPrayerRecipients measures.
+ * Seeded users have no saved location, so it walks the default bucket,
+ * which includes them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataAccessBenchmark {
+
+    @Param({"file", "memory"})
+    public String storage;
+
+    @Param({"1000"})
+    public int users;
+
+    @Param({"365"})
+    public int days;
+
+    private BenchmarkDatabase db;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        db = BenchmarkDatabase.create(storage, users, days);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Picks {
+        private final SplittableRandom random = new SplittableRandom(7);
+
+        int user(BenchmarkDatabase db) {
+            return 1 + random.nextInt(db.users());
+        }
+
+        int dayOffset(BenchmarkDatabase db) {
+            return random.nextInt(db.days());
+        }
+
+        Prayer prayer() {
+            return Prayer.byOrdinal(random.nextInt(Prayer.count()));
+        }
+
+        boolean flag() {
+            return random.nextBoolean();
+        }
+    }
+
+    @Benchmark
+    public List<PrayerLog> prayersForToday(Picks picks) {
+        return db.manager().getPrayersForToday(picks.user(db), db.lastDay());
+    }
+
+    @Benchmark
+    public List<PrayerLog> prayersForMonth(Picks picks) {
+        LocalDate last = db.lastDay();
+        return db.manager().getPrayersForMonth(picks.user(db), last.getYear(), last.getMonthValue());
+    }
+
+    @Benchmark
+    public List<PrayerLog> prayersForWeek(Picks picks) {
+        LocalDate last = db.lastDay();
+        return db.manager().getPrayersBetweenDates(picks.user(db), last.minusDays(6), last);
+    }
+
+    @Benchmark
+    public int missingPrayerRecipients(Blackhole blackhole) {
+        return db.manager().forEachChatIdMissingPrayer("riyadh|saudi arabia", true, "Asr", db.lastDay(), blackhole::consume);
+    }
+
+    @Benchmark
+    public boolean setPrayerStatus(Picks picks) {
+        LocalDate date = db.lastDay().minusDays(picks.dayOffset(db));
+        return db.manager().setPrayerStatus(picks.user(db), date, picks.prayer(), picks.flag());
+    }
+
+    @Benchmark
+    public void updatePrayerStatusById(Picks picks) {
+        int userId = picks.user(db);
+        int id = db.prayerLogId(userId, picks.dayOffset(db), picks.prayer());
+        db.manager().updatePrayerStatus(id, userId, picks.flag());
+    }
+}
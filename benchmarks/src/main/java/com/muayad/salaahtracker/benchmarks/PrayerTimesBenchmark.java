@@ -0,0 +1,58 @@
+package com.muayad.salaahtracker.benchmarks;
+
+import com.muayad.salaahtracker.CalculationMethod;
+import com.muayad.salaahtracker.PrayerTimeCalculator;
+import com.muayad.salaahtracker.PrayerTimesService;
+import com.muayad.salaahtracker.PrayerTimetable;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scheduling hot paths that don't touch the network: finding the prayer that
+ * is N minutes away, and the local timetable calculation the cache falls back on.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PrayerTimesBenchmark {
+
+    private static final ZoneId RIYADH = ZoneId.of("Asia/Riyadh");
+
+    private PrayerTimesService service;
+    private PrayerTimeCalculator calculator;
+    private PrayerTimetable timetable;
+
+    @Setup
+    public void setUp() {
+        service = new PrayerTimesService();
+        calculator = new PrayerTimeCalculator(CalculationMethod.UMM_AL_QURA, PrayerTimeCalculator.AsrMethod.SHAFI);
+        LocalDate today = LocalDate.now(RIYADH);
+        timetable = new PrayerTimetable(calculator.calculate(today, 24.7136, 46.6753, RIYADH), RIYADH, today);
+    }
+
+    @Benchmark
+    public String upcomingPrayerName() {
+        return service.getUpcomingPrayerName(timetable, 10);
+    }
+
+    @Benchmark
+    public Map<String, LocalTime> calculateTimetable() {
+        return calculator.calculate(timetable.date(), 24.7136, 46.6753, RIYADH);
+    }
+}
@@ -0,0 +1,92 @@
+package com.muayad.salaahtracker.benchmarks;
+
+import com.muayad.salaahtracker.JsonResponseWriter;
+import com.muayad.salaahtracker.Prayer;
+import com.muayad.salaahtracker.PrayerLog;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Prayer-list JSON: the original App.serializePrayerList (copied here as the
+ * baseline, since App now streams through JsonResponseWriter) against the
+ * streaming writer. The baseline includes the String-to-bytes copy that
+ * ctx.result() made. Run with -prof gc (the default) to compare bytes per response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+
+    // One day, one month and one year of prayers
+    @Param({"5", "155", "1825"})
+    public int rows;
+
+    private List<PrayerLog> prayers;
+    private final OutputStream sink = OutputStream.nullOutputStream();
+
+    @Setup
+    public void setUp() {
+        prayers = new ArrayList<>(rows);
+        LocalDate first = LocalDate.of(2025, 1, 1);
+        for (int i = 0; i < rows; i++) {
+            PrayerLog prayerLog = new PrayerLog();
+            prayerLog.setId(i + 1);
+            prayerLog.setUserId(1);
+            prayerLog.setPrayerName(Prayer.byOrdinal(i % Prayer.count()).getDisplayName());
+            prayerLog.setPrayerDate(first.plusDays(i / Prayer.count()));
+            prayerLog.setCompleted(i % 3 != 0);
+            prayers.add(prayerLog);
+        }
+    }
+
+    @Benchmark
+    public byte[] legacyStringBuilder() {
+        return legacySerializePrayerList(prayers).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void streamingWriter() throws IOException {
+        try (JsonResponseWriter writer = new JsonResponseWriter(sink)) {
+            writer.writePrayerList(prayers);
+        }
+    }
+
+    // Verbatim copy of the serializer App used before the streaming writer
+    static String legacySerializePrayerList(List<PrayerLog> prayers) {
+        StringBuilder jsonArray = new StringBuilder();
+        jsonArray.append("[");
+        for (int i = 0; i < prayers.size(); i++) {
+            PrayerLog p = prayers.get(i);
+            jsonArray.append("{");
+            jsonArray.append("\"id\":").append(p.getId()).append(",");
+            jsonArray.append("\"prayerName\":\"").append(p.getPrayerName()).append("\",");
+            jsonArray.append("\"prayerDate\":\"").append(p.getPrayerDate().toString()).append("\",");
+            jsonArray.append("\"completed\":").append(p.isCompleted());
+            jsonArray.append("}"); 
+            if (i < prayers.size() - 1) {
+                jsonArray.append(",");
+            }
+        }
+        jsonArray.append("]");
+        return jsonArray.toString();
+    }
+}
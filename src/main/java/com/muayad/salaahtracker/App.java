@@ -1,50 +1,130 @@
 package com.muayad.salaahtracker;
 
+import java.time.DateTimeException;
 import java.time.LocalDate;
-import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.sse.SseHandler;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 public class App {
+
+    // A full year of prayers is 1825 changes; anything larger is split by the client
+    private static final int MAX_BATCH_SIZE = 2000;
+
+    private static final Metrics.Family<Metrics.Histogram> HTTP_SECONDS = Metrics.histogram(
+            "http_request_duration_seconds", "Request latency by route template.", "method", "route", "status");
+
     public static void main(String[] args) {
         DatabaseManager dbManager = new DatabaseManager();
         dbManager.initializeDatabase();
+        WriteBehindBuffer prayerWrites = WriteBehindBuffer.fromEnvironment(dbManager);
+        prayerWrites.start();
 
         TelegramBot bot = new TelegramBot();
-        PrayerTimesService prayerService = new PrayerTimesService();
+        PrayerTimesService prayerService = new PrayerTimesService(dbManager);
+
+        ReminderScheduler reminderScheduler = new ReminderScheduler(dbManager, bot, prayerService);
+        reminderScheduler.start();
+        prayerService.startRefresher(reminderScheduler::getLocations);
+
+        PasswordHasher passwordHasher = PasswordHasher.fromEnvironment();
+        Authenticator auth = Authenticator.fromEnvironment();
+        UserProfileCache profiles = new UserProfileCache(dbManager, 10_000, 60);
+        // Versions expire after a minute in case another instance changed the data
+        UserDataVersions dataVersions = new UserDataVersions(50_000, 60);
+        YearSummaryCache yearSummaries = new YearSummaryCache(dbManager, prayerWrites, dataVersions, 10_000);
+        PrayerEventHub events = PrayerEventHub.fromEnvironment();
+        registerGauges(dbManager, prayerWrites, bot, reminderScheduler, prayerService, passwordHasher, profiles, yearSummaries, dataVersions, events);
+        // METRICS_TOKEN, if set, must be sent as "Authorization: Bearer <token>" to read /metrics
+        String metricsToken = System.getenv("METRICS_TOKEN");
+
+        // USE_VIRTUAL_THREADS=true runs handlers on virtual threads; DB access stays
+        // bounded by DB_MAX_CONCURRENCY in the connection pool
+        boolean virtualThreads = Boolean.parseBoolean(System.getenv("USE_VIRTUAL_THREADS"));
+        System.out.println("Request threads: " + (virtualThreads ? "virtual" : "platform"));
 
         var app = Javalin.create(config -> {
             config.staticFiles.add("public");
+            config.useVirtualThreads = virtualThreads;
+            // Runs once the response is done (async ones included); labelled by route template so
+            // /api/prayers/date/{date} is one series
+            config.requestLogger.http((ctx, millis) -> {
+                String route;
+                try {
+                    route = ctx.endpointHandlerPath();
+                } catch (IllegalStateException e) {
+                    // Static files and 404s never reach an endpoint handler
+                    route = "unmatched";
+                }
+                HTTP_SECONDS.labels(ctx.method().name(), route, Integer.toString(ctx.statusCode()))
+                        .observeNanos((long) (millis * 1_000_000));
+            });
         }).start(7070);
+        // One hook, in order: stop taking requests and the pools that served them, then write
+        // buffered toggles and reminder outcomes, then close the pool. The scheduler also shuts
+        // the bot down, as it needs the bot's final outcomes
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            app.stop();
+            events.shutdown();
+            passwordHasher.shutdown();
+            prayerService.shutdown();
+            reminderScheduler.shutdown();
+            prayerWrites.shutdown();
+            dbManager.close();
+        }));
+
+        // --- METRICS ---
+        app.get("/metrics", ctx -> {
+            if (metricsToken != null && !metricsToken.isBlank()
+                    && !("Bearer " + metricsToken).equals(ctx.header("Authorization"))) {
+                ctx.status(401);
+                return;
+            }
+            ctx.contentType("text/plain; version=0.0.4; charset=utf-8");
+            ctx.result(Metrics.scrape());
+        });
 
         // --- AUTH ---
 
         // 1. AUTO-LOGIN STATUS CHECK
         app.get("/api/auth/status", ctx -> {
-            User currentUser = ctx.sessionAttribute("currentUser");
+            User currentUser = auth.currentUser(ctx);
             if (currentUser != null) {
-                ctx.result("{\"status\":\"success\", \"username\":\"" + currentUser.getUsername() + "\"}");
-                ctx.contentType("application/json");
+                JsonResponseWriter.writeFields(ctx, "status", "success", "username", currentUser.getUsername());
             } else {
                 ctx.status(401);
-                ctx.result("{\"status\":\"failure\"}");
-                ctx.contentType("application/json");
+                JsonResponseWriter.writeFields(ctx, "status", "failure");
             }
         });
 
+        // bcrypt runs on the hasher pool; the request thread is released while it works
         app.post("/api/login", ctx -> {
             String username = ctx.formParam("username");
             String password = ctx.formParam("password");
-            User loggedInUser = dbManager.loginUser(username, password);
-            if (loggedInUser != null) {
-                ctx.sessionAttribute("currentUser", loggedInUser);
-                ctx.result("{\"status\":\"success\", \"username\":\"" + loggedInUser.getUsername() + "\"}");
-                ctx.contentType("application/json"); 
-            } else {
-                ctx.status(401);
-                ctx.result("{\"status\":\"failure\", \"message\":\"Wrong username or password\"}");
-                ctx.contentType("application/json");
+            User storedUser = dbManager.searchUser(username);
+            String storedHash = storedUser != null ? storedUser.getPassword() : null;
+            try {
+                CompletableFuture<Boolean> check = passwordHasher.verify(password, storedHash);
+                ctx.future(() -> check.thenAccept(matches -> {
+                    if (matches) {
+                        auth.login(ctx, storedUser);
+                        JsonResponseWriter.writeFields(ctx, "status", "success", "username", storedUser.getUsername());
+                        upgradeHash(passwordHasher, dbManager, storedUser, password);
+                    } else {
+                        ctx.status(401);
+                        JsonResponseWriter.writeStatus(ctx, "failure", "Wrong username or password");
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                rejectBusy(ctx);
             }
         });
 
@@ -54,228 +134,450 @@ public class App {
             User existingUser = dbManager.searchUser(username);
             if (existingUser != null) {
                 ctx.status(409);
-                ctx.result("{\"status\":\"failure\", \"message\":\"Username is already taken\"}");
-                ctx.contentType("application/json");
-            } else {
-                dbManager.registerUser(username, password);
-                ctx.result("{\"status\":\"success\", \"message\":\"Registration successful! Please log in.\"}");
-                ctx.contentType("application/json");
+                JsonResponseWriter.writeStatus(ctx, "failure", "Username is already taken");
+                return;
+            }
+            try {
+                CompletableFuture<String> hashing = passwordHasher.hash(password);
+                ctx.future(() -> hashing.thenAccept(hash -> {
+                    dbManager.registerUser(username, hash);
+                    JsonResponseWriter.writeStatus(ctx, "success", "Registration successful! Please log in.");
+                }));
+            } catch (RejectedExecutionException e) {
+                rejectBusy(ctx);
             }
         });
 
         app.post("/api/logout", ctx -> {
-            ctx.req().getSession().invalidate();
-            ctx.result("{\"status\":\"success\", \"message\":\"Logged out successfully\"}");
-            ctx.contentType("application/json");
+            auth.logout(ctx);
+            JsonResponseWriter.writeStatus(ctx, "success", "Logged out successfully");
         });
 
         // --- DATA ---
         
         // 2. GET TODAY'S PRAYERS
         app.get("/api/prayers/today", ctx -> {
-            User currentUser = ctx.sessionAttribute("currentUser");
+            User currentUser = auth.currentUser(ctx);
             if (currentUser == null) {
                 ctx.status(403);
-                ctx.result("{\"status\":\"failure\", \"message\":\"You must be logged in\"}");
-                ctx.contentType("application/json");
+                JsonResponseWriter.writeStatus(ctx, "failure", "You must be logged in");
+                return;
+            }
+            LocalDate today = userToday(profiles.get(currentUser.getId()));
+            if (notModified(ctx, dataVersions, currentUser.getId(), today.toString())) {
                 return;
             }
-            List<PrayerLog> todayPrayers = dbManager.getPrayersForToday(currentUser.getId(), LocalDate.now());
-            String jsonResult = serializePrayerList(todayPrayers);
-            ctx.result(jsonResult);
-            ctx.contentType("application/json");
+            List<PrayerLog> todayPrayers = prayerWrites.getPrayersForToday(currentUser.getId(), today);
+            JsonResponseWriter.writePrayerList(ctx, todayPrayers);
         });
 
         // 3. GET PAST/FUTURE PRAYERS (For Editing)
         app.get("/api/prayers/date/{date}", ctx -> {
-            User currentUser = ctx.sessionAttribute("currentUser");
+            User currentUser = auth.currentUser(ctx);
             if (currentUser == null) {
                 ctx.status(403);
-                ctx.result("{\"status\":\"failure\", \"message\":\"You must be logged in\"}");
-                ctx.contentType("application/json");
+                JsonResponseWriter.writeStatus(ctx, "failure", "You must be logged in");
                 return;
             }
             try {
                 LocalDate requestedDate = LocalDate.parse(ctx.pathParam("date"));
-                List<PrayerLog> datePrayers = dbManager.getPrayersForToday(currentUser.getId(), requestedDate);
-                String jsonResult = serializePrayerList(datePrayers);
-                ctx.result(jsonResult);
-                ctx.contentType("application/json");
+                if (notModified(ctx, dataVersions, currentUser.getId(), "")) {
+                    return;
+                }
+                List<PrayerLog> datePrayers = prayerWrites.getPrayersForToday(currentUser.getId(), requestedDate);
+                JsonResponseWriter.writePrayerList(ctx, datePrayers);
             } catch (Exception e) {
                 ctx.status(400);
-                ctx.result("{\"status\":\"failure\", \"message\":\"Invalid date format\"}");
-                ctx.contentType("application/json");
+                JsonResponseWriter.writeStatus(ctx, "failure", "Invalid date format");
             }
         });
 
         // 4. UPDATE STATUS
         app.put("/api/prayers/{id}", ctx -> {
-            User currentUser = ctx.sessionAttribute("currentUser");
+            User currentUser = auth.currentUser(ctx);
             if (currentUser == null) {
                 ctx.status(403);
-                ctx.result("{\"status\":\"failure\", \"message\":\"You must be logged in\"}");
-                ctx.contentType("application/json");
+                JsonResponseWriter.writeStatus(ctx, "failure", "You must be logged in");
                 return;
             }
             try {
                 int prayerLogId = Integer.parseInt(ctx.pathParam("id"));
                 boolean isCompleted = Boolean.parseBoolean(ctx.queryParam("completed"));
                 
-                dbManager.updatePrayerStatus(prayerLogId, currentUser.getId(), isCompleted);
-                ctx.result("{\"status\":\"success\", \"message\":\"Prayer status updated\"}");
-                ctx.contentType("application/json");
+                prayerWrites.flush();
+                PrayerChange change = dbManager.updatePrayerStatus(prayerLogId, currentUser.getId(), isCompleted);
+                if (change != null) {
+                    prayersChanged(dataVersions, events, currentUser.getId(), List.of(change));
+                }
+                JsonResponseWriter.writeStatus(ctx, "success", "Prayer status updated");
             } catch (NumberFormatException e) {
                 ctx.status(400);
-                ctx.result("{\"status\":\"failure\", \"message\":\"Invalid Prayer ID\"}");
-                ctx.contentType("application/json");
+                JsonResponseWriter.writeStatus(ctx, "failure", "Invalid Prayer ID");
+            }
+        });
+
+        // 5. UPDATE STATUS BY DATE + NAME (rows are only created here, on first toggle)
+        app.put("/api/prayers/date/{date}/{prayer}", ctx -> {
+            User currentUser = auth.currentUser(ctx);
+            if (currentUser == null) {
+                ctx.status(403);
+                JsonResponseWriter.writeStatus(ctx, "failure", "You must be logged in");
+                return;
+            }
+            LocalDate prayerDate;
+            try {
+                prayerDate = LocalDate.parse(ctx.pathParam("date"));
+            } catch (Exception e) {
+                ctx.status(400);
+                JsonResponseWriter.writeStatus(ctx, "failure", "Invalid date format");
+                return;
+            }
+            Prayer prayer = Prayer.fromName(ctx.pathParam("prayer"));
+            if (prayer == null) {
+                ctx.status(400);
+                JsonResponseWriter.writeStatus(ctx, "failure", "Unknown prayer");
+                return;
+            }
+            boolean isCompleted = Boolean.parseBoolean(ctx.queryParam("completed"));
+            if (prayerWrites.setPrayerStatus(currentUser.getId(), prayerDate, prayer, isCompleted)) {
+                prayersChanged(dataVersions, events, currentUser.getId(), List.of(new PrayerChange(prayerDate, prayer, isCompleted)));
+                JsonResponseWriter.writeStatus(ctx, "success", "Prayer status updated");
+            } else {
+                ctx.status(500);
+                JsonResponseWriter.writeStatus(ctx, "failure", "Could not save prayer status");
+            }
+        });
+
+        // 6. BATCH UPDATE: body is [{"date":"2024-03-01","prayer":"Fajr","completed":true}, ...]
+        // Valid items are applied together in one transaction; invalid ones are reported and skipped
+        app.post("/api/prayers/batch", ctx -> {
+            User currentUser = auth.currentUser(ctx);
+            if (currentUser == null) {
+                ctx.status(403);
+                JsonResponseWriter.writeStatus(ctx, "failure", "You must be logged in");
+                return;
+            }
+            JSONArray items;
+            try {
+                items = new JSONArray(ctx.body());
+            } catch (JSONException e) {
+                ctx.status(400);
+                JsonResponseWriter.writeStatus(ctx, "failure", "Body must be a JSON array of changes");
+                return;
+            }
+            if (items.length() > MAX_BATCH_SIZE) {
+                ctx.status(413);
+                JsonResponseWriter.writeStatus(ctx, "failure", "At most " + MAX_BATCH_SIZE + " changes per request");
+                return;
+            }
+
+            List<PrayerChange> changes = new ArrayList<>(items.length());
+            String[] errors = new String[items.length()];
+            for (int i = 0; i < items.length(); i++) {
+                JSONObject item = items.optJSONObject(i);
+                if (item == null) {
+                    errors[i] = "Not an object";
+                    continue;
+                }
+                Prayer prayer = Prayer.fromName(item.optString("prayer", null));
+                if (prayer == null) {
+                    errors[i] = "Unknown prayer";
+                    continue;
+                }
+                try {
+                    LocalDate date = LocalDate.parse(item.optString("date", ""));
+                    changes.add(new PrayerChange(date, prayer, item.optBoolean("completed", false)));
+                } catch (Exception e) {
+                    errors[i] = "Invalid date format";
+                }
+            }
+
+            // Buffered toggles go first so they can't overwrite this batch later
+            prayerWrites.flush();
+            if (!dbManager.setPrayerStatuses(currentUser.getId(), changes)) {
+                ctx.status(500);
+                JsonResponseWriter.writeStatus(ctx, "failure", "Could not save prayer statuses");
+                return;
             }
+            prayersChanged(dataVersions, events, currentUser.getId(), changes);
+            int applied = changes.size();
+            JsonResponseWriter.write(ctx, writer -> {
+                writer.writeAscii("{\"status\":\"success\",\"applied\":");
+                writer.writeInt(applied);
+                writer.writeAscii(",\"results\":[");
+                for (int i = 0; i < errors.length; i++) {
+                    if (i > 0) {
+                        writer.writeAscii(",");
+                    }
+                    writer.writeAscii("{\"index\":");
+                    writer.writeInt(i);
+                    if (errors[i] == null) {
+                        writer.writeAscii(",\"status\":\"updated\"}");
+                    } else {
+                        writer.writeAscii(",\"status\":\"invalid\",\"message\":");
+                        writer.writeString(errors[i]);
+                        writer.writeAscii("}");
+                    }
+                }
+                writer.writeAscii("]}");
+            });
         });
 
         app.get("/api/summary/monthly", ctx -> {
-            User currentUser = ctx.sessionAttribute("currentUser");
+            User currentUser = auth.currentUser(ctx);
             if (currentUser == null) {
                 ctx.status(403); 
-                ctx.result("{\"status\":\"failure\", \"message\":\"You must be logged in\"}");
-                ctx.contentType("application/json");
+                JsonResponseWriter.writeStatus(ctx, "failure", "You must be logged in");
                 return;
             }
             try {
                 int year = Integer.parseInt(ctx.queryParam("year"));
                 int month = Integer.parseInt(ctx.queryParam("month"));
-                List<PrayerLog> monthlyPrayers = dbManager.getPrayersForMonth(currentUser.getId(), year, month);
-                String jsonResult = serializePrayerList(monthlyPrayers);
-                ctx.result(jsonResult);
-                ctx.contentType("application/json");
+                if (notModified(ctx, dataVersions, currentUser.getId(), "")) {
+                    return;
+                }
+                List<PrayerLog> monthlyPrayers = prayerWrites.getPrayersForMonth(currentUser.getId(), year, month);
+                JsonResponseWriter.writePrayerList(ctx, monthlyPrayers);
             } catch (NumberFormatException e) {
                 ctx.status(400); 
-                ctx.result("{\"status\":\"failure\", \"message\":\"Invalid year or month\"}");
-                ctx.contentType("application/json");
+                JsonResponseWriter.writeStatus(ctx, "failure", "Invalid year or month");
             }
         });
 
         app.get("/api/summary/weekly", ctx -> {
-            User currentUser = ctx.sessionAttribute("currentUser");
+            User currentUser = auth.currentUser(ctx);
             if (currentUser == null) {
                 ctx.status(403);
-                ctx.result("{\"status\":\"failure\", \"message\":\"You must be logged in\"}");
-                ctx.contentType("application/json");
+                JsonResponseWriter.writeStatus(ctx, "failure", "You must be logged in");
                 return;
             }
             try {
                 String startParam = ctx.queryParam("start");
                 LocalDate startDate = LocalDate.parse(startParam);
                 LocalDate endDate = startDate.plusDays(6);
-                List<PrayerLog> weeklyPrayers = dbManager.getPrayersBetweenDates(currentUser.getId(), startDate, endDate);
-                String jsonResult = serializePrayerList(weeklyPrayers);
-                ctx.result(jsonResult);
-                ctx.contentType("application/json");
+                if (notModified(ctx, dataVersions, currentUser.getId(), "")) {
+                    return;
+                }
+                List<PrayerLog> weeklyPrayers = prayerWrites.getPrayersBetweenDates(currentUser.getId(), startDate, endDate);
+                JsonResponseWriter.writePrayerList(ctx, weeklyPrayers);
             } catch (Exception e) {
                 ctx.status(400);
-                ctx.result("{\"status\":\"failure\", \"message\":\"Invalid date format\"}");
+                JsonResponseWriter.writeStatus(ctx, "failure", "Invalid date format");
+            }
+        });
+
+        // Whole-year heatmap in one call: {"year":2024,"start":"2024-01-01","days":366,"data":"<base64>"}
+        // data packs one completed-prayer count (0-5) per day into a nibble, earlier day in the high nibble
+        app.get("/api/summary/year", ctx -> {
+            User currentUser = auth.currentUser(ctx);
+            if (currentUser == null) {
+                ctx.status(403);
+                JsonResponseWriter.writeStatus(ctx, "failure", "You must be logged in");
+                return;
+            }
+            int year;
+            try {
+                String yearParam = ctx.queryParam("year");
+                year = yearParam == null ? userToday(profiles.get(currentUser.getId())).getYear() : Integer.parseInt(yearParam);
+            } catch (NumberFormatException e) {
+                ctx.status(400);
+                JsonResponseWriter.writeStatus(ctx, "failure", "Invalid year");
+                return;
+            }
+            if (year < 1970 || year > 9999) {
+                ctx.status(400);
+                JsonResponseWriter.writeStatus(ctx, "failure", "Invalid year");
+                return;
+            }
+            if (notModified(ctx, dataVersions, currentUser.getId(), Integer.toString(year))) {
+                return;
+            }
+            String data = yearSummaries.get(currentUser.getId(), year);
+            LocalDate start = LocalDate.of(year, 1, 1);
+            JsonResponseWriter.write(ctx, writer -> {
+                writer.writeAscii("{\"year\":");
+                writer.writeInt(year);
+                writer.writeAscii(",\"start\":\"");
+                writer.writeDate(start);
+                writer.writeAscii("\",\"days\":");
+                writer.writeInt(start.lengthOfYear());
+                writer.writeAscii(",\"encoding\":\"nibble-base64\",\"data\":");
+                writer.writeString(data);
+                writer.writeAscii("}");
+            });
+        });
+
+        // Completion %, streaks and per-prayer consistency, read from the daily_summary table
+        app.get("/api/stats", ctx -> {
+            User currentUser = auth.currentUser(ctx);
+            if (currentUser == null) {
+                ctx.status(403);
+                JsonResponseWriter.writeStatus(ctx, "failure", "You must be logged in");
+                return;
+            }
+            try {
+                String yearParam = ctx.queryParam("year");
+                LocalDate today = userToday(profiles.get(currentUser.getId()));
+                int year = yearParam == null ? today.getYear() : Integer.parseInt(yearParam);
+                // Streaks depend on today as well as the data
+                if (notModified(ctx, dataVersions, currentUser.getId(), year + "-" + today)) {
+                    return;
+                }
+                prayerWrites.flush();
+                PrayerStats stats = PrayerStats.forYear(dbManager, currentUser.getId(), year, today);
+                ctx.result(stats.toJson());
                 ctx.contentType("application/json");
+            } catch (NumberFormatException e) {
+                ctx.status(400);
+                JsonResponseWriter.writeStatus(ctx, "failure", "Invalid year");
+            }
+        });
+
+        // --- LIVE UPDATES ---
+        // One idle stream per tab; changes made on any of the user's devices are pushed here
+        // Checked before handing over to SseHandler, which commits a 200 straight away; EventSource
+        // stops retrying on a 403 instead of reconnecting forever
+        app.get("/api/events", ctx -> {
+            User currentUser = auth.currentUser(ctx);
+            if (currentUser == null) {
+                ctx.status(403);
+                JsonResponseWriter.writeStatus(ctx, "failure", "You must be logged in");
+                return;
             }
+            String lastEventId = ctx.header("Last-Event-ID");
+            new SseHandler(client -> events.subscribe(currentUser.getId(), client, lastEventId)).handle(ctx);
         });
 
         // --- TELEGRAM ---
         app.post("/api/telegram/link", ctx -> {
-            User currentUser = ctx.sessionAttribute("currentUser");
+            User currentUser = auth.currentUser(ctx);
             if (currentUser == null) {
                 ctx.status(403);
-                ctx.result("{\"status\":\"failure\", \"message\":\"Not logged in\"}");
-                ctx.contentType("application/json");
+                JsonResponseWriter.writeStatus(ctx, "failure", "Not logged in");
                 return;
             }
             String chatId = ctx.formParam("chatId");
             dbManager.linkTelegramUser(currentUser.getId(), chatId);
+            // A chat that blocked the bot before may have unblocked it to link again
+            bot.forgetDeadLetter(chatId);
+            profiles.invalidate(currentUser.getId());
             bot.sendMessage(chatId, "✅ Connected! You will now receive prayer reminders here.");
-            ctx.result("{\"status\":\"success\", \"message\":\"Telegram connected successfully!\"}");
-            ctx.contentType("application/json");
+            JsonResponseWriter.writeStatus(ctx, "success", "Telegram connected successfully!");
         });
 
         app.post("/api/telegram/test", ctx -> {
-            User currentUser = ctx.sessionAttribute("currentUser");
+            User currentUser = auth.currentUser(ctx);
             if (currentUser != null) {
-                User freshUser = dbManager.searchUser(currentUser.getUsername());
-                if (freshUser.getTelegramChatId() != null) {
-                    bot.sendMessage(freshUser.getTelegramChatId(), "🔔 Test: Salaah Tracker notifications are working!");
-                    ctx.result("{\"status\":\"success\", \"message\":\"Message sent to Telegram!\"}");
+                User profile = profiles.get(currentUser.getId());
+                if (profile != null && profile.getTelegramChatId() != null) {
+                    bot.sendMessage(profile.getTelegramChatId(), "🔔 Test: Salaah Tracker notifications are working!");
+                    JsonResponseWriter.writeStatus(ctx, "success", "Message sent to Telegram!");
                 } else {
-                    ctx.result("{\"status\":\"failure\", \"message\":\"No Telegram ID linked yet.\"}");
+                    JsonResponseWriter.writeStatus(ctx, "failure", "No Telegram ID linked yet.");
+                }
+            }
+        });
+
+        // --- SETTINGS ---
+        app.get("/api/settings", ctx -> {
+            User currentUser = auth.currentUser(ctx);
+            if (currentUser == null) {
+                ctx.status(403);
+                JsonResponseWriter.writeStatus(ctx, "failure", "You must be logged in");
+                return;
+            }
+            User profile = profiles.get(currentUser.getId());
+            if (profile == null) {
+                ctx.status(404);
+                JsonResponseWriter.writeStatus(ctx, "failure", "User not found");
+                return;
+            }
+            JsonResponseWriter.writeFields(ctx, "status", "success", "city", profile.getCity(),
+                    "country", profile.getCountry(), "timezone", profile.getTimezone());
+        });
+
+        // Reminders follow this city's prayer times, and "today" is the user's date in its timezone.
+        // Blank city and country clear it. An explicit timezone overrides the city's
+        app.put("/api/settings/location", ctx -> {
+            User currentUser = auth.currentUser(ctx);
+            if (currentUser == null) {
+                ctx.status(403);
+                JsonResponseWriter.writeStatus(ctx, "failure", "You must be logged in");
+                return;
+            }
+            String city = trimToNull(ctx.formParam("city"));
+            String country = trimToNull(ctx.formParam("country"));
+            String timezone = trimToNull(ctx.formParam("timezone"));
+            if (timezone != null) {
+                try {
+                    timezone = ZoneId.of(timezone).getId();
+                } catch (DateTimeException e) {
+                    ctx.status(400);
+                    JsonResponseWriter.writeStatus(ctx, "failure", "Unknown timezone");
+                    return;
                 }
-                ctx.contentType("application/json");
             }
+            if (city == null || country == null) {
+                if (city != null || country != null) {
+                    ctx.status(400);
+                    JsonResponseWriter.writeStatus(ctx, "failure", "Please provide both city and country");
+                    return;
+                }
+            } else {
+                CityDirectory.City knownCity = prayerService.findCity(city, country);
+                if (knownCity != null) {
+                    // One spelling per bundled city, so "UK" and "United Kingdom" share a reminder bucket
+                    city = knownCity.name();
+                    country = knownCity.country();
+                    timezone = timezone != null ? timezone : knownCity.zone().getId();
+                } else if (timezone == null) {
+                    PrayerTimetable timetable = prayerService.getTimetable(city, country);
+                    if (timetable == null) {
+                        ctx.status(400);
+                        JsonResponseWriter.writeStatus(ctx, "failure", "Could not find prayer times for that city");
+                        return;
+                    }
+                    timezone = timetable.zone().getId();
+                }
+            }
+            ReminderScheduler.Location location = city != null ? new ReminderScheduler.Location(city, country) : null;
+            if (!dbManager.updateUserLocation(currentUser.getId(), city, country, timezone, location != null ? location.key() : null)) {
+                ctx.status(500);
+                JsonResponseWriter.writeStatus(ctx, "failure", "Could not save location");
+                return;
+            }
+            profiles.invalidate(currentUser.getId());
+            if (location != null) {
+                reminderScheduler.addLocation(location);
+            }
+            JsonResponseWriter.writeFields(ctx, "status", "success", "city", city, "country", country, "timezone", timezone);
         });
 
-        // --- EXACT MINUTE REMINDERS (UPDATED) ---
+        // --- REMINDERS ---
+        // The scheduler fires on its own for every saved location; this endpoint stays for external
+        // cron setups and fires anything currently due, for one city or (without parameters) for all
         app.get("/api/check-reminders", ctx -> {
             String city = ctx.queryParam("city");
             String country = ctx.queryParam("country");
 
+            if (city == null && country == null) {
+                String log = reminderScheduler.checkAll();
+                ctx.result(log.isEmpty() ? "Checked. No reminders due right now." : log);
+                return;
+            }
             if (city == null || country == null) {
                 ctx.result("Please provide city and country");
                 return;
             }
 
-            Map<String, LocalTime> timings = prayerService.getPrayerTimes(city, country);
+            String log = reminderScheduler.checkNow(city, country);
             
-            if (timings == null) {
+            if (log == null) {
                 ctx.result("Could not fetch prayer times.");
-                return;
-            }
-
-            StringBuilder log = new StringBuilder();
-            int[] milestones = {20, 10, 5};
-
-            for (int minutes : milestones) {
-                String upcomingEvent = prayerService.getUpcomingPrayerName(timings, minutes);
-
-                if (upcomingEvent != null) {
-                    String prayerToCheck = "";
-                    
-                    // --- ISLAMIC LOGIC + MIDNIGHT ---
-                    switch (upcomingEvent) {
-                        case "Sunrise": prayerToCheck = "Fajr"; break;
-                        case "Dhuhr": prayerToCheck = null; break;
-                        case "Asr": prayerToCheck = "Dhuhr"; break;
-                        case "Maghrib": prayerToCheck = "Asr"; break;
-                        case "Isha": prayerToCheck = "Maghrib"; break;
-                        case "Midnight": prayerToCheck = "Isha"; break; // RESTORED
-                        default: prayerToCheck = null; 
-                    }
-
-                    if (prayerToCheck != null) {
-                        List<String> chatIds = dbManager.getChatIdsForMissingPrayer(prayerToCheck, LocalDate.now());
-                        
-                        for (String chatId : chatIds) {
-                            String msg = "";
-                            
-                            // Adjust label for Midnight
-                            String timeLabel = upcomingEvent.equals("Midnight") ? "Midnight" : upcomingEvent;
-
-                            if (minutes == 20) {
-                                msg = "ℹ️ REMINDER: " + timeLabel + " is in exactly 20 mins.\n" +
-                                      "Have you prayed " + prayerToCheck + " yet?";
-                            }
-                            else if (minutes == 10) {
-                                msg = "⚠️ WARNING: Time for " + prayerToCheck + " is ending!\n" +
-                                      timeLabel + " is in 10 minutes.";
-                            }
-                            else if (minutes == 5) {
-                                msg = "🚨 URGENT: " + prayerToCheck + " will be missed in less than 5 minutes!\n" +
-                                      "Pray before " + timeLabel + "!";
-                            }
-                            
-                            bot.sendMessage(chatId, msg);
-                        }
-                        log.append("Sent " + minutes + "m warning for " + prayerToCheck + " (due to " + upcomingEvent + "). ");
-                    }
-                }
-            }
-
-            if (log.length() == 0) {
-                ctx.result("Checked. No exact reminders needed right now.");
+            } else if (log.isEmpty()) {
+                ctx.result("Checked. No reminders due right now.");
             } else {
-                ctx.result(log.toString());
+                ctx.result(log);
             }
         });
 
@@ -285,22 +587,128 @@ public class App {
         System.out.println("========================================");
     }
 
-    private static String serializePrayerList(List<PrayerLog> prayers) {
-        StringBuilder jsonArray = new StringBuilder();
-        jsonArray.append("[");
-        for (int i = 0; i < prayers.size(); i++) {
-            PrayerLog p = prayers.get(i);
-            jsonArray.append("{");
-            jsonArray.append("\"id\":").append(p.getId()).append(",");
-            jsonArray.append("\"prayerName\":\"").append(p.getPrayerName()).append("\",");
-            jsonArray.append("\"prayerDate\":\"").append(p.getPrayerDate().toString()).append("\",");
-            jsonArray.append("\"completed\":").append(p.isCompleted());
-            jsonArray.append("}"); 
-            if (i < prayers.size() - 1) {
-                jsonArray.append(",");
+    // Point-in-time values and the components' own counters, read on each scrape
+    private static void registerGauges(DatabaseManager dbManager, WriteBehindBuffer prayerWrites, TelegramBot bot,
+                                       ReminderScheduler reminderScheduler, PrayerTimesService prayerService, PasswordHasher passwordHasher, UserProfileCache profiles,
+                                       YearSummaryCache yearSummaries, UserDataVersions dataVersions, PrayerEventHub events) {
+        ConnectionPool pool = dbManager.getPool();
+        Metrics.gauge("db_pool_connections", "Open pooled connections.", pool::getTotalConnections);
+        Metrics.gauge("db_pool_idle_connections", "Idle pooled connections.", pool::getIdleConnections);
+        Metrics.gauge("db_operations_in_flight", "Database operations holding a concurrency permit.", pool::getInFlightOperations);
+        Metrics.gauge("db_operations_waiting", "Database operations waiting for a concurrency permit.", pool::getWaitingOperations);
+
+        Metrics.gauge("prayer_times_cache_entries", "Cached prayer timetables.", prayerService::getCacheSize);
+        Metrics.counter("prayer_times_cache_hits_total", "Prayer timetable cache hits.", prayerService::getCacheHits);
+        Metrics.counter("prayer_times_cache_misses_total", "Prayer timetable cache misses.", prayerService::getCacheMisses);
+        Metrics.counter("prayer_times_load_failures_total", "Prayer timetable loads that failed.", prayerService::getLoadFailures);
+        Metrics.counter("prayer_times_cache_evictions_total", "Prayer timetables evicted.", prayerService::getEvictions);
+        Metrics.counter("prayer_times_store_hits_total", "Cache misses answered from the prayer_timetable table.", prayerService::getStoreHits);
+        Metrics.counter("prayer_times_month_fetches_total", "Whole months fetched from aladhan.", prayerService::getMonthFetches);
+        Metrics.counter("prayer_times_stale_served_total", "Times an earlier day's timings were served because today's couldn't be fetched.", prayerService::getStaleServed);
+        Metrics.counter("prayer_times_revalidated_total", "Stale timetables replaced by a background refetch.", prayerService::getRevalidated);
+        CircuitBreaker aladhanBreaker = prayerService.getBreaker();
+        Metrics.gauge("aladhan_circuit_state", "aladhan circuit breaker: 0 closed, 1 half-open, 2 open.", () -> aladhanBreaker.getState().ordinal());
+        Metrics.counter("aladhan_circuit_opened_total", "Times the aladhan circuit breaker opened.", aladhanBreaker::getOpenedCount);
+        Metrics.counter("aladhan_circuit_rejected_total", "aladhan calls skipped because the breaker was open.", aladhanBreaker::getRejectedCount);
+        Metrics.counter("aladhan_retries_total", "aladhan attempts retried after a failure.", prayerService::getRetries);
+        Metrics.gauge("user_profile_cache_entries", "Cached user profiles.", profiles::size);
+        Metrics.gauge("year_summary_cache_users", "Users with cached year summaries.", yearSummaries::size);
+        Metrics.gauge("user_data_versions", "Users with a tracked data version.", dataVersions::size);
+
+        Metrics.gauge("sse_connections", "Open prayer event streams.", events::getSubscriberCount);
+        Metrics.counter("sse_events_published_total", "Prayer events published.", events::getPublishedCount);
+        Metrics.counter("sse_slow_consumers_dropped_total", "Streams closed because their buffer filled up.", events::getDroppedSubscribers);
+        Metrics.counter("sse_resumes_total", "Reconnects resumed from Last-Event-ID.", events::getResumedCount);
+        Metrics.counter("sse_resyncs_total", "Resync events sent instead of individual changes.", events::getResyncCount);
+
+        Metrics.gauge("telegram_queue_depth", "Messages waiting in the outbound Telegram queue.", bot::getQueueDepth);
+        Metrics.counter("telegram_messages_queued_total", "Messages accepted by sendMessage.", bot::getQueuedCount);
+        Metrics.counter("telegram_messages_sent_total", "Messages delivered to Telegram.", bot::getSentCount);
+        Metrics.counter("telegram_messages_failed_total", "Messages given up on.", bot::getFailedCount);
+        Metrics.counter("telegram_messages_retried_total", "Delivery attempts that were retried.", bot::getRetriedCount);
+        Metrics.counter("telegram_messages_dropped_total", "Messages dropped because the queue was full.", bot::getDroppedCount);
+        Metrics.counter("telegram_chats_dead_lettered_total", "Chats that blocked the bot or no longer exist.", bot::getDeadLetteredCount);
+        Metrics.gauge("telegram_dead_lettered_chats", "Chats currently skipped after blocking the bot.", bot::getDeadLetteredChatCount);
+        Metrics.counter("reminder_ledger_skipped_total", "Reminder recipients skipped because the ledger showed they already had it.", reminderScheduler::getLedgerSkipped);
+        Metrics.gauge("reminder_outcomes_pending", "Telegram outcomes not yet written to the reminder ledger.", reminderScheduler::getPendingOutcomes);
+        Metrics.gauge("reminder_runs_active", "Reminder milestones this instance is still delivering.", reminderScheduler::getActiveRuns);
+
+        Metrics.gauge("password_hash_queue_depth", "bcrypt jobs waiting for a hasher thread.", passwordHasher::getQueueDepth);
+        Metrics.gauge("password_hash_active", "bcrypt jobs running.", passwordHasher::getActiveCount);
+        Metrics.counter("password_hash_rejected_total", "bcrypt jobs rejected because the queue was full.", passwordHasher::getRejectedCount);
+        Metrics.counter("password_rehash_total", "Stored hashes upgraded to the current cost on login.", passwordHasher::getRehashCount);
+
+        Metrics.gauge("write_behind_pending", "Prayer toggles buffered and not yet written.", prayerWrites::getPendingCount);
+        Metrics.counter("write_behind_flushed_rows_total", "Prayer rows written by write-behind flushes.", prayerWrites::getFlushedRows);
+        Metrics.counter("write_behind_failed_flushes_total", "Write-behind flushes that failed and were re-buffered.", prayerWrites::getFailedFlushes);
+    }
+
+    // Everything that has to happen after a user's statuses change: new ETags, then the push
+    private static void prayersChanged(UserDataVersions dataVersions, PrayerEventHub events, int userId, List<PrayerChange> changes) {
+        dataVersions.bump(userId);
+        events.publish(userId, changes);
+    }
+
+    /**
+     * Sets the ETag for the user's current data version and answers 304 if the
+     * client already has it. Call it before reading anything, so a change made
+     * while the response is built leaves the client with an older tag.
+     * "no-cache" makes browsers revalidate on every fetch instead of reusing silently.
+     */
+    private static boolean notModified(Context ctx, UserDataVersions dataVersions, int userId, String variant) {
+        String etag = dataVersions.etag(userId, variant);
+        ctx.header("ETag", etag);
+        ctx.header("Cache-Control", "private, no-cache");
+        String ifNoneMatch = ctx.header("If-None-Match");
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            // Weak comparison; gzip proxies may also strip the W/ prefix
+            if (candidate.equals(etag) || ("W/" + candidate).equals(etag) || candidate.equals("*")) {
+                ctx.status(304);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The user's date in their saved timezone, or the server's date if they haven't set one
+    private static LocalDate userToday(User profile) {
+        if (profile != null && profile.getTimezone() != null) {
+            try {
+                return LocalDate.now(ZoneId.of(profile.getTimezone()));
+            } catch (DateTimeException e) {
+                // Fall through to the server's zone
             }
         }
-        jsonArray.append("]");
-        return jsonArray.toString();
+        return LocalDate.now();
+    }
+
+    private static String trimToNull(String value) {
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+
+    // The hasher's queue is full: fail fast and let the client retry
+    private static void rejectBusy(Context ctx) {
+        ctx.status(503);
+        ctx.header("Retry-After", "1");
+        JsonResponseWriter.writeStatus(ctx, "failure", "Server is busy, please try again");
+    }
+
+    // Re-hash with the current BCRYPT_COST in the background; skipped if the hasher is busy
+    private static void upgradeHash(PasswordHasher passwordHasher, DatabaseManager dbManager, User user, String password) {
+        if (!passwordHasher.needsRehash(user.getPassword())) {
+            return;
+        }
+        try {
+            passwordHasher.hash(password).thenAccept(hash -> {
+                dbManager.updatePasswordHash(user.getId(), hash);
+                passwordHasher.recordRehash();
+            });
+        } catch (RejectedExecutionException e) {
+            // Try again on a later login
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,162 @@
+package com.muayad.salaahtracker;
+
+import io.javalin.http.Context;
+import io.javalin.http.Cookie;
+import io.javalin.http.SameSite;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Works out who is logged in for a request.
+ *
+ * AUTH_MODE=session (default) keeps the user in Jetty's in-memory session, as
+ * before, but without the password hash. AUTH_MODE=token issues an
+ * HMAC-SHA256 signed cookie instead:
+ *
+ *   v1.&lt;userId&gt;.&lt;base64url(username)&gt;.&lt;expiresEpochSeconds&gt;.&lt;base64url(signature)&gt;
+ *
+ * Verifying it needs only SESSION_SECRET, so any instance behind a load balancer
+ * can serve any user and nothing is lost on restart. Tokens past half their
+ * lifetime are re-issued on use.
+ */
+public class Authenticator {
+
+    public enum Mode { SESSION, TOKEN }
+
+    private static final String SESSION_ATTRIBUTE = "currentUser";
+    private static final String TOKEN_COOKIE = "salaah_token";
+    private static final String TOKEN_VERSION = "v1";
+    private static final String HMAC = "HmacSHA256";
+
+    private final Mode mode;
+    private final SecretKeySpec key;
+    private final long ttlSeconds;
+    private final boolean secureCookie;
+
+    public Authenticator(Mode mode, String secret, long ttlSeconds, boolean secureCookie) {
+        this.mode = mode;
+        this.ttlSeconds = ttlSeconds;
+        this.secureCookie = secureCookie;
+        byte[] keyBytes;
+        if (secret == null || secret.isBlank()) {
+            keyBytes = new byte[32];
+            new SecureRandom().nextBytes(keyBytes);
+            if (mode == Mode.TOKEN) {
+                System.err.println("⚠️ SESSION_SECRET is not set: using a random key, tokens won't survive a restart or work across instances.");
+            }
+        } else {
+            keyBytes = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        this.key = new SecretKeySpec(keyBytes, HMAC);
+    }
+
+    // AUTH_MODE, SESSION_SECRET, SESSION_TTL_HOURS (default 7 days), SESSION_COOKIE_SECURE
+    public static Authenticator fromEnvironment() {
+        Mode mode = "token".equalsIgnoreCase(System.getenv("AUTH_MODE")) ? Mode.TOKEN : Mode.SESSION;
+        long ttlHours = 24 * 7;
+        String ttl = System.getenv("SESSION_TTL_HOURS");
+        if (ttl != null && !ttl.isBlank()) {
+            try {
+                ttlHours = Long.parseLong(ttl.trim());
+            } catch (NumberFormatException e) {
+                System.out.println("Ignoring invalid SESSION_TTL_HOURS: " + ttl);
+            }
+        }
+        boolean secure = Boolean.parseBoolean(System.getenv("SESSION_COOKIE_SECURE"));
+        System.out.println("Auth mode: " + mode.name().toLowerCase());
+        return new Authenticator(mode, System.getenv("SESSION_SECRET"), ttlHours * 3600, secure);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * The logged-in user (id and username only), or null. Never touches the
+     * database; use UserProfileCache for other profile fields.
+     */
+    public User currentUser(Context ctx) {
+        if (mode == Mode.SESSION) {
+            return ctx.sessionAttribute(SESSION_ATTRIBUTE);
+        }
+        String token = ctx.cookie(TOKEN_COOKIE);
+        if (token == null) {
+            return null;
+        }
+        String[] parts = token.split("\\.");
+        if (parts.length != 5 || !TOKEN_VERSION.equals(parts[0])) {
+            return null;
+        }
+        String payload = parts[0] + "." + parts[1] + "." + parts[2] + "." + parts[3];
+        try {
+            byte[] expected = sign(payload);
+            byte[] actual = Base64.getUrlDecoder().decode(parts[4]);
+            if (!MessageDigest.isEqual(expected, actual)) {
+                return null;
+            }
+            long expiresAt = Long.parseLong(parts[3]);
+            long now = System.currentTimeMillis() / 1000;
+            if (expiresAt <= now) {
+                return null;
+            }
+            int userId = Integer.parseInt(parts[1]);
+            String username = new String(Base64.getUrlDecoder().decode(parts[2]), StandardCharsets.UTF_8);
+            User user = new User(userId, username, null, null);
+            if (expiresAt - now < ttlSeconds / 2) {
+                issueToken(ctx, user);
+            }
+            return user;
+        } catch (IllegalArgumentException e) {
+            // Malformed base64 or numbers
+            return null;
+        }
+    }
+
+    public void login(Context ctx, User user) {
+        // Only identity is kept; the hash and other profile fields stay in the database
+        User identity = new User(user.getId(), user.getUsername(), null, null);
+        if (mode == Mode.SESSION) {
+            ctx.sessionAttribute(SESSION_ATTRIBUTE, identity);
+        } else {
+            issueToken(ctx, identity);
+        }
+    }
+
+    public void logout(Context ctx) {
+        if (mode == Mode.SESSION) {
+            ctx.req().getSession().invalidate();
+        } else {
+            ctx.cookie(tokenCookie("", 0));
+        }
+    }
+
+    // --- TOKENS ---
+
+    private void issueToken(Context ctx, User user) {
+        long expiresAt = System.currentTimeMillis() / 1000 + ttlSeconds;
+        String payload = TOKEN_VERSION + "." + user.getId() + "."
+                + Base64.getUrlEncoder().withoutPadding().encodeToString(user.getUsername().getBytes(StandardCharsets.UTF_8))
+                + "." + expiresAt;
+        String token = payload + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(sign(payload));
+        ctx.cookie(tokenCookie(token, (int) ttlSeconds));
+    }
+
+    private Cookie tokenCookie(String value, int maxAgeSeconds) {
+        return new Cookie(TOKEN_COOKIE, value, "/", maxAgeSeconds, secureCookie, 0, true, null, null, SameSite.LAX);
+    }
+
+    private byte[] sign(String payload) {
+        try {
+            Mac mac = Mac.getInstance(HMAC);
+            mac.init(key);
+            return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 unavailable", e);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.muayad.salaahtracker;
+
+/**
+ * Twilight conventions for Fajr and Isha. Isha is either a sun angle below the
+ * horizon or a fixed number of minutes after Maghrib. The aladhan id is the
+ * matching {@code method=} value of the aladhan API.
+ */
+public enum CalculationMethod {
+    UMM_AL_QURA(4, 18.5, 0, 90),
+    MWL(3, 18, 17, 0),
+    ISNA(2, 15, 15, 0),
+    EGYPTIAN(5, 19.5, 17.5, 0),
+    KARACHI(1, 18, 18, 0);
+
+    private final int aladhanId;
+    private final double fajrAngle;
+    private final double ishaAngle;
+    private final int ishaMinutesAfterMaghrib;
+
+    CalculationMethod(int aladhanId, double fajrAngle, double ishaAngle, int ishaMinutesAfterMaghrib) {
+        this.aladhanId = aladhanId;
+        this.fajrAngle = fajrAngle;
+        this.ishaAngle = ishaAngle;
+        this.ishaMinutesAfterMaghrib = ishaMinutesAfterMaghrib;
+    }
+
+    public int getAladhanId() { return aladhanId; }
+    public double getFajrAngle() { return fajrAngle; }
+    public double getIshaAngle() { return ishaAngle; }
+    public int getIshaMinutesAfterMaghrib() { return ishaMinutesAfterMaghrib; }
+
+    public boolean isIshaByMinutes() {
+        return ishaMinutesAfterMaghrib > 0;
+    }
+
+    // Accepts the enum name in any case, e.g. "umm_al_qura" or "MWL"; falls back to Umm al-Qura
+    public static CalculationMethod fromName(String name) {
+        if (name != null) {
+            for (CalculationMethod method : values()) {
+                if (method.name().equalsIgnoreCase(name.trim())) {
+                    return method;
+                }
+            }
+        }
+        return UMM_AL_QURA;
+    }
+}
@@ -0,0 +1,73 @@
+package com.muayad.salaahtracker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consecutive-failure circuit breaker for an upstream dependency. After
+ * {@code failureThreshold} failures in a row it opens and rejects calls for
+ * {@code openNanos}; then it lets a single trial call through (half-open),
+ * which either closes it again or re-opens it for another period.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, HALF_OPEN, OPEN }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtNanos;
+    private boolean trialInFlight;
+    private long openedCount;
+    private long rejectedCount;
+
+    public CircuitBreaker(int failureThreshold, long openSeconds) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = TimeUnit.SECONDS.toNanos(Math.max(1, openSeconds));
+    }
+
+    /** True if the caller may go upstream now; every true must be followed by recordSuccess, recordFailure or release. */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN && System.nanoTime() - openedAtNanos >= openNanos) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.HALF_OPEN && !trialInFlight) {
+            trialInFlight = true;
+            return true;
+        }
+        rejectedCount++;
+        return false;
+    }
+
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        trialInFlight = false;
+        state = State.CLOSED;
+    }
+
+    // For a call that ended without an answer either way (e.g. interrupted): frees a half-open trial, changes nothing else
+    public synchronized void release() {
+        trialInFlight = false;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        trialInFlight = false;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                openedCount++;
+            }
+            state = State.OPEN;
+            openedAtNanos = System.nanoTime();
+        }
+    }
+
+    // Reported as-is; an OPEN breaker past its period only turns HALF_OPEN on the next allowRequest()
+    public synchronized State getState() { return state; }
+    public synchronized long getOpenedCount() { return openedCount; }
+    public synchronized long getRejectedCount() { return rejectedCount; }
+}
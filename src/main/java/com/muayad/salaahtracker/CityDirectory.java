@@ -0,0 +1,80 @@
+package com.muayad.salaahtracker;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Bundled city -> coordinates/timezone table (src/main/resources/cities.csv),
+ * so prayer times for known cities can be calculated without calling aladhan.
+ * The country can be given by name or ISO code.
+ */
+public class CityDirectory {
+
+    public record City(String name, String country, double latitude, double longitude, ZoneId zone) {
+    }
+
+    private static final Map<String, String> COUNTRY_ALIASES = Map.of(
+        "ksa", "sa",
+        "uae", "ae",
+        "uk", "gb",
+        "usa", "us"
+    );
+
+    private final Map<String, City> cities = new HashMap<>();
+
+    public CityDirectory() {
+        this("/cities.csv");
+    }
+
+    public CityDirectory(String resource) {
+        try (InputStream in = CityDirectory.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                System.out.println("City table " + resource + " not found; all prayer times will come from aladhan.");
+                return;
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split(",");
+                if (parts.length != 6) {
+                    continue;
+                }
+                City city = new City(parts[0].trim(), parts[1].trim(),
+                        Double.parseDouble(parts[3].trim()), Double.parseDouble(parts[4].trim()),
+                        ZoneId.of(parts[5].trim()));
+                cities.put(key(parts[0], parts[1]), city);
+                cities.put(key(parts[0], parts[2]), city);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Could not load city table: " + e.getMessage());
+        }
+    }
+
+    /** Returns the city, or null if it isn't in the table. */
+    public City find(String city, String country) {
+        if (city == null || country == null) {
+            return null;
+        }
+        return cities.get(key(city, country));
+    }
+
+    public int size() {
+        return cities.size();
+    }
+
+    private static String key(String city, String country) {
+        String normalizedCountry = country.trim().toLowerCase(Locale.ROOT);
+        normalizedCountry = COUNTRY_ALIASES.getOrDefault(normalizedCountry, normalizedCountry);
+        return city.trim().toLowerCase(Locale.ROOT) + "|" + normalizedCountry;
+    }
+}
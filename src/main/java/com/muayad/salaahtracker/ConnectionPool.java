@@ -0,0 +1,601 @@
+package com.muayad.salaahtracker;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Small JDBC connection pool used by {@link DatabaseManager}.
+ *
+ * Connections handed out are proxies: close() returns the physical connection
+ * to the pool, and prepareStatement(sql) is served from a per-connection LRU
+ * statement cache. For SQLite every connection is switched to WAL mode with a
+ * busy timeout, and writers are serialized through {@link #getWriteConnection()}.
+ *
+ * Independently of the pool size, at most maxConcurrency connections are out
+ * at once (DB_MAX_CONCURRENCY, fair FIFO). Under virtual threads thousands of
+ * requests can arrive together; they park on the permit instead of all
+ * reaching the driver, whose synchronized native calls pin carrier threads.
+ */
+public class ConnectionPool {
+
+    private final String url;
+    private final boolean sqlite;
+    private final int minSize;
+    private final int maxSize;
+    private final int statementCacheSize;
+    private final long idleTimeoutMillis;
+    private final long validationIntervalMillis;
+    private final long connectionTimeoutMillis;
+    private final int busyTimeoutMillis;
+    private final int maxConcurrency;
+
+    // Bounds in-flight database operations; released when the borrowed connection is closed
+    private final Semaphore operationPermits;
+
+    // --- POOL STATE (guarded by lock) ---
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition connectionReturned = lock.newCondition();
+    private final ArrayDeque<PooledConnection> idleConnections = new ArrayDeque<>();
+    private int totalConnections;
+    private boolean closed;
+
+    // SQLite only allows one writer at a time; queue them here instead of on SQLITE_BUSY
+    private final ReentrantLock writeLock = new ReentrantLock(true);
+
+    private final ScheduledExecutorService housekeeper;
+
+    public ConnectionPool(String url, int minSize, int maxSize, int statementCacheSize,
+                          long idleTimeoutMillis, long connectionTimeoutMillis, int busyTimeoutMillis,
+                          int maxConcurrency) {
+        this.url = url;
+        this.sqlite = url.startsWith("jdbc:sqlite");
+        this.minSize = Math.max(0, Math.min(minSize, maxSize));
+        this.maxSize = Math.max(1, maxSize);
+        this.statementCacheSize = Math.max(0, statementCacheSize);
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationIntervalMillis = 30_000;
+        this.connectionTimeoutMillis = connectionTimeoutMillis;
+        this.busyTimeoutMillis = busyTimeoutMillis;
+        this.maxConcurrency = Math.max(1, Math.min(maxConcurrency, this.maxSize));
+        this.operationPermits = new Semaphore(this.maxConcurrency, true);
+
+        loadDriver();
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        this.housekeeper.scheduleWithFixedDelay(this::evictIdleConnections, 30, 30, TimeUnit.SECONDS);
+
+        fillToMinimum();
+    }
+
+    public static ConnectionPool fromEnvironment(String url) {
+        boolean sqlite = url.startsWith("jdbc:sqlite");
+        int maxSize = envInt("DB_POOL_MAX_SIZE", 10);
+        return new ConnectionPool(
+            url,
+            envInt("DB_POOL_MIN_SIZE", sqlite ? 1 : 2),
+            maxSize,
+            envInt("DB_STATEMENT_CACHE_SIZE", 32),
+            envInt("DB_POOL_IDLE_TIMEOUT_MS", 600_000),
+            envInt("DB_POOL_CONNECTION_TIMEOUT_MS", 30_000),
+            envInt("DB_BUSY_TIMEOUT_MS", 5_000),
+            envInt("DB_MAX_CONCURRENCY", maxSize)
+        );
+    }
+
+    private static int envInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    // The shaded jar only keeps one META-INF/services/java.sql.Driver, so register drivers explicitly
+    private void loadDriver() {
+        String driverClass = sqlite ? "org.sqlite.JDBC" : url.startsWith("jdbc:postgresql") ? "org.postgresql.Driver" : null;
+        if (driverClass == null) {
+            return;
+        }
+        try {
+            Class.forName(driverClass);
+        } catch (ClassNotFoundException e) {
+            System.out.println("Driver Error: " + driverClass + " is missing!");
+        }
+    }
+
+    public boolean isSqlite() {
+        return sqlite;
+    }
+
+    /** Borrows a connection for reads (or for writes on databases with real row locking). */
+    public Connection getConnection() throws SQLException {
+        acquirePermit();
+        try {
+            return wrap(borrow(), false);
+        } catch (SQLException | RuntimeException e) {
+            operationPermits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Borrows a connection for writing. On SQLite the caller holds the pool's
+     * single writer slot until the connection is closed; elsewhere this is the
+     * same as {@link #getConnection()}.
+     */
+    public Connection getWriteConnection() throws SQLException {
+        if (!sqlite) {
+            return getConnection();
+        }
+        try {
+            if (!writeLock.tryLock(connectionTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out waiting for the database write lock");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the database write lock", e);
+        }
+        try {
+            acquirePermit();
+        } catch (SQLException e) {
+            writeLock.unlock();
+            throw e;
+        }
+        try {
+            return wrap(borrow(), true);
+        } catch (SQLException | RuntimeException e) {
+            operationPermits.release();
+            writeLock.unlock();
+            throw e;
+        }
+    }
+
+    private void acquirePermit() throws SQLException {
+        try {
+            if (!operationPermits.tryAcquire(connectionTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out waiting for a database slot (max concurrency " + maxConcurrency + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database slot", e);
+        }
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public int getInFlightOperations() {
+        return maxConcurrency - operationPermits.availablePermits();
+    }
+
+    public int getWaitingOperations() {
+        return operationPermits.getQueueLength();
+    }
+
+    public int getTotalConnections() {
+        lock.lock();
+        try {
+            return totalConnections;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getIdleConnections() {
+        lock.lock();
+        try {
+            return idleConnections.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() {
+        housekeeper.shutdownNow();
+        lock.lock();
+        try {
+            closed = true;
+            for (PooledConnection pc : idleConnections) {
+                pc.closePhysical();
+                totalConnections--;
+            }
+            idleConnections.clear();
+            connectionReturned.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // --- BORROW / RETURN ---
+
+    private PooledConnection borrow() throws SQLException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectionTimeoutMillis);
+        while (true) {
+            PooledConnection candidate = null;
+            boolean mayCreate = false;
+
+            lock.lock();
+            try {
+                while (true) {
+                    if (closed) {
+                        throw new SQLException("Connection pool is closed");
+                    }
+                    candidate = idleConnections.pollFirst();
+                    if (candidate != null) {
+                        break;
+                    }
+                    if (totalConnections < maxSize) {
+                        totalConnections++;
+                        mayCreate = true;
+                        break;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new SQLException("Timed out waiting for a database connection (pool size " + maxSize + ")");
+                    }
+                    try {
+                        connectionReturned.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a database connection", e);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (mayCreate) {
+                try {
+                    return openPhysical();
+                } catch (SQLException | RuntimeException e) {
+                    discard(null);
+                    throw e;
+                }
+            }
+
+            if (isUsable(candidate)) {
+                return candidate;
+            }
+            discard(candidate);
+        }
+    }
+
+    private boolean isUsable(PooledConnection pc) {
+        try {
+            if (pc.connection.isClosed()) {
+                return false;
+            }
+            if (System.currentTimeMillis() - pc.lastUsedMillis < validationIntervalMillis) {
+                return true;
+            }
+            return pc.connection.isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(PooledConnection pc, boolean broken) {
+        if (!broken) {
+            try {
+                if (!pc.connection.getAutoCommit()) {
+                    pc.connection.rollback();
+                    pc.connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                broken = true;
+            }
+        }
+
+        lock.lock();
+        try {
+            if (broken || closed) {
+                totalConnections--;
+            } else {
+                pc.lastUsedMillis = System.currentTimeMillis();
+                idleConnections.addFirst(pc);
+            }
+            connectionReturned.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (broken || closed) {
+            pc.closePhysical();
+        }
+    }
+
+    private void discard(PooledConnection pc) {
+        lock.lock();
+        try {
+            totalConnections--;
+            connectionReturned.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (pc != null) {
+            pc.closePhysical();
+        }
+    }
+
+    private PooledConnection openPhysical() throws SQLException {
+        Connection conn = DriverManager.getConnection(url);
+        if (sqlite) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA journal_mode=WAL");
+                stmt.execute("PRAGMA synchronous=NORMAL");
+                stmt.execute("PRAGMA busy_timeout=" + busyTimeoutMillis);
+            } catch (SQLException e) {
+                conn.close();
+                throw e;
+            }
+        }
+        return new PooledConnection(conn, statementCacheSize);
+    }
+
+    private void fillToMinimum() {
+        for (int i = 0; i < minSize; i++) {
+            lock.lock();
+            try {
+                if (totalConnections >= minSize) {
+                    return;
+                }
+                totalConnections++;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                release(openPhysical(), false);
+            } catch (SQLException e) {
+                discard(null);
+                System.out.println("Connection Error: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            // Oldest idle connections sit at the tail of the deque
+            Iterator<PooledConnection> it = idleConnections.descendingIterator();
+            while (it.hasNext() && totalConnections > minSize) {
+                PooledConnection pc = it.next();
+                if (now - pc.lastUsedMillis < idleTimeoutMillis) {
+                    break;
+                }
+                it.remove();
+                totalConnections--;
+                pc.closePhysical();
+            }
+        } finally {
+            lock.unlock();
+        }
+        fillToMinimum();
+    }
+
+    private Connection wrap(PooledConnection pc, boolean holdsWriteLock) {
+        return (Connection) Proxy.newProxyInstance(
+            ConnectionPool.class.getClassLoader(),
+            new Class<?>[] { Connection.class },
+            new ConnectionHandler(pc, holdsWriteLock));
+    }
+
+    private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    // --- PHYSICAL CONNECTION + STATEMENT CACHE ---
+
+    private static final class PooledConnection {
+        final Connection connection;
+        final Map<String, CachedStatement> statements;
+        long lastUsedMillis = System.currentTimeMillis();
+
+        PooledConnection(Connection connection, int cacheSize) {
+            this.connection = connection;
+            this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                    if (size() > cacheSize && !eldest.getValue().inUse) {
+                        eldest.getValue().closeQuietly();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        void closePhysical() {
+            for (CachedStatement cs : statements.values()) {
+                cs.closeQuietly();
+            }
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                // Already gone
+            }
+        }
+    }
+
+    private static final class CachedStatement {
+        final PreparedStatement statement;
+        boolean inUse;
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        void closeQuietly() {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // Ignore
+            }
+        }
+    }
+
+    private final class ConnectionHandler implements InvocationHandler {
+        private final PooledConnection pooled;
+        private final boolean holdsWriteLock;
+        private boolean logicallyClosed;
+        private boolean broken;
+
+        ConnectionHandler(PooledConnection pooled, boolean holdsWriteLock) {
+            this.pooled = pooled;
+            this.holdsWriteLock = holdsWriteLock;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    closeLogical();
+                    return null;
+                case "isClosed":
+                    return logicallyClosed || pooled.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled[" + pooled.connection + "]";
+                default:
+                    break;
+            }
+            if (logicallyClosed) {
+                throw new SQLException("Connection is closed");
+            }
+            if (name.equals("prepareStatement") && args != null && args.length == 1 && statementCacheSize > 0) {
+                return prepareCached((String) args[0]);
+            }
+            try {
+                return invokeTarget(pooled.connection, method, args);
+            } catch (SQLException e) {
+                if (pooled.connection.isClosed()) {
+                    broken = true;
+                }
+                throw e;
+            }
+        }
+
+        private PreparedStatement prepareCached(String sql) throws SQLException {
+            CachedStatement cached = pooled.statements.get(sql);
+            if (cached != null && cached.inUse) {
+                // Same SQL prepared twice while the first is still open: hand out a plain statement
+                return pooled.connection.prepareStatement(sql);
+            }
+            if (cached == null) {
+                cached = new CachedStatement(pooled.connection.prepareStatement(sql));
+                pooled.statements.put(sql, cached);
+            }
+            cached.inUse = true;
+            return (PreparedStatement) Proxy.newProxyInstance(
+                ConnectionPool.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class },
+                new StatementHandler(cached));
+        }
+
+        private void closeLogical() {
+            if (logicallyClosed) {
+                return;
+            }
+            logicallyClosed = true;
+            for (CachedStatement cs : pooled.statements.values()) {
+                cs.inUse = false;
+            }
+            try {
+                release(pooled, broken);
+            } finally {
+                operationPermits.release();
+                if (holdsWriteLock) {
+                    writeLock.unlock();
+                }
+            }
+        }
+    }
+
+    private static final class StatementHandler implements InvocationHandler {
+        private final CachedStatement cached;
+        private ResultSet lastResultSet;
+        private boolean logicallyClosed;
+
+        StatementHandler(CachedStatement cached) {
+            this.cached = cached;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    closeLogical();
+                    return null;
+                case "isClosed":
+                    return logicallyClosed;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            if (logicallyClosed) {
+                throw new SQLException("Statement is closed");
+            }
+            Object result = invokeTarget(cached.statement, method, args);
+            if (result instanceof ResultSet rs) {
+                lastResultSet = rs;
+            }
+            return result;
+        }
+
+        private void closeLogical() throws SQLException {
+            if (logicallyClosed) {
+                return;
+            }
+            logicallyClosed = true;
+            try {
+                if (lastResultSet != null) {
+                    lastResultSet.close();
+                }
+                cached.statement.clearParameters();
+                cached.statement.clearBatch();
+            } finally {
+                cached.inUse = false;
+            }
+        }
+    }
+}
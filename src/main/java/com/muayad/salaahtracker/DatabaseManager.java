@@ -1,21 +1,87 @@
 package com.muayad.salaahtracker;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator; // Import added for sorting
+import java.util.HashSet;
 import java.util.List;
-import org.mindrot.jbcrypt.BCrypt;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
 
 public class DatabaseManager {
+
+    /**
+     * Where prayer history is kept (PRAYER_STORAGE).
+     *
+     * ROWS (default): one prayer_log row per prayer per day, with daily_summary
+     * kept alongside it in the same transaction.
+     * MASK: daily_summary alone, one row per (user, day) with a 5-bit completion
+     * mask; PrayerLog lists are expanded from it and their ids encode
+     * (epochDay << 3) | prayer ordinal. Once MASK is running, the redundant
+     * prayer_log rows are deleted in small batches in the background. Starting
+     * in ROWS again rebuilds them from daily_summary first. Every instance
+     * sharing a database must use the same setting.
+     */
+    public enum PrayerStorage { ROWS, MASK }
+
+    // --- QUERY METRICS (one histogram per method; time includes waiting for a connection) ---
+    private static final Metrics.Family<Metrics.Histogram> QUERY_SECONDS = Metrics.histogram(
+            "db_query_duration_seconds", "DatabaseManager call latency, including connection wait.", "query");
+    private static final Metrics.Histogram Q_SEARCH_USER = QUERY_SECONDS.labels("searchUser");
+    private static final Metrics.Histogram Q_FIND_USER = QUERY_SECONDS.labels("findUserById");
+    private static final Metrics.Histogram Q_REGISTER_USER = QUERY_SECONDS.labels("registerUser");
+    private static final Metrics.Histogram Q_UPDATE_HASH = QUERY_SECONDS.labels("updatePasswordHash");
+    private static final Metrics.Histogram Q_LINK_TELEGRAM = QUERY_SECONDS.labels("linkTelegramUser");
+    private static final Metrics.Histogram Q_UPDATE_LOCATION = QUERY_SECONDS.labels("updateUserLocation");
+    private static final Metrics.Histogram Q_REMINDER_LOCATIONS = QUERY_SECONDS.labels("getReminderLocations");
+    private static final Metrics.Histogram Q_CLAIM_REMINDER = QUERY_SECONDS.labels("claimReminderRun");
+    private static final Metrics.Histogram Q_UPDATE_REMINDER_RUN = QUERY_SECONDS.labels("updateReminderRun");
+    private static final Metrics.Histogram Q_PRUNE_REMINDERS = QUERY_SECONDS.labels("pruneReminderRuns");
+    private static final Metrics.Histogram Q_CLAIM_LEDGER = QUERY_SECONDS.labels("claimReminders");
+    private static final Metrics.Histogram Q_LEDGER_OUTCOMES = QUERY_SECONDS.labels("recordReminderOutcomes");
+    private static final Metrics.Histogram Q_PRUNE_LEDGER = QUERY_SECONDS.labels("pruneReminderLedger");
+    private static final Metrics.Histogram Q_FIND_TIMETABLE = QUERY_SECONDS.labels("findTimetable");
+    private static final Metrics.Histogram Q_SAVE_TIMETABLES = QUERY_SECONDS.labels("saveTimetables");
+    private static final Metrics.Histogram Q_PRUNE_TIMETABLES = QUERY_SECONDS.labels("pruneTimetables");
+    private static final Metrics.Histogram Q_RECIPIENT_PAGE = QUERY_SECONDS.labels("missingPrayerRecipientsPage");
+    private static final Metrics.Histogram Q_PRAYERS_DAY = QUERY_SECONDS.labels("getPrayersForToday");
+    private static final Metrics.Histogram Q_SET_STATUS = QUERY_SECONDS.labels("setPrayerStatus");
+    private static final Metrics.Histogram Q_SET_STATUSES = QUERY_SECONDS.labels("setPrayerStatuses");
+    private static final Metrics.Histogram Q_UPDATE_STATUS = QUERY_SECONDS.labels("updatePrayerStatus");
+    private static final Metrics.Histogram Q_DAILY_MASKS = QUERY_SECONDS.labels("getDailyMasks");
+    private static final Metrics.Histogram Q_PRAYERS_MONTH = QUERY_SECONDS.labels("getPrayersForMonth");
+    private static final Metrics.Histogram Q_PRAYERS_BETWEEN = QUERY_SECONDS.labels("getPrayersBetweenDates");
+
+    private final ConnectionPool pool;
+    private final PrayerStorage storage;
+    // Rows per keyset page when streaming reminder recipients
+    private final int recipientPageSize;
+
+    public DatabaseManager() {
+        this(getDatabaseUrl());
+    }
+
+    // Explicit JDBC url, e.g. for the benchmarks' seeded databases
+    public DatabaseManager(String url) {
+        this(url, "mask".equalsIgnoreCase(System.getenv("PRAYER_STORAGE")) ? PrayerStorage.MASK : PrayerStorage.ROWS);
+    }
+
+    public DatabaseManager(String url, PrayerStorage storage) {
+        this.pool = ConnectionPool.fromEnvironment(url);
+        this.storage = storage;
+        this.recipientPageSize = Math.max(1, envInt("REMINDER_PAGE_SIZE", 500));
+    }
     
-    private String getDatabaseUrl() {
+    private static String getDatabaseUrl() {
         String url = System.getenv("DB_URL");
         if (url == null) {
             return "jdbc:sqlite:salaahtracker.db"; 
@@ -23,22 +89,56 @@ public class DatabaseManager {
         return url;
     }
 
+    private static int envInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
     public Connection connect() {
         Connection conn = null;
         try {
-            Class.forName("org.sqlite.JDBC"); 
-            conn = DriverManager.getConnection(getDatabaseUrl());
-        } catch (ClassNotFoundException e) {
-            System.out.println("Driver Error: SQLite library is missing!");
+            conn = pool.getConnection();
+        } catch (SQLException e) {
+            System.out.println("Connection Error: " + e.getMessage());
+        }
+        return conn;
+    }
+
+    // Same as connect(), but waits for the single writer slot when running on SQLite
+    public Connection connectForWrite() {
+        Connection conn = null;
+        try {
+            conn = pool.getWriteConnection();
         } catch (SQLException e) {
             System.out.println("Connection Error: " + e.getMessage());
         }
         return conn;
     }
 
+    public void close() {
+        pool.close();
+    }
+
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    public PrayerStorage getPrayerStorage() {
+        return storage;
+    }
+
     public void initializeDatabase(){
+        // Decided by the URL this instance was opened with, not DB_URL (benchmarks and tests pass their own)
         String idType = "SERIAL PRIMARY KEY"; 
-        if (getDatabaseUrl().contains("sqlite")) {
+        if (pool.isSqlite()) {
             idType = "INTEGER PRIMARY KEY AUTOINCREMENT";
         }
 
@@ -58,22 +158,286 @@ public class DatabaseManager {
         + " FOREIGN KEY (user_id) REFERENCES users (id),"
         + " UNIQUE(user_id, prayer_name, prayer_date)" 
         + " );";
+
+        // One row per reminder milestone that has gone out, so restarts/replicas don't resend it
+        String createReminderRunsTable = "CREATE TABLE IF NOT EXISTS reminder_runs ("
+        + " location_key TEXT NOT NULL,"
+        + " run_date TEXT NOT NULL,"
+        + " event TEXT NOT NULL,"
+        + " milestone INTEGER NOT NULL,"
+        + " PRIMARY KEY (location_key, run_date, event, milestone)"
+        + " );";
     
-        try (Connection conn = this.connect()) {
+        try (Connection conn = this.connectForWrite()) {
             if (conn != null) {
                 try (Statement stmt = conn.createStatement()) {
                     stmt.execute(createUserTable);
                     stmt.execute(createPrayerLogTable);
+                    stmt.execute(createReminderRunsTable);
                     System.out.println("Database tables checked/created successfully.");
                 }
+                runMigrations(conn);
+                syncPrayerStorage(conn);
             }
         } catch (SQLException e) {
             System.out.println("Init Error: " + e.getMessage());
         }
      }
 
+     // --- SCHEMA MIGRATIONS ---
+     // Append new entries at the end; never edit one that has shipped.
+     // One row per (user, day) with a 5-bit completion mask (Fajr = bit 0 ... Isha = bit 4)
+     private static final String CREATE_DAILY_SUMMARY = "CREATE TABLE IF NOT EXISTS daily_summary ("
+         + " user_id INTEGER NOT NULL,"
+         + " summary_day INTEGER NOT NULL,"
+         + " completed_mask INTEGER NOT NULL DEFAULT 0,"
+         + " PRIMARY KEY (user_id, summary_day)"
+         + " )";
+     private static final String SUMMARY_FROM_PRAYER_LOG = "INSERT INTO daily_summary (user_id, summary_day, completed_mask) "
+         + "SELECT user_id, prayer_day, SUM(CASE prayer_name WHEN 'Fajr' THEN 1 WHEN 'Dhuhr' THEN 2 WHEN 'Asr' THEN 4 "
+         + "WHEN 'Maghrib' THEN 8 WHEN 'Isha' THEN 16 ELSE 0 END * is_completed) "
+         + "FROM prayer_log ";
+     private static final String BACKFILL_DAILY_SUMMARY = SUMMARY_FROM_PRAYER_LOG + "GROUP BY user_id, prayer_day";
+     // Adds only the days daily_summary is missing; "WHERE true" keeps SQLite from reading ON CONFLICT as a join constraint
+     private static final String FILL_MISSING_DAILY_SUMMARY = SUMMARY_FROM_PRAYER_LOG
+         + "WHERE true GROUP BY user_id, prayer_day ON CONFLICT (user_id, summary_day) DO NOTHING";
+
+     // Lets the reminder fan-out walk only linked users in id order, reading chat ids from the index
+     private static final String CREATE_LINKED_USERS_INDEX =
+         "CREATE INDEX IF NOT EXISTS idx_users_linked ON users (id, telegram_chat_id) WHERE telegram_chat_id IS NOT NULL";
+
+     // Small key/value store for state that isn't a schema version (e.g. which PrayerStorage last ran)
+     private static final String CREATE_APP_STATE =
+         "CREATE TABLE IF NOT EXISTS app_state (name TEXT PRIMARY KEY, value TEXT NOT NULL)";
+
+     // Per-user reminder location; location_key is ReminderScheduler.Location.key(), so the
+     // fan-out for one location walks only its own users in id order
+     private static final String CREATE_USER_LOCATION_INDEX =
+         "CREATE INDEX IF NOT EXISTS idx_users_location ON users (location_key, id, telegram_chat_id) WHERE telegram_chat_id IS NOT NULL";
+
+     // Fetched timings per (location + calculation settings, day), so restarts and midnight
+     // rollovers are served locally; times are local "HH:mm" in the row's timezone
+     private static final String CREATE_PRAYER_TIMETABLE = "CREATE TABLE IF NOT EXISTS prayer_timetable ("
+         + " timetable_key TEXT NOT NULL,"
+         + " timetable_day INTEGER NOT NULL,"
+         + " timezone TEXT NOT NULL,"
+         + " fajr TEXT NOT NULL,"
+         + " sunrise TEXT NOT NULL,"
+         + " dhuhr TEXT NOT NULL,"
+         + " asr TEXT NOT NULL,"
+         + " maghrib TEXT NOT NULL,"
+         + " isha TEXT NOT NULL,"
+         + " PRIMARY KEY (timetable_key, timetable_day)"
+         + " )";
+
+     // One row per reminder handed to Telegram, so a milestone reaches each user at most once
+     // even if it is walked twice; reminder_slot is reminderSlot(prayer, milestone). Keyed by
+     // day and slot first, so a page of recipients is one contiguous key range and pruning
+     // is a prefix delete. WITHOUT ROWID keeps it to the primary-key b-tree alone on SQLite.
+     private static final String CREATE_REMINDER_LEDGER = "CREATE TABLE IF NOT EXISTS reminder_ledger ("
+         + " reminder_day INTEGER NOT NULL,"
+         + " reminder_slot INTEGER NOT NULL,"
+         + " user_id INTEGER NOT NULL,"
+         + " state INTEGER NOT NULL DEFAULT 0,"
+         + " PRIMARY KEY (reminder_day, reminder_slot, user_id)"
+         + " )";
+
+     // Same order as the prayer_timetable columns after timezone
+     private static final String[] TIMETABLE_EVENTS = {"Fajr", "Sunrise", "Dhuhr", "Asr", "Maghrib", "Isha"};
+
+     private record Migration(int version, String description, String[] sqlite, String[] postgres) {}
+
+     private static final List<Migration> MIGRATIONS = List.of(
+         new Migration(1, "epoch-day prayer dates + range/reminder indexes",
+             new String[] {
+                 "ALTER TABLE prayer_log ADD COLUMN prayer_day INTEGER",
+                 "UPDATE prayer_log SET prayer_day = CAST(julianday(prayer_date) - 2440587.5 AS INTEGER)",
+                 "CREATE INDEX IF NOT EXISTS idx_prayer_log_user_day ON prayer_log (user_id, prayer_day, prayer_name, is_completed)",
+                 "CREATE INDEX IF NOT EXISTS idx_prayer_log_day_prayer ON prayer_log (prayer_day, prayer_name, is_completed, user_id)",
+                 "CREATE INDEX IF NOT EXISTS idx_users_telegram ON users (telegram_chat_id) WHERE telegram_chat_id IS NOT NULL"
+             },
+             new String[] {
+                 "ALTER TABLE prayer_log ADD COLUMN IF NOT EXISTS prayer_day INTEGER",
+                 "UPDATE prayer_log SET prayer_day = CAST(prayer_date AS DATE) - DATE '1970-01-01'",
+                 "CREATE INDEX IF NOT EXISTS idx_prayer_log_user_day ON prayer_log (user_id, prayer_day) INCLUDE (prayer_name, is_completed, id)",
+                 "CREATE INDEX IF NOT EXISTS idx_prayer_log_day_prayer ON prayer_log (prayer_day, prayer_name, is_completed, user_id)",
+                 "CREATE INDEX IF NOT EXISTS idx_users_telegram ON users (telegram_chat_id) WHERE telegram_chat_id IS NOT NULL"
+             }),
+         new Migration(2, "per-user daily completion summary",
+             new String[] { CREATE_DAILY_SUMMARY, BACKFILL_DAILY_SUMMARY },
+             new String[] { CREATE_DAILY_SUMMARY, BACKFILL_DAILY_SUMMARY }),
+         new Migration(3, "linked-user keyset index for reminder fan-out",
+             new String[] { CREATE_LINKED_USERS_INDEX },
+             new String[] { CREATE_LINKED_USERS_INDEX }),
+         new Migration(4, "app_state table",
+             new String[] { CREATE_APP_STATE },
+             new String[] { CREATE_APP_STATE }),
+         new Migration(5, "per-user location and timezone",
+             new String[] {
+                 "ALTER TABLE users ADD COLUMN city TEXT",
+                 "ALTER TABLE users ADD COLUMN country TEXT",
+                 "ALTER TABLE users ADD COLUMN timezone TEXT",
+                 "ALTER TABLE users ADD COLUMN location_key TEXT",
+                 CREATE_USER_LOCATION_INDEX
+             },
+             new String[] {
+                 "ALTER TABLE users ADD COLUMN IF NOT EXISTS city TEXT",
+                 "ALTER TABLE users ADD COLUMN IF NOT EXISTS country TEXT",
+                 "ALTER TABLE users ADD COLUMN IF NOT EXISTS timezone TEXT",
+                 "ALTER TABLE users ADD COLUMN IF NOT EXISTS location_key TEXT",
+                 CREATE_USER_LOCATION_INDEX
+             }),
+         new Migration(6, "persisted prayer timetables",
+             new String[] { CREATE_PRAYER_TIMETABLE },
+             new String[] { CREATE_PRAYER_TIMETABLE }),
+         // Runs that existed before this count as finished
+         new Migration(7, "reminder delivery ledger + resumable reminder runs",
+             new String[] {
+                 CREATE_REMINDER_LEDGER + " WITHOUT ROWID",
+                 "ALTER TABLE reminder_runs ADD COLUMN finished INTEGER NOT NULL DEFAULT 1",
+                 "ALTER TABLE reminder_runs ADD COLUMN claimed_at INTEGER NOT NULL DEFAULT 0"
+             },
+             new String[] {
+                 CREATE_REMINDER_LEDGER,
+                 "ALTER TABLE reminder_runs ADD COLUMN IF NOT EXISTS finished INTEGER NOT NULL DEFAULT 1",
+                 "ALTER TABLE reminder_runs ADD COLUMN IF NOT EXISTS claimed_at INTEGER NOT NULL DEFAULT 0"
+             }),
+         // Epoch seconds of the claim; a QUEUED row older than the lease lost its sender and can be re-claimed
+         new Migration(8, "reminder ledger claim time",
+             new String[] { "ALTER TABLE reminder_ledger ADD COLUMN claimed_at INTEGER NOT NULL DEFAULT 0" },
+             new String[] { "ALTER TABLE reminder_ledger ADD COLUMN IF NOT EXISTS claimed_at INTEGER NOT NULL DEFAULT 0" })
+     );
+
+     private void runMigrations(Connection conn) throws SQLException {
+        int currentVersion = 0;
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS schema_version (version INTEGER NOT NULL)");
+            ResultSet rs = stmt.executeQuery("SELECT MAX(version) FROM schema_version");
+            if (rs.next()) {
+                currentVersion = rs.getInt(1);
+            }
+        }
+
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version() <= currentVersion) {
+                continue;
+            }
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                for (String sql : pool.isSqlite() ? migration.sqlite() : migration.postgres()) {
+                    stmt.execute(sql);
+                }
+                stmt.executeUpdate("INSERT INTO schema_version (version) VALUES (" + migration.version() + ")");
+                conn.commit();
+                System.out.println("Applied migration " + migration.version() + ": " + migration.description());
+            } catch (SQLException e) {
+                conn.rollback();
+                throw new SQLException("Migration " + migration.version() + " failed: " + e.getMessage(), e);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+     }
+
+     // --- PRAYER STORAGE SWITCH ---
+
+     // Records the storage mode in app_state, rebuilding prayer_log when coming back from MASK,
+     // and starts the background prune of prayer_log when running MASK
+     private void syncPrayerStorage(Connection conn) throws SQLException {
+        String previous = null;
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT value FROM app_state WHERE name = 'prayer_storage'")) {
+            ResultSet rs = pstmt.executeQuery();
+            if (rs.next()) {
+                previous = rs.getString(1);
+            }
+        }
+        if (storage == PrayerStorage.ROWS && PrayerStorage.MASK.name().equals(previous)) {
+            rebuildPrayerLog(conn);
+        }
+        if (storage == PrayerStorage.MASK) {
+            // Days that only exist in prayer_log (rows written outside this class) get their
+            // summary row before the prune; days already summarised are never overwritten
+            try (Statement stmt = conn.createStatement()) {
+                int added = stmt.executeUpdate(FILL_MISSING_DAILY_SUMMARY);
+                if (added > 0) {
+                    System.out.println("Added " + added + " missing daily_summary rows from prayer_log");
+                }
+            }
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO app_state (name, value) VALUES ('prayer_storage', ?) "
+                + "ON CONFLICT (name) DO UPDATE SET value = excluded.value")) {
+            pstmt.setString(1, storage.name());
+            pstmt.executeUpdate();
+        }
+        System.out.println("Prayer storage: " + storage.name().toLowerCase());
+        if (storage == PrayerStorage.MASK) {
+            Thread pruner = new Thread(this::prunePrayerLog, "prayer-log-prune");
+            pruner.setDaemon(true);
+            pruner.start();
+        }
+     }
+
+     // daily_summary has every toggle made in either mode, so it can recreate all five rows of each day
+     private void rebuildPrayerLog(Connection conn) throws SQLException {
+        String dateText = pool.isSqlite()
+                ? "date(summary_day * 86400, 'unixepoch')"
+                : "to_char(DATE '1970-01-01' + summary_day, 'YYYY-MM-DD')";
+        // "WHERE true" keeps SQLite from reading ON CONFLICT as a join constraint
+        String sql = "INSERT INTO prayer_log (user_id, prayer_name, prayer_date, prayer_day, is_completed) "
+                   + "SELECT user_id, ?, " + dateText + ", summary_day, CASE WHEN (completed_mask & ?) <> 0 THEN 1 ELSE 0 END "
+                   + "FROM daily_summary WHERE true "
+                   + "ON CONFLICT (user_id, prayer_name, prayer_date) DO UPDATE SET is_completed = excluded.is_completed";
+        conn.setAutoCommit(false);
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int rows = 0;
+            for (Prayer prayer : Prayer.values()) {
+                pstmt.setString(1, prayer.getDisplayName());
+                pstmt.setInt(2, prayer.bit());
+                rows += pstmt.executeUpdate();
+            }
+            conn.commit();
+            System.out.println("Rebuilt " + rows + " prayer_log rows from daily_summary");
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+     }
+
+     // Deletes prayer_log in short transactions so the writer slot is never held for long
+     private void prunePrayerLog() {
+        int batchSize = Math.max(1, envInt("PRAYER_LOG_PRUNE_BATCH", 1000));
+        String sql = "DELETE FROM prayer_log WHERE id IN (SELECT id FROM prayer_log ORDER BY id LIMIT ?)";
+        long deleted = 0;
+        while (true) {
+            int batch;
+            try (Connection conn = this.connectForWrite();
+                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setInt(1, batchSize);
+                batch = pstmt.executeUpdate();
+            } catch (SQLException | RuntimeException e) {
+                System.out.println("prayer_log prune stopped: " + e.getMessage());
+                return;
+            }
+            deleted += batch;
+            if (batch < batchSize) {
+                if (deleted > 0) {
+                    System.out.println("Pruned " + deleted + " prayer_log rows (mask storage)");
+                }
+                return;
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+     }
+
      public User searchUser(String username) {
         String sql = "SELECT * FROM users WHERE username = ?";
+        long started = System.nanoTime();
         try (Connection conn = this.connect();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setString(1, username);
@@ -88,195 +452,878 @@ public class DatabaseManager {
             }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
+        } finally {
+            Q_SEARCH_USER.observeSince(started);
         }
         return null;
      }
     
-     public void registerUser(String username, String password){
-        String hashedPassword = BCrypt.hashpw(password, BCrypt.gensalt());
+     // Profile fields only; the password hash is never read here
+     public User findUserById(int userId) {
+        String sql = "SELECT id, username, telegram_chat_id, city, country, timezone FROM users WHERE id = ?";
+        long started = System.nanoTime();
+        try (Connection conn = this.connect();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, userId);
+            ResultSet rs = pstmt.executeQuery();
+            if (rs.next()) {
+                User user = new User(rs.getInt("id"), rs.getString("username"), null, rs.getString("telegram_chat_id"));
+                user.setCity(rs.getString("city"));
+                user.setCountry(rs.getString("country"));
+                user.setTimezone(rs.getString("timezone"));
+                return user;
+            }
+        } catch (SQLException e) {
+            System.out.println("Error fetching user: " + e.getMessage());
+        } finally {
+            Q_FIND_USER.observeSince(started);
+        }
+        return null;
+     }
+
+     // The hash comes from PasswordHasher; bcrypt never runs on a request thread
+     public void registerUser(String username, String hashedPassword){
         String insertUser = "INSERT INTO users(username, password) VALUES (?, ?)";
-        try(Connection conn = this.connect();
+        long started = System.nanoTime();
+        try(Connection conn = this.connectForWrite();
              PreparedStatement pstmt = conn.prepareStatement(insertUser)){
                 pstmt.setString(1, username);
                 pstmt.setString(2, hashedPassword);
                 pstmt.executeUpdate();
              } catch(SQLException e){
                 System.out.println(e.getMessage());
+             } finally {
+                Q_REGISTER_USER.observeSince(started);
              }
      }
     
-     public User loginUser(String username, String password){
-        String checkUser = "SELECT * FROM users WHERE username = ?";
-        try(Connection conn = this.connect();
-             PreparedStatement pstmt = conn.prepareStatement(checkUser)){
-                pstmt.setString(1, username);
-                ResultSet rs = pstmt.executeQuery();
-                if(rs.next()){
-                    String storedHash = rs.getString("password");
-                    if(BCrypt.checkpw(password, storedHash)){
-                        return new User(
-                            rs.getInt("id"), 
-                            rs.getString("username"), 
-                            rs.getString("password"),
-                            rs.getString("telegram_chat_id")
-                        );
-                    }
-                }
-             } catch(SQLException e){
-                System.out.println(e.getMessage());
-             }
-             return null;
+     // Used to upgrade a hash to the current BCRYPT_COST after a successful login
+     public void updatePasswordHash(int userId, String hashedPassword) {
+        String sql = "UPDATE users SET password = ? WHERE id = ?";
+        long started = System.nanoTime();
+        try (Connection conn = this.connectForWrite();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, hashedPassword);
+            pstmt.setInt(2, userId);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            System.out.println("Error updating password hash: " + e.getMessage());
+        } finally {
+            Q_UPDATE_HASH.observeSince(started);
+        }
      }
 
      public void linkTelegramUser(int userId, String chatId) {
          String sql = "UPDATE users SET telegram_chat_id = ? WHERE id = ?";
-         try (Connection conn = this.connect();
+         long started = System.nanoTime();
+         try (Connection conn = this.connectForWrite();
               PreparedStatement pstmt = conn.prepareStatement(sql)) {
              pstmt.setString(1, chatId);
              pstmt.setInt(2, userId);
              pstmt.executeUpdate();
          } catch (SQLException e) {
              System.out.println("Error linking telegram: " + e.getMessage());
+         } finally {
+             Q_LINK_TELEGRAM.observeSince(started);
          }
      }
 
-     public List<String> getChatIdsForMissingPrayer(String prayerName, LocalDate date) {
-        List<String> chatIds = new ArrayList<>();
-        String sql = "SELECT telegram_chat_id FROM users " +
-                     "WHERE telegram_chat_id IS NOT NULL " +
-                     "AND id NOT IN (" +
-                     "  SELECT user_id FROM prayer_log " +
-                     "  WHERE prayer_name = ? AND prayer_date = ? AND is_completed = 1" +
-                     ")";
+     // locationKey must be ReminderScheduler.Location.key() of (city, country)
+     public boolean updateUserLocation(int userId, String city, String country, String timezone, String locationKey) {
+         String sql = "UPDATE users SET city = ?, country = ?, timezone = ?, location_key = ? WHERE id = ?";
+         long started = System.nanoTime();
+         try (Connection conn = this.connectForWrite();
+              PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             pstmt.setString(1, city);
+             pstmt.setString(2, country);
+             pstmt.setString(3, timezone);
+             pstmt.setString(4, locationKey);
+             pstmt.setInt(5, userId);
+             return pstmt.executeUpdate() == 1;
+         } catch (SQLException e) {
+             System.out.println("Error updating location: " + e.getMessage());
+             return false;
+         } finally {
+             Q_UPDATE_LOCATION.observeSince(started);
+         }
+     }
 
-        try (Connection conn = this.connect();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, prayerName);
-            pstmt.setString(2, date.toString());
-            
-            ResultSet rs = pstmt.executeQuery();
-            while(rs.next()) {
-                chatIds.add(rs.getString("telegram_chat_id"));
+     // Every distinct location that has at least one linked user; one reminder bucket each
+     public List<ReminderScheduler.Location> getReminderLocations() {
+         String sql = "SELECT location_key, MIN(city), MIN(country) FROM users "
+                    + "WHERE telegram_chat_id IS NOT NULL AND location_key IS NOT NULL GROUP BY location_key";
+         List<ReminderScheduler.Location> locations = new ArrayList<>();
+         long started = System.nanoTime();
+         try (Connection conn = this.connect();
+              PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             ResultSet rs = pstmt.executeQuery();
+             while (rs.next()) {
+                 locations.add(new ReminderScheduler.Location(rs.getString(2), rs.getString(3)));
+             }
+         } catch (SQLException e) {
+             System.out.println("Error listing reminder locations: " + e.getMessage());
+         } finally {
+             Q_REMINDER_LOCATIONS.observeSince(started);
+         }
+         return locations;
+     }
+
+     /**
+      * Returns true only for the first caller to claim this milestone, or for one
+      * taking over a run that never finished and hasn't been touched for
+      * {@code resumeAfterSeconds} (its walker died); the ledger keeps the resumed
+      * walk from messaging anyone twice.
+      */
+     public boolean claimReminderRun(String locationKey, LocalDate date, String event, int milestone, long resumeAfterSeconds) {
+         String sql = "INSERT INTO reminder_runs (location_key, run_date, event, milestone, finished, claimed_at) "
+                    + "VALUES (?, ?, ?, ?, 0, ?) ON CONFLICT (location_key, run_date, event, milestone) "
+                    + "DO UPDATE SET claimed_at = excluded.claimed_at "
+                    + "WHERE reminder_runs.finished = 0 AND reminder_runs.claimed_at < ?";
+         long now = System.currentTimeMillis() / 1000;
+         long started = System.nanoTime();
+         try (Connection conn = this.connectForWrite();
+              PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             pstmt.setString(1, locationKey);
+             pstmt.setString(2, date.toString());
+             pstmt.setString(3, event);
+             pstmt.setInt(4, milestone);
+             pstmt.setLong(5, now);
+             pstmt.setLong(6, now - resumeAfterSeconds);
+             return pstmt.executeUpdate() == 1;
+         } catch (SQLException e) {
+             System.out.println("Error claiming reminder run: " + e.getMessage());
+             return false;
+         } finally {
+             Q_CLAIM_REMINDER.observeSince(started);
+         }
+     }
+
+     // Heartbeat for a claimed run while it is being delivered; finished once every recipient has an outcome
+     public void updateReminderRun(String locationKey, LocalDate date, String event, int milestone, boolean finished) {
+         String sql = "UPDATE reminder_runs SET claimed_at = ?, finished = ? "
+                    + "WHERE location_key = ? AND run_date = ? AND event = ? AND milestone = ?";
+         long started = System.nanoTime();
+         try (Connection conn = this.connectForWrite();
+              PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             pstmt.setLong(1, System.currentTimeMillis() / 1000);
+             pstmt.setInt(2, finished ? 1 : 0);
+             pstmt.setString(3, locationKey);
+             pstmt.setString(4, date.toString());
+             pstmt.setString(5, event);
+             pstmt.setInt(6, milestone);
+             pstmt.executeUpdate();
+         } catch (SQLException e) {
+             System.out.println("Error updating reminder run: " + e.getMessage());
+         } finally {
+             Q_UPDATE_REMINDER_RUN.observeSince(started);
+         }
+     }
+
+     public void pruneReminderRuns(LocalDate before) {
+         String sql = "DELETE FROM reminder_runs WHERE run_date < ?";
+         long started = System.nanoTime();
+         try (Connection conn = this.connectForWrite();
+              PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             pstmt.setString(1, before.toString());
+             pstmt.executeUpdate();
+         } catch (SQLException e) {
+             System.out.println("Error pruning reminder runs: " + e.getMessage());
+         } finally {
+             Q_PRUNE_REMINDERS.observeSince(started);
+         }
+     }
+
+     // --- REMINDER LEDGER ---
+
+     // reminder_ledger.state
+     public static final int LEDGER_QUEUED = 0;
+     public static final int LEDGER_SENT = 1;
+     public static final int LEDGER_FAILED = 2;
+     // Rows per claim statement; four parameters each keeps it far below SQLite's limit
+     private static final int LEDGER_CLAIM_CHUNK = 1000;
+
+     // One int per (prayer, milestone): the prayer's ordinal above the milestone minutes
+     public static int reminderSlot(Prayer prayer, int milestone) {
+         return (prayer.ordinal() << 8) | (milestone & 0xFF);
+     }
+
+     /**
+      * Claims the reminder for a page of recipients in bulk: users with no ledger
+      * row for (date, slot) get one, and rows whose earlier send failed are taken
+      * back, as are rows still QUEUED after {@code leaseSeconds} (their sender died
+      * before the outcome was written). Returns the users claimed by this call, the
+      * only ones to message, or null if the ledger couldn't be written (then nobody
+      * should be messaged).
+      *
+      * {@code userIds} must be ascending, as recipient pages are. The page's rows
+      * are first read with one range scan of the primary key, so a page that was
+      * already handled costs that read and no write; the rest are inserted in one
+      * statement whose conflict clause still settles races with another walker.
+      */
+     public Set<Integer> claimReminders(LocalDate date, int slot, List<Integer> userIds, long leaseSeconds) {
+         Set<Integer> claimed = new HashSet<>();
+         if (userIds.isEmpty()) {
+             return claimed;
+         }
+         long now = System.currentTimeMillis() / 1000;
+         String held = "SELECT user_id FROM reminder_ledger WHERE reminder_day = ? AND reminder_slot = ? "
+                     + "AND user_id BETWEEN ? AND ? "
+                     + "AND (state = " + LEDGER_SENT + " OR (state = " + LEDGER_QUEUED + " AND claimed_at >= ?))";
+         long started = System.nanoTime();
+         try {
+             Set<Integer> existing = new HashSet<>();
+             try (Connection conn = this.connect();
+                  PreparedStatement pstmt = conn.prepareStatement(held)) {
+                 pstmt.setLong(1, date.toEpochDay());
+                 pstmt.setInt(2, slot);
+                 pstmt.setInt(3, userIds.get(0));
+                 pstmt.setInt(4, userIds.get(userIds.size() - 1));
+                 pstmt.setLong(5, now - leaseSeconds);
+                 ResultSet rs = pstmt.executeQuery();
+                 while (rs.next()) {
+                     existing.add(rs.getInt(1));
+                 }
+             }
+             List<Integer> candidates = new ArrayList<>(userIds.size());
+             for (int userId : userIds) {
+                 if (!existing.contains(userId)) {
+                     candidates.add(userId);
+                 }
+             }
+             if (candidates.isEmpty()) {
+                 return claimed;
+             }
+             try (Connection conn = this.connectForWrite()) {
+                 for (int from = 0; from < candidates.size(); from += LEDGER_CLAIM_CHUNK) {
+                     insertLedgerRows(conn, date, slot, candidates.subList(from, Math.min(candidates.size(), from + LEDGER_CLAIM_CHUNK)),
+                             now, leaseSeconds, claimed);
+                 }
+             }
+             return claimed;
+         } catch (SQLException e) {
+             System.out.println("Error claiming reminders: " + e.getMessage());
+             return null;
+         } finally {
+             Q_CLAIM_LEDGER.observeSince(started);
+         }
+     }
+
+     private static void insertLedgerRows(Connection conn, LocalDate date, int slot, List<Integer> userIds,
+                                          long now, long leaseSeconds, Set<Integer> claimed) throws SQLException {
+         StringBuilder sql = new StringBuilder("INSERT INTO reminder_ledger (reminder_day, reminder_slot, user_id, state, claimed_at) VALUES ");
+         for (int i = 0; i < userIds.size(); i++) {
+             sql.append(i == 0 ? "(?, ?, ?, " : ", (?, ?, ?, ").append(LEDGER_QUEUED).append(", ?)");
+         }
+         // The inverse of the read in claimReminders: failed, or queued and past the lease
+         sql.append(" ON CONFLICT (reminder_day, reminder_slot, user_id) DO UPDATE SET state = ").append(LEDGER_QUEUED)
+            .append(", claimed_at = excluded.claimed_at WHERE reminder_ledger.state = ").append(LEDGER_FAILED)
+            .append(" OR (reminder_ledger.state = ").append(LEDGER_QUEUED).append(" AND reminder_ledger.claimed_at < ?)")
+            .append(" RETURNING user_id");
+         try (PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+             int index = 1;
+             for (int userId : userIds) {
+                 pstmt.setLong(index++, date.toEpochDay());
+                 pstmt.setInt(index++, slot);
+                 pstmt.setInt(index++, userId);
+                 pstmt.setLong(index++, now);
+             }
+             pstmt.setLong(index, now - leaseSeconds);
+             ResultSet rs = pstmt.executeQuery();
+             while (rs.next()) {
+                 claimed.add(rs.getInt(1));
+             }
+         }
+     }
+
+     // Marks ledger rows LEDGER_SENT or LEDGER_FAILED in one transaction
+     public boolean recordReminderOutcomes(List<ReminderScheduler.Outcome> outcomes) {
+         String sql = "UPDATE reminder_ledger SET state = ? WHERE reminder_day = ? AND reminder_slot = ? AND user_id = ?";
+         long started = System.nanoTime();
+         try (Connection conn = this.connectForWrite()) {
+             conn.setAutoCommit(false);
+             try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                 for (ReminderScheduler.Outcome outcome : outcomes) {
+                     pstmt.setInt(1, outcome.sent() ? LEDGER_SENT : LEDGER_FAILED);
+                     pstmt.setLong(2, outcome.date().toEpochDay());
+                     pstmt.setInt(3, outcome.slot());
+                     pstmt.setInt(4, outcome.userId());
+                     pstmt.addBatch();
+                 }
+                 pstmt.executeBatch();
+                 conn.commit();
+                 return true;
+             } catch (SQLException e) {
+                 conn.rollback();
+                 throw e;
+             }
+         } catch (SQLException e) {
+             System.out.println("Error recording reminder outcomes: " + e.getMessage());
+             return false;
+         } finally {
+             Q_LEDGER_OUTCOMES.observeSince(started);
+         }
+     }
+
+     public void pruneReminderLedger(LocalDate before) {
+         String sql = "DELETE FROM reminder_ledger WHERE reminder_day < ?";
+         long started = System.nanoTime();
+         try (Connection conn = this.connectForWrite();
+              PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             pstmt.setLong(1, before.toEpochDay());
+             pstmt.executeUpdate();
+         } catch (SQLException e) {
+             System.out.println("Error pruning reminder ledger: " + e.getMessage());
+         } finally {
+             Q_PRUNE_LEDGER.observeSince(started);
+         }
+     }
+
+     // --- PRAYER TIMETABLES ---
+
+     // Only the six timings in TIMETABLE_EVENTS are kept; null if the day isn't stored
+     public PrayerTimetable findTimetable(String timetableKey, LocalDate date) {
+         String sql = "SELECT timezone, fajr, sunrise, dhuhr, asr, maghrib, isha FROM prayer_timetable "
+                    + "WHERE timetable_key = ? AND timetable_day = ?";
+         long started = System.nanoTime();
+         try (Connection conn = this.connect();
+              PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             pstmt.setString(1, timetableKey);
+             pstmt.setLong(2, date.toEpochDay());
+             ResultSet rs = pstmt.executeQuery();
+             if (!rs.next()) {
+                 return null;
+             }
+             Map<String, LocalTime> timings = new TreeMap<>();
+             for (int i = 0; i < TIMETABLE_EVENTS.length; i++) {
+                 timings.put(TIMETABLE_EVENTS[i], LocalTime.parse(rs.getString(i + 2)));
+             }
+             return new PrayerTimetable(timings, ZoneId.of(rs.getString(1)), date);
+         } catch (SQLException | RuntimeException e) {
+             System.out.println("Error reading timetable: " + e.getMessage());
+             return null;
+         } finally {
+             Q_FIND_TIMETABLE.observeSince(started);
+         }
+     }
+
+     // Upserts a batch of days (typically a whole month) in one transaction
+     public boolean saveTimetables(String timetableKey, List<PrayerTimetable> days) {
+         String sql = "INSERT INTO prayer_timetable (timetable_key, timetable_day, timezone, fajr, sunrise, dhuhr, asr, maghrib, isha) "
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT (timetable_key, timetable_day) DO UPDATE SET "
+                    + "timezone = excluded.timezone, fajr = excluded.fajr, sunrise = excluded.sunrise, dhuhr = excluded.dhuhr, "
+                    + "asr = excluded.asr, maghrib = excluded.maghrib, isha = excluded.isha";
+         long started = System.nanoTime();
+         try (Connection conn = this.connectForWrite()) {
+             conn.setAutoCommit(false);
+             try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                 for (PrayerTimetable day : days) {
+                     pstmt.setString(1, timetableKey);
+                     pstmt.setLong(2, day.date().toEpochDay());
+                     pstmt.setString(3, day.zone().getId());
+                     for (int i = 0; i < TIMETABLE_EVENTS.length; i++) {
+                         LocalTime time = day.timings().get(TIMETABLE_EVENTS[i]);
+                         if (time == null) {
+                             throw new SQLException("Timetable for " + day.date() + " has no " + TIMETABLE_EVENTS[i]);
+                         }
+                         pstmt.setString(i + 4, time.toString());
+                     }
+                     pstmt.addBatch();
+                 }
+                 pstmt.executeBatch();
+                 conn.commit();
+                 return true;
+             } catch (SQLException e) {
+                 conn.rollback();
+                 throw e;
+             }
+         } catch (SQLException e) {
+             System.out.println("Error saving timetables: " + e.getMessage());
+             return false;
+         } finally {
+             Q_SAVE_TIMETABLES.observeSince(started);
+         }
+     }
+
+     public void pruneTimetables(LocalDate before) {
+         String sql = "DELETE FROM prayer_timetable WHERE timetable_day < ?";
+         long started = System.nanoTime();
+         try (Connection conn = this.connectForWrite();
+              PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             pstmt.setLong(1, before.toEpochDay());
+             pstmt.executeUpdate();
+         } catch (SQLException e) {
+             System.out.println("Error pruning timetables: " + e.getMessage());
+         } finally {
+             Q_PRUNE_TIMETABLES.observeSince(started);
+         }
+     }
+
+     /**
+      * Streams the chat ids of linked users at {@code locationKey} (plus those with no
+      * location when {@code includeUnset}) who haven't completed {@code prayerName}
+      * on {@code date} to {@code action}, one keyset page at a time. The connection
+      * is released between pages, so a slow consumer (e.g. a full send queue) never
+      * pins it, and only one page is ever held in memory. Returns the number of
+      * recipients visited, or -1 if {@code prayerName} isn't one of the five prayers
+      * or a page could not be read.
+      */
+     public int forEachChatIdMissingPrayer(String locationKey, boolean includeUnset, String prayerName, LocalDate date,
+                                           Consumer<String> action) {
+        return forEachRecipientPage(locationKey, includeUnset, prayerName, date, page -> {
+            for (ReminderScheduler.Recipient recipient : page) {
+                action.accept(recipient.chatId());
+            }
+        });
+     }
+
+     // Same walk, handing over whole pages (in user id order) so they can be claimed in bulk
+     public int forEachRecipientPage(String locationKey, boolean includeUnset, String prayerName, LocalDate date,
+                                     Consumer<List<ReminderScheduler.Recipient>> action) {
+        String completed = storage == PrayerStorage.MASK
+                ? "  SELECT 1 FROM daily_summary s " +
+                  "  WHERE s.user_id = u.id AND s.summary_day = ? AND (s.completed_mask & ?) <> 0"
+                : "  SELECT 1 FROM prayer_log p " +
+                  "  WHERE p.prayer_day = ? AND p.prayer_name = ? AND p.is_completed = 1 AND p.user_id = u.id";
+        String sql = "SELECT u.id, u.telegram_chat_id FROM users u " +
+                     "WHERE u.telegram_chat_id IS NOT NULL AND u.id > ? " +
+                     (includeUnset ? "AND (u.location_key = ? OR u.location_key IS NULL) " : "AND u.location_key = ? ") +
+                     "AND NOT EXISTS (" + completed + ") ORDER BY u.id LIMIT ?";
+        // Otherwise the filter matches nobody's completion (bit 0 under MASK) and everyone gets the reminder
+        Prayer prayer = Prayer.fromName(prayerName);
+        if (prayer == null) {
+            System.out.println("Not sending reminders for unknown prayer: " + prayerName);
+            return -1;
+        }
+        int lastId = 0;
+        int visited = 0;
+        while (true) {
+            List<ReminderScheduler.Recipient> page = new ArrayList<>(recipientPageSize);
+            long started = System.nanoTime();
+            try (Connection conn = this.connect();
+                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setInt(1, lastId);
+                pstmt.setString(2, locationKey);
+                pstmt.setLong(3, date.toEpochDay());
+                if (storage == PrayerStorage.MASK) {
+                    pstmt.setInt(4, prayer.bit());
+                } else {
+                    pstmt.setString(4, prayerName);
+                }
+                pstmt.setInt(5, recipientPageSize);
+                ResultSet rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    lastId = rs.getInt(1);
+                    page.add(new ReminderScheduler.Recipient(lastId, rs.getString(2)));
+                }
+            } catch (SQLException e) {
+                System.out.println("Error fetching missing prayers: " + e.getMessage());
+                return -1;
+            } finally {
+                Q_RECIPIENT_PAGE.observeSince(started);
+            }
+            int size = page.size();
+            if (size > 0) {
+                action.accept(page);
+            }
+            visited += size;
+            if (size < recipientPageSize) {
+                return visited;
             }
-        } catch (SQLException e) {
-            System.out.println("Error fetching missing prayers: " + e.getMessage());
         }
-        return chatIds;
      }
 
+     // Pure read: prayers with no stored row are returned as "not completed" with id 0
      public List<PrayerLog> getPrayersForToday(int userId, LocalDate date){
-        List<PrayerLog> todayPrayers = new ArrayList<>();
-        String dateString = date.toString();
-        
-        String fetchPrayers = "SELECT * FROM prayer_log WHERE user_id = ? AND prayer_date = ?";
+        if (storage == PrayerStorage.MASK) {
+            List<PrayerLog> day = readSummaryDays(Q_PRAYERS_DAY, userId, date, date);
+            if (day.isEmpty()) {
+                appendMaskDay(day, userId, date.toEpochDay(), 0);
+            }
+            return day;
+        }
+        List<PrayerLog> storedPrayers = new ArrayList<>();
+        String fetchPrayers = "SELECT " + PRAYER_COLUMNS + " FROM prayer_log WHERE user_id = ? AND prayer_day = ?";
         
-        try (Connection conn = this.connect()) {
-            boolean prayersExist = false;
-            try (PreparedStatement fetchstmt = conn.prepareStatement(fetchPrayers)) {
-                fetchstmt.setInt(1, userId);
-                fetchstmt.setString(2, dateString);
-                ResultSet rs = fetchstmt.executeQuery();
-                while (rs.next()) {
-                    prayersExist = true;
-                    PrayerLog prayerlog = new PrayerLog();
-                    prayerlog.setId(rs.getInt("id"));
-                    prayerlog.setUserId(rs.getInt("user_id"));
-                    prayerlog.setPrayerName(rs.getString("prayer_name"));
-                    prayerlog.setPrayerDate(LocalDate.parse(rs.getString("prayer_date")));
-                    prayerlog.setCompleted(rs.getInt("is_completed") == 1);
-                    todayPrayers.add(prayerlog);
-                }
+        long started = System.nanoTime();
+        try (Connection conn = this.connect();
+             PreparedStatement fetchstmt = conn.prepareStatement(fetchPrayers)) {
+            fetchstmt.setInt(1, userId);
+            fetchstmt.setLong(2, date.toEpochDay());
+            ResultSet rs = fetchstmt.executeQuery();
+            while (rs.next()) {
+                storedPrayers.add(mapPrayerLog(rs));
             }
+        } catch (SQLException e) {
+            System.out.println("Error managing daily prayers: " + e.getMessage());
+        } finally {
+            Q_PRAYERS_DAY.observeSince(started);
+        }
+
+        List<PrayerLog> todayPrayers = new ArrayList<>(Prayer.count());
+        appendDay(todayPrayers, storedPrayers, 0, storedPrayers.size(), userId, date);
+        return todayPrayers;
+     }
+
+     // Writes a single prayer's status, creating its row on first toggle
+     public boolean setPrayerStatus(int userId, LocalDate date, Prayer prayer, boolean isCompleted){
+        if (storage == PrayerStorage.MASK) {
+            long started = System.nanoTime();
+            try (Connection conn = this.connectForWrite()) {
+                updateDailySummary(conn, userId, date.toEpochDay(), prayer, isCompleted);
+                return true;
+            } catch (SQLException e) {
+                System.out.println("Error saving prayer status: " + e.getMessage());
+                return false;
+            } finally {
+                Q_SET_STATUS.observeSince(started);
+            }
+        }
+        String sql = "INSERT INTO prayer_log (user_id, prayer_name, prayer_date, prayer_day, is_completed) VALUES (?, ?, ?, ?, ?) "
+                   + "ON CONFLICT (user_id, prayer_name, prayer_date) DO UPDATE SET is_completed = excluded.is_completed";
+        long started = System.nanoTime();
+        try (Connection conn = this.connectForWrite()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement upsertstmt = conn.prepareStatement(sql)) {
+                upsertstmt.setInt(1, userId);
+                upsertstmt.setString(2, prayer.getDisplayName());
+                upsertstmt.setString(3, date.toString());
+                upsertstmt.setLong(4, date.toEpochDay());
+                upsertstmt.setInt(5, isCompleted ? 1 : 0);
+                upsertstmt.executeUpdate();
+                updateDailySummary(conn, userId, date.toEpochDay(), prayer, isCompleted);
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            System.out.println("Error saving prayer status: " + e.getMessage());
+            return false;
+        } finally {
+            Q_SET_STATUS.observeSince(started);
+        }
+     }
+
+     /**
+      * Applies many status changes for one user in a single transaction: the
+      * prayer_log upserts and the daily_summary updates each go out as one JDBC
+      * batch. Every row is keyed by this user's id, so nothing owned by anyone else
+      * can be touched. Returns false (and changes nothing) if the transaction fails.
+      */
+     public boolean setPrayerStatuses(int userId, List<PrayerChange> changes) {
+        return setPrayerStatuses(Map.of(userId, changes));
+     }
 
-            if (!prayersExist) {
-                List<String> the5Prayers = Arrays.asList("Fajr", "Dhuhr", "Asr", "Maghrib", "Isha");
-                String insertPrayers = "INSERT INTO prayer_log (user_id, prayer_name, prayer_date, is_completed) VALUES (?, ?, ?, 0)";
-                
-                try (PreparedStatement instmt = conn.prepareStatement(insertPrayers)){
-                    for (String prayer : the5Prayers) {
-                        try {
-                            instmt.setInt(1, userId);
-                            instmt.setString(2, prayer);
-                            instmt.setString(3, dateString);
-                            instmt.executeUpdate();
-                        } catch (SQLException ex) {
-                            // Ignore duplicates
+     // Same, for several users at once (used by the write-behind buffer's flush)
+     public boolean setPrayerStatuses(Map<Integer, List<PrayerChange>> changesByUser) {
+        if (changesByUser.values().stream().allMatch(List::isEmpty)) {
+            return true;
+        }
+        String upsert = "INSERT INTO prayer_log (user_id, prayer_name, prayer_date, prayer_day, is_completed) VALUES (?, ?, ?, ?, ?) "
+                      + "ON CONFLICT (user_id, prayer_name, prayer_date) DO UPDATE SET is_completed = excluded.is_completed";
+        String summary = "INSERT INTO daily_summary (user_id, summary_day, completed_mask) VALUES (?, ?, ?) "
+                       + "ON CONFLICT (user_id, summary_day) DO UPDATE SET completed_mask = (daily_summary.completed_mask & ?) | ?";
+        long started = System.nanoTime();
+        try (Connection conn = this.connectForWrite()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement upsertstmt = conn.prepareStatement(upsert);
+                 PreparedStatement summarystmt = conn.prepareStatement(summary)) {
+                for (Map.Entry<Integer, List<PrayerChange>> entry : changesByUser.entrySet()) {
+                    int userId = entry.getKey();
+                    for (PrayerChange change : entry.getValue()) {
+                        long day = change.date().toEpochDay();
+                        int bit = change.prayer().bit();
+                        int setBits = change.completed() ? bit : 0;
+
+                        if (storage == PrayerStorage.ROWS) {
+                            upsertstmt.setInt(1, userId);
+                            upsertstmt.setString(2, change.prayer().getDisplayName());
+                            upsertstmt.setString(3, change.date().toString());
+                            upsertstmt.setLong(4, day);
+                            upsertstmt.setInt(5, change.completed() ? 1 : 0);
+                            upsertstmt.addBatch();
                         }
+
+                        summarystmt.setInt(1, userId);
+                        summarystmt.setLong(2, day);
+                        summarystmt.setInt(3, setBits);
+                        summarystmt.setInt(4, Prayer.ALL_COMPLETED_MASK & ~bit);
+                        summarystmt.setInt(5, setBits);
+                        summarystmt.addBatch();
                     }
                 }
-                return getPrayersForToday(userId, date); 
+                if (storage == PrayerStorage.ROWS) {
+                    upsertstmt.executeBatch();
+                }
+                summarystmt.executeBatch();
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
             }
-
         } catch (SQLException e) {
-            System.out.println("Error managing daily prayers: " + e.getMessage());
+            System.out.println("Error saving prayer statuses: " + e.getMessage());
+            return false;
+        } finally {
+            Q_SET_STATUSES.observeSince(started);
         }
-
-        // --- NEW FIX: Force Sort by Islamic Order ---
-        List<String> correctOrder = Arrays.asList("Fajr", "Dhuhr", "Asr", "Maghrib", "Isha");
-        todayPrayers.sort(Comparator.comparingInt(p -> correctOrder.indexOf(p.getPrayerName())));
-        // --------------------------------------------
-
-        return todayPrayers;
      }
 
-     public void updatePrayerStatus(int prayerLogId, int userId, boolean isCompleted){
+     // Returns what changed, or null if the id isn't one of this user's prayers (or the write failed)
+     public PrayerChange updatePrayerStatus(int prayerLogId, int userId, boolean isCompleted){
+        if (storage == PrayerStorage.MASK) {
+            // The id is the one readSummaryDays handed out: (epochDay << 3) | ordinal.
+            // A tab opened before a ROWS -> MASK switch still holds small prayer_log ids,
+            // which decode to days in 1970; only days in the tracking window are accepted
+            int ordinal = prayerLogId & 7;
+            long day = maskPrayerDay(prayerLogId);
+            if (ordinal >= Prayer.count() || !isTrackableDay(day)) {
+                return null;
+            }
+            long started = System.nanoTime();
+            try (Connection conn = this.connectForWrite()) {
+                updateDailySummary(conn, userId, day, Prayer.byOrdinal(ordinal), isCompleted);
+                return new PrayerChange(LocalDate.ofEpochDay(day), Prayer.byOrdinal(ordinal), isCompleted);
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+                return null;
+            } finally {
+                Q_UPDATE_STATUS.observeSince(started);
+            }
+        }
+        String find = "SELECT prayer_name, prayer_day FROM prayer_log WHERE id = ? AND user_id = ?";
         String sql = "UPDATE prayer_log SET is_completed = ? WHERE id = ? AND user_id = ?";
-        try (Connection conn = this.connect();
-             PreparedStatement updstmt = conn.prepareStatement(sql)){
+        long started = System.nanoTime();
+        try (Connection conn = this.connectForWrite()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement findstmt = conn.prepareStatement(find);
+                 PreparedStatement updstmt = conn.prepareStatement(sql)) {
+                findstmt.setInt(1, prayerLogId);
+                findstmt.setInt(2, userId);
+                ResultSet rs = findstmt.executeQuery();
+                if (!rs.next()) {
+                    conn.rollback();
+                    return null;
+                }
+                Prayer prayer = Prayer.fromName(rs.getString("prayer_name"));
+                long prayerDay = rs.getLong("prayer_day");
+
                 updstmt.setInt(1, isCompleted ? 1 : 0);
                 updstmt.setInt(2, prayerLogId);
                 updstmt.setInt(3, userId);
                 updstmt.executeUpdate();
+                if (prayer != null) {
+                    updateDailySummary(conn, userId, prayerDay, prayer, isCompleted);
+                }
+                conn.commit();
+                return prayer != null ? new PrayerChange(LocalDate.ofEpochDay(prayerDay), prayer, isCompleted) : null;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
+            return null;
+        } finally {
+            Q_UPDATE_STATUS.observeSince(started);
         }
      }
 
+     // Sets or clears one prayer's bit in the day's summary row, inside the caller's transaction
+     private void updateDailySummary(Connection conn, int userId, long day, Prayer prayer, boolean isCompleted) throws SQLException {
+        String sql = "INSERT INTO daily_summary (user_id, summary_day, completed_mask) VALUES (?, ?, ?) "
+                   + "ON CONFLICT (user_id, summary_day) DO UPDATE SET completed_mask = (daily_summary.completed_mask & ?) | ?";
+        int setBits = isCompleted ? prayer.bit() : 0;
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, userId);
+            pstmt.setLong(2, day);
+            pstmt.setInt(3, setBits);
+            pstmt.setInt(4, Prayer.ALL_COMPLETED_MASK & ~prayer.bit());
+            pstmt.setInt(5, setBits);
+            pstmt.executeUpdate();
+        }
+     }
+
+     /**
+      * Completion masks for each day in [from, to], indexed by day offset from
+      * {@code from}. Days without a summary row are 0.
+      */
+     public int[] getDailyMasks(int userId, LocalDate from, LocalDate to) {
+        int[] masks = new int[(int) (to.toEpochDay() - from.toEpochDay() + 1)];
+        String sql = "SELECT summary_day, completed_mask FROM daily_summary WHERE user_id = ? AND summary_day BETWEEN ? AND ?";
+        long started = System.nanoTime();
+        try (Connection conn = this.connect();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, userId);
+            pstmt.setLong(2, from.toEpochDay());
+            pstmt.setLong(3, to.toEpochDay());
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                masks[(int) (rs.getLong("summary_day") - from.toEpochDay())] = rs.getInt("completed_mask");
+            }
+        } catch (SQLException e) {
+            System.out.println("Error fetching daily summary: " + e.getMessage());
+        } finally {
+            Q_DAILY_MASKS.observeSince(started);
+        }
+        return masks;
+     }
+
      public List<PrayerLog> getPrayersForMonth(int userid, int year, int month){
         List<PrayerLog> monthlyPrayers = new ArrayList<>();
-        String datePattern = String.format("%d-%02d-%%", year, month);
-        String fetchMonthlyPrayers = "SELECT * FROM prayer_log WHERE user_id = ? AND prayer_date LIKE ? ORDER BY prayer_date";
+        YearMonth yearMonth = YearMonth.of(year, month);
+        if (storage == PrayerStorage.MASK) {
+            return readSummaryDays(Q_PRAYERS_MONTH, userid, yearMonth.atDay(1), yearMonth.atEndOfMonth());
+        }
+        String fetchMonthlyPrayers = "SELECT " + PRAYER_COLUMNS + " FROM prayer_log WHERE user_id = ? AND prayer_day BETWEEN ? AND ? ORDER BY prayer_day";
+        long started = System.nanoTime();
         try (Connection conn = this.connect();
             PreparedStatement fetchMonthlystmt = conn.prepareStatement(fetchMonthlyPrayers)){
                 fetchMonthlystmt.setInt(1, userid);
-                fetchMonthlystmt.setString(2, datePattern);
+                fetchMonthlystmt.setLong(2, yearMonth.atDay(1).toEpochDay());
+                fetchMonthlystmt.setLong(3, yearMonth.atEndOfMonth().toEpochDay());
                 ResultSet rs = fetchMonthlystmt.executeQuery();
                 while(rs.next()){
-                    PrayerLog prayerLog = new PrayerLog();
-                    prayerLog.setId(rs.getInt("id"));
-                    prayerLog.setUserId(rs.getInt("user_id"));
-                    prayerLog.setPrayerName(rs.getString("prayer_name"));
-                    prayerLog.setPrayerDate(LocalDate.parse(rs.getString("prayer_date")));
-                    prayerLog.setCompleted(rs.getInt("is_completed") == 1);
-                    monthlyPrayers.add(prayerLog);
+                    monthlyPrayers.add(mapPrayerLog(rs));
                 }
         } catch (SQLException e) {
             System.out.println("Couldn't fetch prayers for the month: " + e.getMessage());
+        } finally {
+            Q_PRAYERS_MONTH.observeSince(started);
         }
-        return monthlyPrayers;
+        return completeStoredDays(monthlyPrayers, userid);
       }
 
     public List<PrayerLog> getPrayersBetweenDates(int userId, LocalDate startDate, LocalDate endDate) {
+        if (storage == PrayerStorage.MASK) {
+            return readSummaryDays(Q_PRAYERS_BETWEEN, userId, startDate, endDate);
+        }
         List<PrayerLog> prayers = new ArrayList<>();
-        String sql = "SELECT * FROM prayer_log WHERE user_id = ? AND prayer_date BETWEEN ? AND ? ORDER BY prayer_date";
+        String sql = "SELECT " + PRAYER_COLUMNS + " FROM prayer_log WHERE user_id = ? AND prayer_day BETWEEN ? AND ? ORDER BY prayer_day";
+        long started = System.nanoTime();
         try (Connection conn = this.connect();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setInt(1, userId);
-            pstmt.setString(2, startDate.toString());
-            pstmt.setString(3, endDate.toString());
+            pstmt.setLong(2, startDate.toEpochDay());
+            pstmt.setLong(3, endDate.toEpochDay());
             ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
-                PrayerLog prayerLog = new PrayerLog();
-                prayerLog.setId(rs.getInt("id"));
-                prayerLog.setUserId(rs.getInt("user_id"));
-                prayerLog.setPrayerName(rs.getString("prayer_name"));
-                prayerLog.setPrayerDate(LocalDate.parse(rs.getString("prayer_date")));
-                prayerLog.setCompleted(rs.getInt("is_completed") == 1);
-                prayers.add(prayerLog);
+                prayers.add(mapPrayerLog(rs));
             }
         } catch (SQLException e) {
             System.out.println("Error fetching prayers between dates: " + e.getMessage());
+        } finally {
+            Q_PRAYERS_BETWEEN.observeSince(started);
+        }
+        return completeStoredDays(prayers, userId);
+    }
+
+    // Everything mapPrayerLog needs, and all of it in idx_prayer_log_user_day
+    private static final String PRAYER_COLUMNS = "id, user_id, prayer_name, prayer_day, is_completed";
+
+    private PrayerLog mapPrayerLog(ResultSet rs) throws SQLException {
+        PrayerLog prayerLog = new PrayerLog();
+        prayerLog.setId(rs.getInt("id"));
+        prayerLog.setUserId(rs.getInt("user_id"));
+        prayerLog.setPrayerName(rs.getString("prayer_name"));
+        prayerLog.setPrayerDate(LocalDate.ofEpochDay(rs.getLong("prayer_day")));
+        prayerLog.setCompleted(rs.getInt("is_completed") == 1);
+        return prayerLog;
+    }
+
+    // Rows arrive ordered by date. Every day that has at least one stored row is
+    // returned as a full Fajr -> Isha set, so the calendar still counts x/5 per day.
+    private List<PrayerLog> completeStoredDays(List<PrayerLog> rows, int userId) {
+        List<PrayerLog> result = new ArrayList<>(rows.size());
+        int dayStart = 0;
+        for (int i = 1; i <= rows.size(); i++) {
+            if (i == rows.size() || !rows.get(i).getPrayerDate().equals(rows.get(dayStart).getPrayerDate())) {
+                appendDay(result, rows, dayStart, i, userId, rows.get(dayStart).getPrayerDate());
+                dayStart = i;
+            }
+        }
+        return result;
+    }
+
+    private void appendDay(List<PrayerLog> out, List<PrayerLog> rows, int from, int to, int userId, LocalDate date) {
+        PrayerLog[] byOrdinal = new PrayerLog[Prayer.count()];
+        for (int i = from; i < to; i++) {
+            Prayer prayer = Prayer.fromName(rows.get(i).getPrayerName());
+            if (prayer != null) {
+                byOrdinal[prayer.ordinal()] = rows.get(i);
+            }
+        }
+        for (int ordinal = 0; ordinal < byOrdinal.length; ordinal++) {
+            PrayerLog prayerLog = byOrdinal[ordinal];
+            out.add(prayerLog != null ? prayerLog : blankPrayerLog(userId, date, Prayer.byOrdinal(ordinal)));
+        }
+    }
+
+    /** A not-completed entry for a prayer with nothing stored (id 0, or its mask id under MASK). */
+    public PrayerLog blankPrayerLog(int userId, LocalDate date, Prayer prayer) {
+        PrayerLog prayerLog = new PrayerLog();
+        prayerLog.setId(storage == PrayerStorage.MASK ? maskPrayerId(date.toEpochDay(), prayer) : 0);
+        prayerLog.setUserId(userId);
+        prayerLog.setPrayerName(prayer.getDisplayName());
+        prayerLog.setPrayerDate(date);
+        prayerLog.setCompleted(false);
+        return prayerLog;
+    }
+
+    // --- MASK STORAGE READS ---
+
+    // PrayerLog id under MASK storage; fits an int for any date within ~700,000 years of 1970
+    public static int maskPrayerId(long epochDay, Prayer prayer) {
+        return (int) (epochDay << 3) | prayer.ordinal();
+    }
+
+    // Inverse of maskPrayerId; the shift is signed so days before 1970 come back negative
+    public static long maskPrayerDay(int prayerLogId) {
+        return prayerLogId >> 3;
+    }
+
+    // Days a mask id may refer to: 2000-01-01 up to a year from now
+    private static final long FIRST_TRACKED_DAY = LocalDate.of(2000, 1, 1).toEpochDay();
+
+    private static boolean isTrackableDay(long epochDay) {
+        return epochDay >= FIRST_TRACKED_DAY && epochDay <= LocalDate.now().plusYears(1).toEpochDay();
+    }
+
+    // Five entries for every day in [from, to] that has a summary row, in day order
+    private List<PrayerLog> readSummaryDays(Metrics.Histogram histogram, int userId, LocalDate from, LocalDate to) {
+        List<PrayerLog> prayers = new ArrayList<>();
+        String sql = "SELECT summary_day, completed_mask FROM daily_summary WHERE user_id = ? AND summary_day BETWEEN ? AND ? ORDER BY summary_day";
+        long started = System.nanoTime();
+        try (Connection conn = this.connect();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, userId);
+            pstmt.setLong(2, from.toEpochDay());
+            pstmt.setLong(3, to.toEpochDay());
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                appendMaskDay(prayers, userId, rs.getLong(1), rs.getInt(2));
+            }
+        } catch (SQLException e) {
+            System.out.println("Error fetching daily summary: " + e.getMessage());
+        } finally {
+            histogram.observeSince(started);
         }
         return prayers;
     }
+
+    private static void appendMaskDay(List<PrayerLog> out, int userId, long day, int mask) {
+        LocalDate date = LocalDate.ofEpochDay(day);
+        for (int ordinal = 0; ordinal < Prayer.count(); ordinal++) {
+            Prayer prayer = Prayer.byOrdinal(ordinal);
+            PrayerLog prayerLog = new PrayerLog();
+            prayerLog.setId(maskPrayerId(day, prayer));
+            prayerLog.setUserId(userId);
+            prayerLog.setPrayerName(prayer.getDisplayName());
+            prayerLog.setPrayerDate(date);
+            prayerLog.setCompleted((mask & prayer.bit()) != 0);
+            out.add(prayerLog);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,319 @@
+package com.muayad.salaahtracker;
+
+import io.javalin.http.Context;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes JSON responses straight to the servlet output stream through a
+ * small byte buffer, instead of building a String first. Buffers (and the
+ * Deflaters of gzipped responses) come from small bounded pools and go back
+ * on close(), so steady traffic allocates none; this works the same on
+ * virtual threads, which a per-thread cache would not. Strings are escaped
+ * properly; dates and numbers are written as digits without intermediate
+ * objects.
+ */
+public final class JsonResponseWriter implements AutoCloseable {
+
+    // Lists longer than this are gzipped when the client accepts it (a month is ~155 rows)
+    private static final int GZIP_MIN_ROWS = 200;
+    private static final int BUFFER_SIZE = 8192;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    // Idle buffers and Deflaters kept for reuse; beyond this, extras are left to the GC
+    private static final ArrayBlockingQueue<byte[]> BUFFERS = new ArrayBlockingQueue<>(64);
+    private static final ArrayBlockingQueue<Deflater> DEFLATERS = new ArrayBlockingQueue<>(16);
+    // Magic, deflate, no flags, no mtime, no extra flags, unknown OS
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final OutputStream out;
+    private byte[] buf;
+    private int pos;
+    // Set only for gzip: raw deflate output framed with the gzip header and CRC32/length trailer
+    private Deflater deflater;
+    private byte[] deflated;
+    private CRC32 crc;
+    private boolean headerWritten;
+
+    public JsonResponseWriter(OutputStream out) {
+        this(out, false);
+    }
+
+    JsonResponseWriter(OutputStream out, boolean gzip) {
+        this.out = out;
+        this.buf = borrowBuffer();
+        if (gzip) {
+            Deflater pooled = DEFLATERS.poll();
+            this.deflater = pooled != null ? pooled : new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            this.deflated = borrowBuffer();
+            this.crc = new CRC32();
+        }
+    }
+
+    private static byte[] borrowBuffer() {
+        byte[] pooled = BUFFERS.poll();
+        return pooled != null ? pooled : new byte[BUFFER_SIZE];
+    }
+
+    // --- RESPONSE HELPERS ---
+
+    public static void writePrayerList(Context ctx, List<PrayerLog> prayers) {
+        ctx.contentType("application/json");
+        boolean gzip = prayers.size() > GZIP_MIN_ROWS && acceptsGzip(ctx);
+        if (gzip) {
+            ctx.header("Content-Encoding", "gzip");
+            ctx.header("Vary", "Accept-Encoding");
+        }
+        try (JsonResponseWriter writer = new JsonResponseWriter(ctx.res().getOutputStream(), gzip)) {
+            writer.writePrayerList(prayers);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Writes whatever {@code body} produces, for responses without a dedicated helper. */
+    public static void write(Context ctx, Body body) {
+        ctx.contentType("application/json");
+        try (JsonResponseWriter writer = new JsonResponseWriter(ctx.res().getOutputStream())) {
+            body.writeTo(writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Body {
+        void writeTo(JsonResponseWriter writer) throws IOException;
+    }
+
+    /** {"status":"...","message":"..."} */
+    public static void writeStatus(Context ctx, String status, String message) {
+        writeFields(ctx, "status", status, "message", message);
+    }
+
+    /** A flat object of string fields, given as alternating keys and values. */
+    public static void writeFields(Context ctx, String... keysAndValues) {
+        write(ctx, writer -> writer.writeFields(keysAndValues));
+    }
+
+    private static boolean acceptsGzip(Context ctx) {
+        String acceptEncoding = ctx.header("Accept-Encoding");
+        return acceptEncoding != null && acceptEncoding.contains("gzip");
+    }
+
+    // --- DOCUMENTS ---
+
+    public void writePrayerList(List<PrayerLog> prayers) throws IOException {
+        writeByte('[');
+        for (int i = 0; i < prayers.size(); i++) {
+            PrayerLog p = prayers.get(i);
+            if (i > 0) {
+                writeByte(',');
+            }
+            writeAscii("{\"id\":");
+            writeInt(p.getId());
+            writeAscii(",\"prayerName\":");
+            writeString(p.getPrayerName());
+            writeAscii(",\"prayerDate\":\"");
+            writeDate(p.getPrayerDate());
+            writeAscii("\",\"completed\":");
+            writeAscii(p.isCompleted() ? "true" : "false");
+            writeByte('}');
+        }
+        writeByte(']');
+    }
+
+    public void writeFields(String... keysAndValues) throws IOException {
+        writeByte('{');
+        for (int i = 0; i + 1 < keysAndValues.length; i += 2) {
+            if (i > 0) {
+                writeByte(',');
+            }
+            writeString(keysAndValues[i]);
+            writeByte(':');
+            writeString(keysAndValues[i + 1]);
+        }
+        writeByte('}');
+    }
+
+    // --- PRIMITIVES ---
+
+    public void writeString(String s) throws IOException {
+        if (s == null) {
+            writeAscii("null");
+            return;
+        }
+        writeByte('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                writeByte('\\');
+                writeByte(c);
+            } else if (c < 0x20) {
+                switch (c) {
+                    case '\n': writeAscii("\\n"); break;
+                    case '\r': writeAscii("\\r"); break;
+                    case '\t': writeAscii("\\t"); break;
+                    default:
+                        writeAscii("\\u00");
+                        writeByte(HEX[c >> 4]);
+                        writeByte(HEX[c & 0xF]);
+                }
+            } else if (c < 0x80) {
+                writeByte(c);
+            } else if (c < 0x800) {
+                writeByte(0xC0 | (c >> 6));
+                writeByte(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                writeByte(0xF0 | (cp >> 18));
+                writeByte(0x80 | ((cp >> 12) & 0x3F));
+                writeByte(0x80 | ((cp >> 6) & 0x3F));
+                writeByte(0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // A lone surrogate has no UTF-8 form; the escape keeps it and stays valid UTF-8
+                writeAscii("\\u");
+                writeByte(HEX[c >> 12]);
+                writeByte(HEX[(c >> 8) & 0xF]);
+                writeByte(HEX[(c >> 4) & 0xF]);
+                writeByte(HEX[c & 0xF]);
+            } else {
+                writeByte(0xE0 | (c >> 12));
+                writeByte(0x80 | ((c >> 6) & 0x3F));
+                writeByte(0x80 | (c & 0x3F));
+            }
+        }
+        writeByte('"');
+    }
+
+    // yyyy-MM-dd for years 0..9999, written digit by digit
+    public void writeDate(LocalDate date) throws IOException {
+        int year = date.getYear();
+        writeByte('0' + year / 1000 % 10);
+        writeByte('0' + year / 100 % 10);
+        writeByte('0' + year / 10 % 10);
+        writeByte('0' + year % 10);
+        writeByte('-');
+        writeTwoDigits(date.getMonthValue());
+        writeByte('-');
+        writeTwoDigits(date.getDayOfMonth());
+    }
+
+    public void writeInt(int value) throws IOException {
+        if (value < 0) {
+            if (value == Integer.MIN_VALUE) {
+                writeAscii(Integer.toString(value));
+                return;
+            }
+            writeByte('-');
+            value = -value;
+        }
+        if (pos + 10 > buf.length) {
+            flushBuffer();
+        }
+        int start = pos;
+        do {
+            buf[pos++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        // digits were written least significant first
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            byte tmp = buf[i];
+            buf[i] = buf[j];
+            buf[j] = tmp;
+        }
+    }
+
+    public void writeAscii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            writeByte(s.charAt(i));
+        }
+    }
+
+    private void writeTwoDigits(int value) throws IOException {
+        writeByte('0' + value / 10);
+        writeByte('0' + value % 10);
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (pos == buf.length) {
+            flushBuffer();
+        }
+        buf[pos++] = (byte) b;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (deflater == null) {
+            out.write(buf, 0, pos);
+        } else {
+            if (!headerWritten) {
+                out.write(GZIP_HEADER);
+                headerWritten = true;
+            }
+            crc.update(buf, 0, pos);
+            deflater.setInput(buf, 0, pos);
+            while (!deflater.needsInput()) {
+                writeDeflated();
+            }
+        }
+        pos = 0;
+    }
+
+    private void writeDeflated() throws IOException {
+        int n = deflater.deflate(deflated);
+        if (n > 0) {
+            out.write(deflated, 0, n);
+        }
+    }
+
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Writes what is left (and the gzip trailer), flushes, and returns the
+     * buffers to the pool. The output stream itself stays open.
+     */
+    @Override
+    public void close() throws IOException {
+        if (buf == null) {
+            return;
+        }
+        try {
+            flushBuffer();
+            if (deflater != null) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    writeDeflated();
+                }
+                long crcValue = crc.getValue();
+                long size = deflater.getBytesRead();
+                for (int i = 0; i < 4; i++) {
+                    out.write((int) (crcValue >> (8 * i)));
+                }
+                for (int i = 0; i < 4; i++) {
+                    out.write((int) (size >> (8 * i)));
+                }
+            }
+            out.flush();
+        } finally {
+            BUFFERS.offer(buf);
+            buf = null;
+            if (deflater != null) {
+                BUFFERS.offer(deflated);
+                deflater.reset();
+                if (!DEFLATERS.offer(deflater)) {
+                    deflater.end();
+                }
+                deflater = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.muayad.salaahtracker;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide metrics registry, rendered in the Prometheus text format by
+ * GET /metrics.
+ *
+ * Histograms use fixed latency buckets and LongAdder cells, so recording is a
+ * bucket scan plus two uncontended adds and never takes a lock. Call sites that
+ * always use the same labels look their Histogram up once and keep it in a
+ * static field; labels(...) is only for values that vary per call (routes).
+ * Gauges and existing counters are registered as suppliers and read at scrape time.
+ */
+public final class Metrics {
+
+    // Upper bounds in seconds: 0.5ms .. 10s
+    private static final double[] LATENCY_BUCKETS = {
+        0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+    private static final long[] LATENCY_BUCKET_NANOS = new long[LATENCY_BUCKETS.length];
+    private static final String[] LATENCY_BUCKET_LABELS = new String[LATENCY_BUCKETS.length + 1];
+    static {
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+            LATENCY_BUCKET_NANOS[i] = (long) (LATENCY_BUCKETS[i] * 1_000_000_000L);
+            LATENCY_BUCKET_LABELS[i] = BigDecimal.valueOf(LATENCY_BUCKETS[i]).toPlainString();
+        }
+        LATENCY_BUCKET_LABELS[LATENCY_BUCKETS.length] = "+Inf";
+    }
+
+    private static final Map<String, Family<?>> FAMILIES = new ConcurrentHashMap<>();
+
+    private Metrics() {}
+
+    // --- REGISTRATION ---
+
+    public static Family<Histogram> histogram(String name, String help, String... labelNames) {
+        return register(name, help, "histogram", labelNames);
+    }
+
+    public static Family<Counter> counter(String name, String help, String... labelNames) {
+        return register(name, help, "counter", labelNames);
+    }
+
+    /** A counter kept elsewhere (e.g. an AtomicLong in TelegramBot), read when scraped. */
+    public static void counter(String name, String help, LongSupplier value) {
+        Family<Sampled> family = register(name, help, "counter");
+        family.children.put(List.of(), new Sampled(() -> value.getAsLong()));
+    }
+
+    /** A value read when scraped, e.g. a cache size or queue depth. */
+    public static void gauge(String name, String help, DoubleSupplier value) {
+        Family<Sampled> family = register(name, help, "gauge");
+        family.children.put(List.of(), new Sampled(value));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Metric> Family<T> register(String name, String help, String type, String... labelNames) {
+        Family<?> family = FAMILIES.computeIfAbsent(name, n -> new Family<>(n, help, type, labelNames));
+        if (!family.type.equals(type) || !Arrays.equals(family.labelNames, labelNames)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a different " + family.type);
+        }
+        return (Family<T>) family;
+    }
+
+    // --- METRIC TYPES ---
+
+    private interface Metric {
+        void writeTo(StringBuilder out, String name, String labels);
+    }
+
+    public static final class Family<T extends Metric> {
+        final String name;
+        final String help;
+        final String type;
+        final String[] labelNames;
+        final Map<List<String>, Metric> children = new ConcurrentHashMap<>();
+
+        private Family(String name, String help, String type, String[] labelNames) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labelNames = labelNames.clone();
+        }
+
+        /** The child for these label values, created on first use. */
+        @SuppressWarnings("unchecked")
+        public T labels(String... labelValues) {
+            if (labelValues.length != labelNames.length) {
+                throw new IllegalArgumentException(name + " expects labels " + Arrays.toString(labelNames));
+            }
+            List<String> key = List.of(labelValues);
+            Metric child = children.get(key);
+            if (child == null) {
+                child = children.computeIfAbsent(key, k -> type.equals("histogram") ? new Histogram() : new Counter());
+            }
+            return (T) child;
+        }
+    }
+
+    public static final class Histogram implements Metric {
+        // One cell per bucket plus +Inf; counts are per bucket and made cumulative when rendered
+        private final LongAdder[] buckets = new LongAdder[LATENCY_BUCKET_NANOS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        private Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void observeNanos(long nanos) {
+            int i = 0;
+            while (i < LATENCY_BUCKET_NANOS.length && nanos > LATENCY_BUCKET_NANOS[i]) {
+                i++;
+            }
+            buckets[i].increment();
+            sumNanos.add(nanos);
+        }
+
+        public void observeSince(long startNanos) {
+            observeNanos(System.nanoTime() - startNanos);
+        }
+
+        @Override
+        public void writeTo(StringBuilder out, String name, String labels) {
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                out.append(name).append("_bucket{").append(labels).append(labels.isEmpty() ? "" : ",")
+                   .append("le=\"").append(LATENCY_BUCKET_LABELS[i]).append("\"} ").append(cumulative).append('\n');
+            }
+            String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+            out.append(name).append("_sum").append(braces).append(' ')
+               .append(sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1)).append('\n');
+            out.append(name).append("_count").append(braces).append(' ').append(cumulative).append('\n');
+        }
+    }
+
+    public static final class Counter implements Metric {
+        private final LongAdder value = new LongAdder();
+
+        private Counter() {}
+
+        public void increment() {
+            value.increment();
+        }
+
+        @Override
+        public void writeTo(StringBuilder out, String name, String labels) {
+            out.append(name).append(labels.isEmpty() ? "" : "{" + labels + "}").append(' ').append(value.sum()).append('\n');
+        }
+    }
+
+    private static final class Sampled implements Metric {
+        private final DoubleSupplier value;
+
+        Sampled(DoubleSupplier value) {
+            this.value = value;
+        }
+
+        @Override
+        public void writeTo(StringBuilder out, String name, String labels) {
+            double v;
+            try {
+                v = value.getAsDouble();
+            } catch (RuntimeException e) {
+                return;
+            }
+            out.append(name).append(' ');
+            if (v == Math.rint(v) && Math.abs(v) < 1e15) {
+                out.append((long) v);
+            } else {
+                out.append(v);
+            }
+            out.append('\n');
+        }
+    }
+
+    // --- EXPOSITION ---
+
+    /** Every registered metric in the Prometheus text format (version 0.0.4), sorted by name. */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        for (Family<?> family : new TreeMap<>(FAMILIES).values()) {
+            if (family.children.isEmpty()) {
+                continue;
+            }
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            List<Map.Entry<List<String>, Metric>> children = new ArrayList<>(family.children.entrySet());
+            children.sort((a, b) -> String.join("\u0000", a.getKey()).compareTo(String.join("\u0000", b.getKey())));
+            for (Map.Entry<List<String>, Metric> child : children) {
+                child.getValue().writeTo(out, family.name, formatLabels(family.labelNames, child.getKey()));
+            }
+        }
+        return out.toString();
+    }
+
+    private static String formatLabels(String[] names, List<String> values) {
+        StringBuilder labels = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                labels.append(',');
+            }
+            labels.append(names[i]).append("=\"");
+            String value = values.get(i);
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '\\' || c == '"') {
+                    labels.append('\\').append(c);
+                } else if (c == '\n') {
+                    labels.append("\\n");
+                } else {
+                    labels.append(c);
+                }
+            }
+            labels.append('"');
+        }
+        return labels.toString();
+    }
+}
@@ -0,0 +1,155 @@
+package com.muayad.salaahtracker;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.mindrot.jbcrypt.BCrypt;
+
+/**
+ * Runs bcrypt on a small dedicated pool so a burst of logins can't tie up the
+ * Jetty request threads. The work queue is bounded: once it is full, hash()
+ * and verify() throw RejectedExecutionException straight away and the caller
+ * should answer 503 rather than pile up more requests.
+ *
+ * Env: PASSWORD_HASH_THREADS (default half the cores), PASSWORD_HASH_QUEUE
+ * (default 64), BCRYPT_COST (default 10).
+ */
+public class PasswordHasher {
+
+    private static final Metrics.Family<Metrics.Histogram> WORK_SECONDS = Metrics.histogram(
+            "password_hash_duration_seconds", "bcrypt time on a hasher thread, per operation.", "operation");
+    private static final Metrics.Histogram HASH_SECONDS = WORK_SECONDS.labels("hash");
+    private static final Metrics.Histogram VERIFY_SECONDS = WORK_SECONDS.labels("verify");
+    private static final Metrics.Histogram QUEUE_WAIT_SECONDS = Metrics.histogram(
+            "password_hash_queue_wait_seconds", "Time bcrypt jobs waited for a hasher thread.").labels();
+
+    private final ThreadPoolExecutor executor;
+    private final int cost;
+    // Verified against when the username doesn't exist, so both paths take the same time;
+    // made with the configured cost on first use (on a hasher thread)
+    private volatile String dummyHash;
+
+    // --- COUNTERS ---
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong rehashCount = new AtomicLong();
+
+    public PasswordHasher(int threads, int queueCapacity, int cost) {
+        this.cost = Math.max(4, Math.min(31, cost));
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                r -> {
+                    Thread t = new Thread(r, "password-hasher");
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public static PasswordHasher fromEnvironment() {
+        int threads = envInt("PASSWORD_HASH_THREADS", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        return new PasswordHasher(Math.max(1, threads), envInt("PASSWORD_HASH_QUEUE", 64), envInt("BCRYPT_COST", 10));
+    }
+
+    private static int envInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /** Hashes with the configured cost. Throws RejectedExecutionException when saturated. */
+    public CompletableFuture<String> hash(String password) {
+        return submit(HASH_SECONDS, () -> BCrypt.hashpw(password, BCrypt.gensalt(cost)));
+    }
+
+    /**
+     * Checks a password against a stored hash; a null hash (unknown user) is
+     * checked against a dummy so it costs the same. Throws
+     * RejectedExecutionException when saturated.
+     */
+    public CompletableFuture<Boolean> verify(String password, String storedHash) {
+        return submit(VERIFY_SECONDS, () -> {
+            if (password == null) {
+                return false;
+            }
+            try {
+                boolean matches = BCrypt.checkpw(password, storedHash != null ? storedHash : dummyHash());
+                return matches && storedHash != null;
+            } catch (IllegalArgumentException e) {
+                // Not a bcrypt hash
+                return false;
+            }
+        });
+    }
+
+    private String dummyHash() {
+        String hash = dummyHash;
+        if (hash == null) {
+            synchronized (this) {
+                hash = dummyHash;
+                if (hash == null) {
+                    hash = BCrypt.hashpw("salaah-tracker-dummy", BCrypt.gensalt(cost));
+                    dummyHash = hash;
+                }
+            }
+        }
+        return hash;
+    }
+
+    // True when the stored hash was made with a different cost than the current one
+    public boolean needsRehash(String storedHash) {
+        // $2a$10$<53 chars>
+        if (storedHash == null || storedHash.length() < 7 || storedHash.charAt(0) != '$' || storedHash.charAt(3) != '$') {
+            return false;
+        }
+        try {
+            return Integer.parseInt(storedHash.substring(4, 6)) != cost;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public void recordRehash() {
+        rehashCount.incrementAndGet();
+    }
+
+    private <T> CompletableFuture<T> submit(Metrics.Histogram workSeconds, Supplier<T> work) {
+        long queuedAt = System.nanoTime();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                long startedAt = System.nanoTime();
+                QUEUE_WAIT_SECONDS.observeNanos(startedAt - queuedAt);
+                try {
+                    return work.get();
+                } finally {
+                    workSeconds.observeSince(startedAt);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            throw e;
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    // --- METRICS ---
+
+    public int getCost() { return cost; }
+    public long getRejectedCount() { return rejectedCount.get(); }
+    public long getRehashCount() { return rehashCount.get(); }
+    public int getQueueDepth() { return executor.getQueue().size(); }
+    public int getActiveCount() { return executor.getActiveCount(); }
+}
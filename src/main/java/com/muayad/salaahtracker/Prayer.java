@@ -0,0 +1,56 @@
+package com.muayad.salaahtracker;
+
+/**
+ * The five daily prayers in their fixed Fajr -> Isha order.
+ * ordinal() is the sort key used wherever a day's prayers are listed.
+ */
+public enum Prayer {
+    FAJR("Fajr"),
+    DHUHR("Dhuhr"),
+    ASR("Asr"),
+    MAGHRIB("Maghrib"),
+    ISHA("Isha");
+
+    private static final Prayer[] VALUES = values();
+
+    /** Bit mask with every prayer's bit set, i.e. a fully completed day. */
+    public static final int ALL_COMPLETED_MASK = (1 << VALUES.length) - 1;
+
+    private final String displayName;
+
+    Prayer(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    // This prayer's bit in a day's completion mask (Fajr = 1 ... Isha = 16)
+    public int bit() {
+        return 1 << ordinal();
+    }
+
+    public static int count() {
+        return VALUES.length;
+    }
+
+    public static Prayer byOrdinal(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    // Returns null for anything that isn't one of the five prayer names
+    public static Prayer fromName(String name) {
+        if (name == null) {
+            return null;
+        }
+        switch (name) {
+            case "Fajr": return FAJR;
+            case "Dhuhr": return DHUHR;
+            case "Asr": return ASR;
+            case "Maghrib": return MAGHRIB;
+            case "Isha": return ISHA;
+            default: return null;
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package com.muayad.salaahtracker;
+
+import java.time.LocalDate;
+
+/** One requested prayer status change: mark {@code prayer} on {@code date} as (not) completed. */
+public record PrayerChange(LocalDate date, Prayer prayer, boolean completed) {}
@@ -0,0 +1,331 @@
+package com.muayad.salaahtracker;
+
+import io.javalin.http.sse.SseClient;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pushes prayer status changes to every open tab of the same user over
+ * Server-Sent Events, so other devices update without polling.
+ *
+ * Events:
+ *   event: status   data: {"date":"2024-03-05","prayer":"Fajr","completed":true}
+ *   event: resync   data: {}   (too much changed or was missed: refetch)
+ *
+ * Each connection has its own bounded buffer (SSE_BUFFER_EVENTS, default 32)
+ * drained on a virtual thread, so a stalled socket only blocks itself; when
+ * the buffer overflows the connection is closed, and the browser reconnects
+ * and resumes. The last SSE_HISTORY_EVENTS (default 64) events per user are
+ * kept for resuming from Last-Event-ID; if the gap is older than that the
+ * client gets a resync. A comment is sent every SSE_HEARTBEAT_SECONDS
+ * (default 20) to keep proxies from closing idle connections.
+ *
+ * Only changes made on this instance are pushed.
+ */
+public class PrayerEventHub {
+
+    // More changes than this in one request are sent as a single resync
+    private static final int MAX_EVENTS_PER_PUBLISH = 16;
+    private static final long HISTORY_IDLE_NANOS = TimeUnit.MINUTES.toNanos(10);
+    private static final String HEARTBEAT = "\u0000heartbeat";
+
+    private record Event(long id, String name, String data) {}
+
+    private final class Subscriber {
+        final int userId;
+        final SseClient client;
+        final BlockingQueue<Object> buffer;
+        final AtomicBoolean draining = new AtomicBoolean();
+        volatile boolean closed;
+
+        Subscriber(int userId, SseClient client) {
+            this.userId = userId;
+            this.client = client;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        }
+    }
+
+    // Recent events of one user, oldest first. Its lock also orders subscribe against
+    // publish, so a reconnecting tab gets every event exactly once and in order.
+    private static final class History {
+        final ArrayDeque<Event> events = new ArrayDeque<>();
+        long lastUsedNanos = System.nanoTime();
+        // Highest event id no longer in events (resuming from below it needs a resync)
+        long droppedUpTo;
+    }
+
+    private final int bufferSize;
+    private final int historySize;
+    private final Map<Integer, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final Map<Integer, History> histories = new ConcurrentHashMap<>();
+    private final AtomicLong nextId;
+    private final ExecutorService writers = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService heartbeat;
+
+    // --- COUNTERS ---
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong droppedSubscribers = new AtomicLong();
+    private final AtomicLong resumedCount = new AtomicLong();
+    private final AtomicLong resyncCount = new AtomicLong();
+
+    public PrayerEventHub(int bufferSize, int historySize, long heartbeatSeconds) {
+        // A single publish must always fit, or one batch would drop every connection
+        this.bufferSize = Math.max(MAX_EVENTS_PER_PUBLISH, bufferSize);
+        this.historySize = Math.max(1, historySize);
+        // Seeded from the clock so ids from before a restart are always older than ours
+        this.nextId = new AtomicLong(System.currentTimeMillis() * 1000);
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sse-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1, heartbeatSeconds);
+        this.heartbeat.scheduleAtFixedRate(this::beat, period, period, TimeUnit.SECONDS);
+    }
+
+    public static PrayerEventHub fromEnvironment() {
+        return new PrayerEventHub(envInt("SSE_BUFFER_EVENTS", 32), envInt("SSE_HISTORY_EVENTS", 64),
+                envInt("SSE_HEARTBEAT_SECONDS", 20));
+    }
+
+    private static int envInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    // --- CONNECTIONS ---
+
+    /**
+     * Registers an SSE connection for {@code userId} and keeps it open. With a
+     * Last-Event-ID (sent by EventSource on reconnect) the missed events are
+     * replayed first, or a resync is sent if they are no longer known.
+     */
+    public void subscribe(int userId, SseClient client, String lastEventId) {
+        Subscriber subscriber = new Subscriber(userId, client);
+        client.keepAlive();
+        client.onClose(() -> remove(subscriber));
+        History history = historyFor(userId);
+        synchronized (history) {
+            history.lastUsedNanos = System.nanoTime();
+            // compute() rather than computeIfAbsent().add() so a concurrent remove() can't drop the set under us
+            subscribers.compute(userId, (id, set) -> {
+                Set<Subscriber> live = set != null ? set : ConcurrentHashMap.newKeySet();
+                live.add(subscriber);
+                return live;
+            });
+            if (lastEventId != null && !lastEventId.isBlank()) {
+                replay(subscriber, history, lastEventId.trim());
+            }
+        }
+        drain(subscriber);
+    }
+
+    // Caller holds the history's lock
+    private void replay(Subscriber subscriber, History history, String lastEventId) {
+        long lastId;
+        try {
+            lastId = Long.parseLong(lastEventId);
+        } catch (NumberFormatException e) {
+            lastId = Long.MIN_VALUE;
+        }
+        if (lastId < history.droppedUpTo) {
+            enqueue(subscriber, resyncEvent());
+            return;
+        }
+        resumedCount.incrementAndGet();
+        for (Event event : history.events) {
+            if (event.id() > lastId && !enqueue(subscriber, event)) {
+                return;
+            }
+        }
+    }
+
+    // A new history knows nothing before now, so resuming into it from an older id means resync
+    private History historyFor(int userId) {
+        return histories.computeIfAbsent(userId, id -> {
+            History created = new History();
+            created.droppedUpTo = nextId.get();
+            return created;
+        });
+    }
+
+    private void remove(Subscriber subscriber) {
+        subscriber.closed = true;
+        subscribers.computeIfPresent(subscriber.userId, (id, set) -> {
+            set.remove(subscriber);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    // --- PUBLISHING ---
+
+    /** Sends the changes to all of the user's connections; large batches become one resync. */
+    public void publish(int userId, List<PrayerChange> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        History history = historyFor(userId);
+        Event[] events;
+        Set<Subscriber> targets;
+        synchronized (history) {
+            history.lastUsedNanos = System.nanoTime();
+            if (changes.size() > MAX_EVENTS_PER_PUBLISH) {
+                events = new Event[] { resyncEvent() };
+                // A client resuming from before the resync must resync too
+                history.events.clear();
+                history.droppedUpTo = events[0].id() - 1;
+                history.events.addLast(events[0]);
+            } else {
+                events = new Event[changes.size()];
+                for (int i = 0; i < events.length; i++) {
+                    events[i] = statusEvent(changes.get(i));
+                    history.events.addLast(events[i]);
+                }
+                while (history.events.size() > historySize) {
+                    history.droppedUpTo = history.events.removeFirst().id();
+                }
+            }
+            targets = subscribers.get(userId);
+            if (targets != null) {
+                for (Subscriber subscriber : targets) {
+                    for (Event event : events) {
+                        if (!enqueue(subscriber, event)) {
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        publishedCount.addAndGet(events.length);
+        if (targets != null) {
+            for (Subscriber subscriber : targets) {
+                drain(subscriber);
+            }
+        }
+    }
+
+    private Event statusEvent(PrayerChange change) {
+        String data = "{\"date\":\"" + change.date() + "\",\"prayer\":\"" + change.prayer().getDisplayName()
+                + "\",\"completed\":" + change.completed() + "}";
+        return new Event(nextId.incrementAndGet(), "status", data);
+    }
+
+    private Event resyncEvent() {
+        resyncCount.incrementAndGet();
+        return new Event(nextId.incrementAndGet(), "resync", "{}");
+    }
+
+    // --- DELIVERY ---
+
+    // Returns false (and drops the connection) when its buffer is full
+    private boolean enqueue(Subscriber subscriber, Object item) {
+        if (subscriber.closed) {
+            return false;
+        }
+        if (!subscriber.buffer.offer(item)) {
+            droppedSubscribers.incrementAndGet();
+            remove(subscriber);
+            // Closing completes the request; the browser reconnects with its Last-Event-ID
+            writers.execute(subscriber.client::close);
+            return false;
+        }
+        return true;
+    }
+
+    // At most one writer per connection; it runs until the buffer is empty
+    private void drain(Subscriber subscriber) {
+        if (!subscriber.draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            writers.execute(() -> {
+                try {
+                    Object item;
+                    while (!subscriber.closed && (item = subscriber.buffer.poll()) != null) {
+                        if (item instanceof Event event) {
+                            subscriber.client.sendEvent(event.name(), event.data(), Long.toString(event.id()));
+                        } else {
+                            subscriber.client.sendComment("ping");
+                        }
+                        if (subscriber.client.terminated()) {
+                            remove(subscriber);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    remove(subscriber);
+                } finally {
+                    subscriber.draining.set(false);
+                }
+                // Something may have been queued after the last poll
+                if (!subscriber.closed && !subscriber.buffer.isEmpty()) {
+                    drain(subscriber);
+                }
+            });
+        } catch (RuntimeException e) {
+            // Shut down
+            subscriber.draining.set(false);
+        }
+    }
+
+    private void beat() {
+        for (Set<Subscriber> set : subscribers.values()) {
+            for (Subscriber subscriber : set) {
+                if (enqueue(subscriber, HEARTBEAT)) {
+                    drain(subscriber);
+                }
+            }
+        }
+        // Forget idle histories; a tab resuming into one that was forgotten gets a resync
+        long now = System.nanoTime();
+        histories.values().removeIf(history -> {
+            synchronized (history) {
+                return now - history.lastUsedNanos > HISTORY_IDLE_NANOS;
+            }
+        });
+    }
+
+    public void shutdown() {
+        heartbeat.shutdownNow();
+        for (Set<Subscriber> set : subscribers.values()) {
+            for (Subscriber subscriber : set) {
+                subscriber.closed = true;
+                subscriber.client.close();
+            }
+        }
+        writers.shutdown();
+    }
+
+    // --- METRICS ---
+
+    public int getSubscriberCount() {
+        int count = 0;
+        for (Set<Subscriber> set : subscribers.values()) {
+            count += set.size();
+        }
+        return count;
+    }
+
+    public long getPublishedCount() { return publishedCount.get(); }
+    public long getDroppedSubscribers() { return droppedSubscribers.get(); }
+    public long getResumedCount() { return resumedCount.get(); }
+    public long getResyncCount() { return resyncCount.get(); }
+}
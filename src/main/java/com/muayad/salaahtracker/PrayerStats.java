@@ -0,0 +1,122 @@
+package com.muayad.salaahtracker;
+
+import java.time.LocalDate;
+
+/**
+ * Yearly statistics computed from a user's daily completion masks
+ * (see DatabaseManager.getDailyMasks). A day counts towards a streak when all
+ * five prayers are completed.
+ */
+public class PrayerStats {
+
+    private final int year;
+    private final int daysCounted;
+    private final int completedPrayers;
+    private final int[] completedPerPrayer = new int[Prayer.count()];
+    private final int fullDays;
+    private final int longestStreak;
+    private final int currentStreak;
+
+    private PrayerStats(int year, int daysCounted, int completedPrayers, int fullDays, int longestStreak, int currentStreak) {
+        this.year = year;
+        this.daysCounted = daysCounted;
+        this.completedPrayers = completedPrayers;
+        this.fullDays = fullDays;
+        this.longestStreak = longestStreak;
+        this.currentStreak = currentStreak;
+    }
+
+    /**
+     * Builds the stats for {@code year}. Only days up to {@code today} count
+     * towards the totals. The current streak may run back into earlier years.
+     */
+    public static PrayerStats forYear(DatabaseManager dbManager, int userId, int year, LocalDate today) {
+        LocalDate start = LocalDate.of(year, 1, 1);
+        LocalDate end = LocalDate.of(year, 12, 31);
+        if (end.isAfter(today)) {
+            end = today;
+        }
+        if (end.isBefore(start)) {
+            return new PrayerStats(year, 0, 0, 0, 0, 0);
+        }
+
+        int[] masks = dbManager.getDailyMasks(userId, start, end);
+        int completed = 0;
+        int fullDays = 0;
+        int longest = 0;
+        int run = 0;
+        int[] perPrayer = new int[Prayer.count()];
+        for (int mask : masks) {
+            completed += Integer.bitCount(mask);
+            for (int ordinal = 0; ordinal < perPrayer.length; ordinal++) {
+                if ((mask & (1 << ordinal)) != 0) {
+                    perPrayer[ordinal]++;
+                }
+            }
+            if (mask == Prayer.ALL_COMPLETED_MASK) {
+                fullDays++;
+                run++;
+                longest = Math.max(longest, run);
+            } else {
+                run = 0;
+            }
+        }
+
+        PrayerStats stats = new PrayerStats(year, masks.length, completed, fullDays, longest,
+                currentStreak(dbManager, userId, today));
+        System.arraycopy(perPrayer, 0, stats.completedPerPrayer, 0, perPrayer.length);
+        return stats;
+    }
+
+    // Full days ending today, or ending yesterday while today is still in progress
+    private static int currentStreak(DatabaseManager dbManager, int userId, LocalDate today) {
+        int streak = 0;
+        LocalDate windowEnd = today;
+        boolean first = true;
+        while (true) {
+            LocalDate windowStart = windowEnd.minusDays(365);
+            int[] masks = dbManager.getDailyMasks(userId, windowStart, windowEnd);
+            for (int i = masks.length - 1; i >= 0; i--) {
+                if (masks[i] == Prayer.ALL_COMPLETED_MASK) {
+                    streak++;
+                } else if (first && i == masks.length - 1) {
+                    // Today isn't finished yet; don't break the streak over it
+                } else {
+                    return streak;
+                }
+                first = false;
+            }
+            windowEnd = windowStart.minusDays(1);
+        }
+    }
+
+    public String toJson() {
+        int possible = daysCounted * Prayer.count();
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"year\":").append(year)
+            .append(",\"daysCounted\":").append(daysCounted)
+            .append(",\"completedPrayers\":").append(completedPrayers)
+            .append(",\"possiblePrayers\":").append(possible)
+            .append(",\"completionRate\":").append(rate(completedPrayers, possible))
+            .append(",\"fullDays\":").append(fullDays)
+            .append(",\"currentStreak\":").append(currentStreak)
+            .append(",\"longestStreak\":").append(longestStreak)
+            .append(",\"perPrayer\":{");
+        for (int ordinal = 0; ordinal < completedPerPrayer.length; ordinal++) {
+            if (ordinal > 0) {
+                json.append(',');
+            }
+            json.append('"').append(Prayer.byOrdinal(ordinal).getDisplayName()).append("\":{\"completed\":")
+                .append(completedPerPrayer[ordinal])
+                .append(",\"rate\":").append(rate(completedPerPrayer[ordinal], daysCounted))
+                .append('}');
+        }
+        json.append("}}");
+        return json.toString();
+    }
+
+    // Percentage with one decimal place
+    private static double rate(int part, int whole) {
+        return whole == 0 ? 0 : Math.round(part * 1000.0 / whole) / 10.0;
+    }
+}
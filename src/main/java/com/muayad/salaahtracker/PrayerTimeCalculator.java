@@ -0,0 +1,184 @@
+package com.muayad.salaahtracker;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.chrono.HijrahDate;
+import java.time.temporal.ChronoField;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Offline prayer-time calculation, following the same astronomical formulas
+ * (and angle-based high-latitude rule) that aladhan uses.
+ *
+ * All internal times are decimal hours. Results are rounded to the nearest
+ * minute like the aladhan API output.
+ */
+public class PrayerTimeCalculator {
+
+    public enum AsrMethod {
+        SHAFI(1),
+        HANAFI(2);
+
+        private final int shadowFactor;
+
+        AsrMethod(int shadowFactor) {
+            this.shadowFactor = shadowFactor;
+        }
+
+        public static AsrMethod fromName(String name) {
+            return name != null && name.trim().equalsIgnoreCase("hanafi") ? HANAFI : SHAFI;
+        }
+    }
+
+    private static final double SUNRISE_ANGLE = 0.833;
+
+    private final CalculationMethod method;
+    private final AsrMethod asrMethod;
+
+    public PrayerTimeCalculator(CalculationMethod method, AsrMethod asrMethod) {
+        this.method = method;
+        this.asrMethod = asrMethod;
+    }
+
+    public CalculationMethod getMethod() {
+        return method;
+    }
+
+    public AsrMethod getAsrMethod() {
+        return asrMethod;
+    }
+
+    /** Fajr, Sunrise, Dhuhr, Asr, Maghrib and Isha in the location's local time. */
+    public Map<String, LocalTime> calculate(LocalDate date, double latitude, double longitude, ZoneId zone) {
+        double timeZone = zone.getRules().getOffset(date.atTime(12, 0)).getTotalSeconds() / 3600.0;
+        double jDate = julian(date.getYear(), date.getMonthValue(), date.getDayOfMonth()) - longitude / (15 * 24);
+
+        // One refinement pass starting from rough guesses, as in the reference algorithm
+        double fajr = sunAngleTime(jDate, latitude, method.getFajrAngle(), 5 / 24.0, true);
+        double sunrise = sunAngleTime(jDate, latitude, SUNRISE_ANGLE, 6 / 24.0, true);
+        double dhuhr = midDay(jDate, 12 / 24.0);
+        double asr = asrTime(jDate, latitude, asrMethod.shadowFactor, 13 / 24.0);
+        double sunset = sunAngleTime(jDate, latitude, SUNRISE_ANGLE, 18 / 24.0, false);
+        double isha = method.isIshaByMinutes() ? Double.NaN : sunAngleTime(jDate, latitude, method.getIshaAngle(), 18 / 24.0, false);
+
+        double shift = timeZone - longitude / 15;
+        fajr += shift;
+        sunrise += shift;
+        dhuhr += shift;
+        asr += shift;
+        sunset += shift;
+        isha += shift;
+
+        // Angle-based high latitude rule: keep Fajr/Isha within angle/60 of the night
+        double night = timeDiff(sunset, sunrise);
+        fajr = adjustHighLatitude(fajr, sunrise, method.getFajrAngle(), night, true);
+        double maghrib = sunset;
+        if (method.isIshaByMinutes()) {
+            isha = maghrib + ishaMinutes(date) / 60.0;
+        } else {
+            isha = adjustHighLatitude(isha, sunset, method.getIshaAngle(), night, false);
+        }
+
+        Map<String, LocalTime> times = new TreeMap<>();
+        times.put("Fajr", toLocalTime(fajr));
+        times.put("Sunrise", toLocalTime(sunrise));
+        times.put("Dhuhr", toLocalTime(dhuhr));
+        times.put("Asr", toLocalTime(asr));
+        times.put("Maghrib", toLocalTime(maghrib));
+        times.put("Isha", toLocalTime(isha));
+        return times;
+    }
+
+    // Umm al-Qura uses 120 minutes instead of 90 during Ramadan
+    private int ishaMinutes(LocalDate date) {
+        int minutes = method.getIshaMinutesAfterMaghrib();
+        if (method == CalculationMethod.UMM_AL_QURA) {
+            try {
+                if (HijrahDate.from(date).get(ChronoField.MONTH_OF_YEAR) == 9) {
+                    minutes = 120;
+                }
+            } catch (RuntimeException e) {
+                // Outside the Hijrah calendar's supported range
+            }
+        }
+        return minutes;
+    }
+
+    // --- ASTRONOMY ---
+
+    private static double julian(int year, int month, int day) {
+        if (month <= 2) {
+            year -= 1;
+            month += 12;
+        }
+        double a = Math.floor(year / 100.0);
+        double b = 2 - a + Math.floor(a / 4);
+        return Math.floor(365.25 * (year + 4716)) + Math.floor(30.6001 * (month + 1)) + day + b - 1524.5;
+    }
+
+    // Returns {declination (degrees), equation of time (hours)}
+    private static double[] sunPosition(double jd) {
+        double d = jd - 2451545.0;
+        double g = fixAngle(357.529 + 0.98560028 * d);
+        double q = fixAngle(280.459 + 0.98564736 * d);
+        double l = fixAngle(q + 1.915 * dsin(g) + 0.020 * dsin(2 * g));
+        double e = 23.439 - 0.00000036 * d;
+
+        double ra = darctan2(dcos(e) * dsin(l), dcos(l)) / 15;
+        double eqt = q / 15 - fixHour(ra);
+        double decl = darcsin(dsin(e) * dsin(l));
+        return new double[] {decl, eqt};
+    }
+
+    private static double midDay(double jDate, double dayPortion) {
+        double eqt = sunPosition(jDate + dayPortion)[1];
+        return fixHour(12 - eqt);
+    }
+
+    private static double sunAngleTime(double jDate, double latitude, double angle, double dayPortion, boolean beforeNoon) {
+        double decl = sunPosition(jDate + dayPortion)[0];
+        double noon = midDay(jDate, dayPortion);
+        double t = darccos((-dsin(angle) - dsin(decl) * dsin(latitude)) / (dcos(decl) * dcos(latitude))) / 15;
+        return noon + (beforeNoon ? -t : t);
+    }
+
+    private static double asrTime(double jDate, double latitude, int shadowFactor, double dayPortion) {
+        double decl = sunPosition(jDate + dayPortion)[0];
+        double angle = -darccot(shadowFactor + dtan(Math.abs(latitude - decl)));
+        return sunAngleTime(jDate, latitude, angle, dayPortion, false);
+    }
+
+    private static double adjustHighLatitude(double time, double base, double angle, double night, boolean beforeBase) {
+        double portion = angle / 60.0 * night;
+        double diff = beforeBase ? timeDiff(time, base) : timeDiff(base, time);
+        if (Double.isNaN(time) || diff > portion) {
+            return base + (beforeBase ? -portion : portion);
+        }
+        return time;
+    }
+
+    private static LocalTime toLocalTime(double hours) {
+        int totalMinutes = (int) Math.floor(fixHour(hours + 0.5 / 60) * 60);
+        return LocalTime.of((totalMinutes / 60) % 24, totalMinutes % 60);
+    }
+
+    // --- DEGREE MATH ---
+
+    private static double timeDiff(double from, double to) { return fixHour(to - from); }
+    private static double dsin(double d) { return Math.sin(Math.toRadians(d)); }
+    private static double dcos(double d) { return Math.cos(Math.toRadians(d)); }
+    private static double dtan(double d) { return Math.tan(Math.toRadians(d)); }
+    private static double darcsin(double x) { return Math.toDegrees(Math.asin(x)); }
+    private static double darccos(double x) { return Math.toDegrees(Math.acos(x)); }
+    private static double darctan2(double y, double x) { return Math.toDegrees(Math.atan2(y, x)); }
+    private static double darccot(double x) { return Math.toDegrees(Math.atan(1 / x)); }
+    private static double fixAngle(double a) { return fix(a, 360); }
+    private static double fixHour(double a) { return fix(a, 24); }
+
+    private static double fix(double a, double b) {
+        a = a - b * Math.floor(a / b);
+        return a < 0 ? a + b : a;
+    }
+}
@@ -1,55 +1,446 @@
 package com.muayad.salaahtracker;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 import java.net.URI;
+import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalTime;
+import java.time.YearMonth;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
+/**
+ * Prayer timings per city and day. Bundled cities are calculated locally;
+ * the rest come from aladhan a whole month at a time (calendarByCity) and are
+ * kept in the prayer_timetable table, so restarts and midnight rollovers are
+ * served from the database instead of upstream. On top of that sits an
+ * in-memory cache of today's timetables.
+ *
+ * The background refresher (startRefresher) warms today's timings for every
+ * known location at startup and every TIMETABLE_REFRESH_HOURS (default 6),
+ * and fetches next month once it is within TIMETABLE_PREFETCH_DAYS (default 7).
+ *
+ * Upstream calls are bounded: ALADHAN_CONNECT_TIMEOUT_MS (default 2000) and
+ * ALADHAN_TIMEOUT_MS (default 4000) per attempt, at most ALADHAN_MAX_ATTEMPTS
+ * (default 3) attempts with jittered backoff, all within ALADHAN_DEADLINE_MS
+ * (default 8000). A circuit breaker stops calling after
+ * ALADHAN_BREAKER_FAILURES (default 5) failures in a row for
+ * ALADHAN_BREAKER_OPEN_SECONDS (default 30). When today's timings can't be
+ * had, the last known ones (usually yesterday's) are served marked stale
+ * while a background task keeps trying to replace them.
+ */
 public class PrayerTimesService {
 
+    private static final LocalTime MIDNIGHT = LocalTime.of(23, 59);
+
+    private static final Metrics.Family<Metrics.Histogram> ALADHAN_SECONDS = Metrics.histogram(
+            "aladhan_request_duration_seconds", "Latency of timetable fetches from api.aladhan.com.", "outcome");
+    private static final Metrics.Histogram ALADHAN_OK = ALADHAN_SECONDS.labels("ok");
+    private static final Metrics.Histogram ALADHAN_HTTP_ERROR = ALADHAN_SECONDS.labels("http_error");
+    private static final Metrics.Histogram ALADHAN_FAILED = ALADHAN_SECONDS.labels("failed");
+    private static final Metrics.Histogram ALADHAN_TIMEOUT = ALADHAN_SECONDS.labels("timeout");
+
+    // Revalidation of a stale entry backs off from 5s up to 5 minutes
+    private static final long REVALIDATE_BASE_MILLIS = 5_000;
+    private static final long REVALIDATE_MAX_MILLIS = 300_000;
+
+    private static final DateTimeFormatter CALENDAR_DATE = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+
     private final HttpClient httpClient;
-    private String detectedTimezone = "UTC"; 
+    private final CityDirectory cityDirectory;
+    private final PrayerTimeCalculator calculator;
+    // Persisted timetables; null keeps everything in memory (e.g. the benchmarks)
+    private final DatabaseManager store;
+    // Zones learned from upstream, so "today" for a non-bundled city is its own date too
+    private final ConcurrentHashMap<String, ZoneId> knownZones = new ConcurrentHashMap<>();
+    // ALADHAN_BASE_URL, e.g. for a mirror
+    private final String aladhanBaseUrl;
+    private final int prefetchDays;
+    private final int refreshHours;
+    private final ScheduledExecutorService refresher;
+    private boolean refreshStarted;
+
+    // --- UPSTREAM RESILIENCE ---
+    private final long requestTimeoutMillis;
+    private final long deadlineMillis;
+    private final int maxAttempts;
+    private final CircuitBreaker breaker;
+    // Last good timetable per non-bundled location, for stale serving
+    private final ConcurrentHashMap<String, PrayerTimetable> lastGood = new ConcurrentHashMap<>();
+    private final Set<CacheKey> revalidating = ConcurrentHashMap.newKeySet();
     
     // --- CACHING VARIABLES ---
-    private Map<String, LocalTime> cachedTimings;
-    private LocalDate lastFetchDate;
-    private String lastCity;
-    private String lastCountry;
+    // Keyed by normalized (city, country, date). Each entry holds a future so that
+    // concurrent misses for the same key wait on a single upstream request.
+    private final ConcurrentHashMap<CacheKey, CacheEntry> cache = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder storeHits = new LongAdder();
+    private final LongAdder monthFetches = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder staleServed = new LongAdder();
+    private final LongAdder revalidated = new LongAdder();
 
     public PrayerTimesService() {
+        this(null);
+    }
+
+    public PrayerTimesService(DatabaseManager store) {
+        this.store = store;
         this.httpClient = HttpClient.newBuilder()
                 .followRedirects(HttpClient.Redirect.ALWAYS)
+                .connectTimeout(Duration.ofMillis(Math.max(1, envInt("ALADHAN_CONNECT_TIMEOUT_MS", 2_000))))
                 .build();
+        this.requestTimeoutMillis = Math.max(1, envInt("ALADHAN_TIMEOUT_MS", 4_000));
+        this.deadlineMillis = Math.max(1, envInt("ALADHAN_DEADLINE_MS", 8_000));
+        this.maxAttempts = Math.max(1, envInt("ALADHAN_MAX_ATTEMPTS", 3));
+        this.breaker = new CircuitBreaker(envInt("ALADHAN_BREAKER_FAILURES", 5), envInt("ALADHAN_BREAKER_OPEN_SECONDS", 30));
+        this.cityDirectory = new CityDirectory();
+        this.calculator = new PrayerTimeCalculator(
+                CalculationMethod.fromName(System.getenv("PRAYER_CALC_METHOD")),
+                PrayerTimeCalculator.AsrMethod.fromName(System.getenv("PRAYER_ASR_METHOD")));
+        this.maxEntries = envInt("PRAYER_CACHE_MAX_ENTRIES", 1000);
+        this.ttlNanos = TimeUnit.HOURS.toNanos(envInt("PRAYER_CACHE_TTL_HOURS", 26));
+        String baseUrl = System.getenv("ALADHAN_BASE_URL");
+        this.aladhanBaseUrl = baseUrl == null || baseUrl.isBlank() ? "https://api.aladhan.com" : baseUrl.trim().replaceAll("/+$", "");
+        this.prefetchDays = Math.max(0, envInt("TIMETABLE_PREFETCH_DAYS", 7));
+        this.refreshHours = Math.max(1, envInt("TIMETABLE_REFRESH_HOURS", 6));
+        this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "timetable-refresher");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private static int envInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private record CacheKey(String city, String country, LocalDate date) {
+        static CacheKey of(String city, String country, LocalDate date) {
+            return new CacheKey(city.trim().toLowerCase(Locale.ROOT), country.trim().toLowerCase(Locale.ROOT), date);
+        }
+    }
+
+    private static final class CacheEntry {
+        final CompletableFuture<PrayerTimetable> future = new CompletableFuture<>();
+        final long createdNanos = System.nanoTime();
+        volatile long lastAccessNanos = createdNanos;
     }
 
     public Map<String, LocalTime> getPrayerTimes(String city, String country) {
-        LocalDate today = LocalDate.now();
+        PrayerTimetable timetable = getTimetable(city, country);
+        return timetable == null ? null : timetable.timings();
+    }
+
+    /** The bundled entry for the city, or null if its times have to come from aladhan. */
+    public CityDirectory.City findCity(String city, String country) {
+        return cityDirectory.find(city, country);
+    }
 
-        // 1. CHECK CACHE
-        if (cachedTimings != null && today.equals(lastFetchDate) && 
-            city.equalsIgnoreCase(lastCity) && country.equalsIgnoreCase(lastCountry)) {
-            return cachedTimings;
+    /**
+     * Today's timings for the city; stale() if they are an earlier day's served
+     * during an upstream outage, or null if nothing is known for the city.
+     */
+    public PrayerTimetable getTimetable(String city, String country) {
+        CacheKey key = CacheKey.of(city, country, today(city, country));
+
+        // 1. CHECK CACHE (or become the single loader for this key)
+        CacheEntry fresh = new CacheEntry();
+        CacheEntry entry = cache.compute(key, (k, existing) -> {
+            if (existing == null || System.nanoTime() - existing.createdNanos > ttlNanos) {
+                return fresh;
+            }
+            return existing;
+        });
+
+        if (entry != fresh) {
+            cacheHits.increment();
+            entry.lastAccessNanos = System.nanoTime();
+            try {
+                return entry.future.join();
+            } catch (CompletionException | CancellationException e) {
+                return null;
+            }
         }
 
         // 2. FETCH FROM API
+        cacheMisses.increment();
+        long started = System.nanoTime();
         try {
-            String cleanCity = city.trim().replace(" ", "%20");
-            String cleanCountry = country.trim().replace(" ", "%20");
+            PrayerTimetable timetable;
+            try {
+                timetable = fetchTimetable(city, country, key.date());
+            } catch (RuntimeException e) {
+                // e.g. a malformed body or a store error; handled like any failed fetch
+                System.out.println("Prayer times: loading " + city + " failed: " + e);
+                timetable = null;
+            }
+            loadNanos.add(System.nanoTime() - started);
 
-            String url = String.format("https://api.aladhan.com/v1/timingsByCity?city=%s&country=%s&method=4", cleanCity, cleanCountry);
-            System.out.println("Fetching URL: " + url); 
+            if (timetable == null) {
+                timetable = lastKnown(city, country, key.date());
+                if (timetable == null) {
+                    // Don't cache failures: let the next caller try again
+                    loadFailures.increment();
+                    return null;
+                }
+                // Cached like any other entry; the revalidation swaps in the real one when it can
+                staleServed.increment();
+                revalidateLater(key, city, country, 1);
+            }
+
+            // 3. SAVE TO CACHE
+            entry.future.complete(timetable);
+            if (cache.size() > maxEntries) {
+                evictEntries();
+            }
+            return timetable;
+        } finally {
+            // Whatever went wrong, waiters must be released and the entry must not outlive the failure
+            if (!entry.future.isDone()) {
+                cache.remove(key, entry);
+                entry.future.complete(null);
+            }
+        }
+    }
+
+    private void evictEntries() {
+        long now = System.nanoTime();
+        cache.entrySet().removeIf(e -> now - e.getValue().createdNanos > ttlNanos);
+        while (cache.size() > maxEntries) {
+            CacheKey oldest = null;
+            long oldestAccess = Long.MAX_VALUE;
+            for (Map.Entry<CacheKey, CacheEntry> e : cache.entrySet()) {
+                if (e.getValue().future.isDone() && e.getValue().lastAccessNanos < oldestAccess) {
+                    oldestAccess = e.getValue().lastAccessNanos;
+                    oldest = e.getKey();
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            cache.remove(oldest);
+            evictions.increment();
+        }
+    }
+
+    // "Today" is the city's own date once its zone is known, so far-off zones roll over at their midnight
+    private LocalDate today(String city, String country) {
+        CityDirectory.City knownCity = cityDirectory.find(city, country);
+        ZoneId zone = knownCity != null ? knownCity.zone() : knownZones.get(locationKey(city, country));
+        return zone != null ? LocalDate.now(zone) : LocalDate.now();
+    }
+
+    private static String locationKey(String city, String country) {
+        return city.trim().toLowerCase(Locale.ROOT) + "|" + country.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // Stored rows are only valid for the calculation settings they were fetched with
+    private String timetableKey(String city, String country) {
+        return locationKey(city, country) + "|" + calculator.getMethod().getAladhanId() + "|" + aladhanSchool();
+    }
+
+    private int aladhanSchool() {
+        return calculator.getAsrMethod() == PrayerTimeCalculator.AsrMethod.HANAFI ? 1 : 0;
+    }
+
+    private PrayerTimetable fetchTimetable(String city, String country, LocalDate date) {
+        // Known cities are calculated locally; aladhan is only the fallback for the rest
+        CityDirectory.City knownCity = cityDirectory.find(city, country);
+        if (knownCity != null) {
+            return calculateTimetable(knownCity, date);
+        }
+
+        String timetableKey = timetableKey(city, country);
+        if (store != null) {
+            PrayerTimetable stored = store.findTimetable(timetableKey, date);
+            if (stored != null) {
+                storeHits.increment();
+                knownZones.put(locationKey(city, country), stored.zone());
+                return remember(city, country, withMidnight(stored));
+            }
+        }
+
+        List<PrayerTimetable> month = fetchMonth(city, country, YearMonth.from(date));
+        if (month == null || month.isEmpty()) {
+            return null;
+        }
+        knownZones.put(locationKey(city, country), month.get(0).zone());
+        if (store != null) {
+            store.saveTimetables(timetableKey, month);
+        }
+        for (PrayerTimetable day : month) {
+            if (day.date().equals(date)) {
+                return remember(city, country, withMidnight(day));
+            }
+        }
+        return null;
+    }
+
+    private PrayerTimetable remember(String city, String country, PrayerTimetable timetable) {
+        lastGood.put(locationKey(city, country), timetable);
+        return timetable;
+    }
+
+    // --- STALE SERVING ---
+
+    // The newest timings known for the city (from memory, else yesterday's stored row), re-dated and marked stale
+    private PrayerTimetable lastKnown(String city, String country, LocalDate date) {
+        PrayerTimetable last = lastGood.get(locationKey(city, country));
+        if (last == null && store != null && cityDirectory.find(city, country) == null) {
+            PrayerTimetable yesterday = store.findTimetable(timetableKey(city, country), date.minusDays(1));
+            last = yesterday != null ? withMidnight(yesterday) : null;
+        }
+        return last == null ? null : new PrayerTimetable(last.timings(), last.zone(), date, true);
+    }
+
+    private void revalidateLater(CacheKey key, String city, String country, int attempt) {
+        if (attempt == 1 && !revalidating.add(key)) {
+            return;
+        }
+        long capMillis = Math.min(REVALIDATE_MAX_MILLIS, REVALIDATE_BASE_MILLIS << Math.min(attempt - 1, 16));
+        long delayMillis = ThreadLocalRandom.current().nextLong(capMillis / 2, capMillis + 1);
+        try {
+            refresher.schedule(() -> revalidate(key, city, country, attempt), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shut down
+            revalidating.remove(key);
+        }
+    }
+
+    // Keeps trying until the stale entry is replaced, evicted, or its day is over
+    private void revalidate(CacheKey key, String city, String country, int attempt) {
+        CacheEntry current = cache.get(key);
+        if (current == null || !isStale(current) || !key.date().equals(today(city, country))) {
+            revalidating.remove(key);
+            return;
+        }
+        PrayerTimetable timetable;
+        try {
+            timetable = fetchTimetable(city, country, key.date());
+        } catch (RuntimeException e) {
+            timetable = null;
+        }
+        if (timetable == null) {
+            revalidateLater(key, city, country, attempt + 1);
+            return;
+        }
+        CacheEntry replacement = new CacheEntry();
+        replacement.future.complete(timetable);
+        cache.replace(key, current, replacement);
+        revalidated.increment();
+        revalidating.remove(key);
+        System.out.println("Prayer times: replaced stale timings for " + city + " after " + attempt + " attempt(s)");
+    }
+
+    private static boolean isStale(CacheEntry entry) {
+        PrayerTimetable timetable = entry.future.isDone() && !entry.future.isCompletedExceptionally() ? entry.future.join() : null;
+        return timetable != null && timetable.stale();
+    }
+
+    private static PrayerTimetable withMidnight(PrayerTimetable day) {
+        Map<String, LocalTime> prayerMap = new TreeMap<>(day.timings());
+        prayerMap.put("Midnight", MIDNIGHT);
+        return new PrayerTimetable(Collections.unmodifiableMap(prayerMap), day.zone(), day.date());
+    }
+
+    // --- UPSTREAM ---
+
+    // days is null when the attempt failed; failed says whether it counts against the breaker and may be retried
+    private record Attempt(List<PrayerTimetable> days, boolean failed) {}
+
+    // Interrupted before upstream answered; tells the breaker nothing
+    private static final Attempt INTERRUPTED = new Attempt(null, false);
+
+    // Every day of the month in one call, retried with jittered backoff within the deadline; null on failure
+    private List<PrayerTimetable> fetchMonth(String city, String country, YearMonth month) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            // An attempt with only a sliver of the deadline left can't succeed
+            if (remainingMillis < Math.min(100, requestTimeoutMillis) || !breaker.allowRequest()) {
+                return null;
+            }
+            Attempt result = fetchMonthOnce(city, country, month, Math.min(requestTimeoutMillis, remainingMillis));
+            if (result == INTERRUPTED) {
+                breaker.release();
+                return null;
+            }
+            if (!result.failed()) {
+                // Includes 4xx answers (e.g. unknown city): upstream is up, there is just nothing to retry
+                breaker.recordSuccess();
+                return result.days();
+            }
+            breaker.recordFailure();
+            if (attempt == maxAttempts) {
+                return null;
+            }
+            // Full jitter on 250ms, 500ms, 1s ...
+            long capMillis = 250L << Math.min(attempt - 1, 10);
+            long backoffMillis = ThreadLocalRandom.current().nextLong(capMillis / 2, capMillis + 1);
+            if (TimeUnit.MILLISECONDS.toNanos(backoffMillis) >= deadline - System.nanoTime()) {
+                return null;
+            }
+            retries.increment();
+            try {
+                Thread.sleep(backoffMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private Attempt fetchMonthOnce(String city, String country, YearMonth month, long timeoutMillis) {
+        long started = System.nanoTime();
+        try {
+            String url = String.format("%s/v1/calendarByCity/%d/%d?city=%s&country=%s&method=%d&school=%d",
+                    aladhanBaseUrl, month.getYear(), month.getMonthValue(), encode(city), encode(country),
+                    calculator.getMethod().getAladhanId(), aladhanSchool());
 
             HttpRequest request = HttpRequest.newBuilder()
                     .uri(URI.create(url))
+                    .timeout(Duration.ofMillis(timeoutMillis))
                     .header("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/91.0.4472.124 Safari/537.36")
                     .GET()
                     .build();
@@ -57,45 +448,135 @@ public class PrayerTimesService {
             HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
             
             if (response.statusCode() != 200) {
+                ALADHAN_HTTP_ERROR.observeSince(started);
                 System.err.println("API Error: " + response.statusCode());
-                return null;
+                int status = response.statusCode();
+                return new Attempt(null, status >= 500 || status == 429);
             }
 
-            JSONObject json = new JSONObject(response.body());
-            JSONObject data = json.getJSONObject("data");
-            JSONObject timings = data.getJSONObject("timings");
-            JSONObject meta = data.getJSONObject("meta");
-            
-            this.detectedTimezone = meta.getString("timezone");
-            System.out.println("Detected Timezone from API: " + this.detectedTimezone);
-
-            Map<String, LocalTime> prayerMap = new TreeMap<>();
+            JSONArray data = new JSONObject(response.body()).getJSONArray("data");
             DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm");
+            List<PrayerTimetable> days = new ArrayList<>(data.length());
+            for (int i = 0; i < data.length(); i++) {
+                JSONObject day = data.getJSONObject(i);
+                JSONObject timings = day.getJSONObject("timings");
+                ZoneId zone = ZoneId.of(day.getJSONObject("meta").getString("timezone"));
+                LocalDate date = LocalDate.parse(day.getJSONObject("date").getJSONObject("gregorian").getString("date"), CALENDAR_DATE);
 
-            prayerMap.put("Fajr", parseTime(timings.getString("Fajr"), formatter));
-            prayerMap.put("Sunrise", parseTime(timings.getString("Sunrise"), formatter)); 
-            prayerMap.put("Dhuhr", parseTime(timings.getString("Dhuhr"), formatter));
-            prayerMap.put("Asr", parseTime(timings.getString("Asr"), formatter));
-            prayerMap.put("Maghrib", parseTime(timings.getString("Maghrib"), formatter));
-            prayerMap.put("Isha", parseTime(timings.getString("Isha"), formatter));
-            
-            // --- NEW: Midnight Logic Restored ---
-            prayerMap.put("Midnight", LocalTime.of(23, 59)); 
-            // ------------------------------------
-
-            // 3. SAVE TO CACHE
-            this.cachedTimings = prayerMap;
-            this.lastFetchDate = today;
-            this.lastCity = city;
-            this.lastCountry = country;
-
-            return prayerMap;
+                Map<String, LocalTime> prayerMap = new TreeMap<>();
+                prayerMap.put("Fajr", parseTime(timings.getString("Fajr"), formatter));
+                prayerMap.put("Sunrise", parseTime(timings.getString("Sunrise"), formatter));
+                prayerMap.put("Dhuhr", parseTime(timings.getString("Dhuhr"), formatter));
+                prayerMap.put("Asr", parseTime(timings.getString("Asr"), formatter));
+                prayerMap.put("Maghrib", parseTime(timings.getString("Maghrib"), formatter));
+                prayerMap.put("Isha", parseTime(timings.getString("Isha"), formatter));
+                days.add(new PrayerTimetable(Collections.unmodifiableMap(prayerMap), zone, date));
+            }
+            ALADHAN_OK.observeSince(started);
+            monthFetches.increment();
+            System.out.println("Fetched " + days.size() + " days for " + city + " " + month
+                    + (days.isEmpty() ? "" : " (" + days.get(0).zone() + ")"));
+            return new Attempt(days, false);
 
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return INTERRUPTED;
+        } catch (HttpTimeoutException e) {
+            ALADHAN_TIMEOUT.observeSince(started);
+            System.err.println("Timed out fetching prayer times for " + city + " after " + timeoutMillis + "ms");
+            return new Attempt(null, true);
         } catch (Exception e) {
+            ALADHAN_FAILED.observeSince(started);
             System.err.println("Error fetching prayer times: " + e.getMessage());
-            e.printStackTrace(); 
-            return null;
+            return new Attempt(null, true);
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value.trim(), StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    private PrayerTimetable calculateTimetable(CityDirectory.City city, LocalDate date) {
+        Map<String, LocalTime> prayerMap = calculator.calculate(date, city.latitude(), city.longitude(), city.zone());
+        prayerMap.put("Midnight", MIDNIGHT);
+        return new PrayerTimetable(Collections.unmodifiableMap(prayerMap), city.zone(), date);
+    }
+
+    // --- BACKGROUND REFRESH ---
+
+    /**
+     * Warms today's timings for every location {@code locations} returns, now
+     * and then every TIMETABLE_REFRESH_HOURS, prefetching next month near the
+     * end of this one and pruning stored days older than a week.
+     */
+    public synchronized void startRefresher(Supplier<Collection<ReminderScheduler.Location>> locations) {
+        if (refreshStarted) {
+            return;
         }
+        refreshStarted = true;
+        refresher.scheduleWithFixedDelay(() -> refresh(locations.get()), 0, refreshHours, TimeUnit.HOURS);
+    }
+
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    private void refresh(Collection<ReminderScheduler.Location> locations) {
+        int warmed = 0;
+        int prefetched = 0;
+        for (ReminderScheduler.Location location : locations) {
+            try {
+                if (getTimetable(location.city(), location.country()) != null) {
+                    warmed++;
+                }
+                if (prefetchNextMonth(location.city(), location.country())) {
+                    prefetched++;
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Timetable refresh failed for " + location.city() + ": " + e.getMessage());
+            }
+        }
+        if (store != null) {
+            store.pruneTimetables(LocalDate.now().minusDays(7));
+        }
+        System.out.println("Prayer times: warmed " + warmed + "/" + locations.size() + " locations, prefetched " + prefetched + " months");
+    }
+
+    // Fetches and stores next month once today is within prefetchDays of its start; true if it did
+    private boolean prefetchNextMonth(String city, String country) {
+        if (store == null || cityDirectory.find(city, country) != null) {
+            return false;
+        }
+        LocalDate today = today(city, country);
+        YearMonth next = YearMonth.from(today).plusMonths(1);
+        if (today.plusDays(prefetchDays).isBefore(next.atDay(1))) {
+            return false;
+        }
+        String timetableKey = timetableKey(city, country);
+        if (store.findTimetable(timetableKey, next.atDay(1)) != null) {
+            return false;
+        }
+        List<PrayerTimetable> month = fetchMonth(city, country, next);
+        return month != null && !month.isEmpty() && store.saveTimetables(timetableKey, month);
+    }
+
+    // --- CACHE STATS ---
+
+    public int getCacheSize() { return cache.size(); }
+    public long getCacheHits() { return cacheHits.sum(); }
+    public long getCacheMisses() { return cacheMisses.sum(); }
+    public long getLoadFailures() { return loadFailures.sum(); }
+    public long getEvictions() { return evictions.sum(); }
+    public long getStoreHits() { return storeHits.sum(); }
+    public long getMonthFetches() { return monthFetches.sum(); }
+    public long getRetries() { return retries.sum(); }
+    public long getStaleServed() { return staleServed.sum(); }
+    public long getRevalidated() { return revalidated.sum(); }
+    public CircuitBreaker getBreaker() { return breaker; }
+
+    public long getAverageLoadMillis() {
+        long loads = cacheMisses.sum();
+        return loads == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(loadNanos.sum() / loads);
     }
 
     private LocalTime parseTime(String timeStr, DateTimeFormatter formatter) {
@@ -103,11 +584,10 @@ public class PrayerTimesService {
         return LocalTime.parse(cleanTime, formatter);
     }
 
-    public String getUpcomingPrayerName(Map<String, LocalTime> timings, int exactMinute) {
-        ZoneId zoneId = ZoneId.of(this.detectedTimezone);
-        LocalTime now = ZonedDateTime.now(zoneId).toLocalTime(); 
+    public String getUpcomingPrayerName(PrayerTimetable timetable, int exactMinute) {
+        LocalTime now = ZonedDateTime.now(timetable.zone()).toLocalTime(); 
 
-        for (Map.Entry<String, LocalTime> entry : timings.entrySet()) {
+        for (Map.Entry<String, LocalTime> entry : timetable.timings().entrySet()) {
             String prayerName = entry.getKey();
             LocalTime prayerTime = entry.getValue();
 
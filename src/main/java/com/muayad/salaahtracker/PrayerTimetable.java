@@ -0,0 +1,18 @@
+package com.muayad.salaahtracker;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.Map;
+
+/**
+ * One location's prayer timings for one day, together with the timezone
+ * those local times are in. A stale timetable carries an earlier day's
+ * timings, served while the real ones can't be fetched.
+ */
+public record PrayerTimetable(Map<String, LocalTime> timings, ZoneId zone, LocalDate date, boolean stale) {
+
+    public PrayerTimetable(Map<String, LocalTime> timings, ZoneId zone, LocalDate date) {
+        this(timings, zone, date, false);
+    }
+}
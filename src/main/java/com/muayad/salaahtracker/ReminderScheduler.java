@@ -0,0 +1,507 @@
+package com.muayad.salaahtracker;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fires the 20/10/5-minute "prayer time is ending" reminders from inside the server.
+ *
+ * Linked users are grouped into location buckets by the city they saved
+ * (users.location_key). Once per local day for each bucket the timings are
+ * resolved once through PrayerTimesService, "today" is taken in that bucket's
+ * timezone, and the milestone instants are armed on a ScheduledExecutorService.
+ * Planning and recipient walks run on a small worker pool
+ * (REMINDER_PARALLELISM, default 4), so buckets proceed in parallel and the
+ * cost grows with the number of distinct cities rather than users. New buckets
+ * are picked up every REMINDER_REFRESH_MINUTES (default 10), or straight away
+ * when a user saves a location.
+ *
+ * Users without a saved location belong to the first REMINDER_LOCATIONS entry;
+ * without one they get no reminders. Every firing is first claimed in the
+ * reminder_runs table, so a milestone is walked once even across restarts or
+ * when /api/check-reminders is also being polled. Milestones missed during a
+ * short outage are caught up as long as their deadline hasn't passed yet.
+ *
+ * Each page of recipients is then claimed in bulk in reminder_ledger, one row
+ * per (user, day, prayer, milestone), and only users claimed by that call are
+ * messaged, so no walk (replicas, a resumed run) can message anyone twice.
+ * Telegram's verdict is written back to the ledger every few seconds. A run
+ * is marked finished once every recipient has an outcome; one left unfinished
+ * by a crash is picked up again after REMINDER_RESUME_SECONDS (default 300),
+ * retrying only the sends that failed or were still queued when it stopped.
+ * A queued ledger row is taken back only once it is older than that window
+ * too, so rows of a walker that is still heartbeating are left alone.
+ * Ledger rows are kept for REMINDER_LEDGER_DAYS (default 3).
+ */
+public class ReminderScheduler {
+
+    // Deadline event -> the prayer whose time ends at that event
+    private static final String[][] DEADLINES = {
+        {"Sunrise", "Fajr"},
+        {"Asr", "Dhuhr"},
+        {"Maghrib", "Asr"},
+        {"Isha", "Maghrib"},
+        {"Midnight", "Isha"},
+    };
+    // Largest first; catch-up only ever sends the most recent milestone that was missed
+    private static final int[] MILESTONES = {20, 10, 5};
+    // How long the fan-out waits for space in the Telegram queue before giving up on a recipient
+    private static final long ENQUEUE_WAIT_MILLIS = 30_000;
+    private static final long OUTCOME_FLUSH_SECONDS = 5;
+
+    private final DatabaseManager dbManager;
+    private final TelegramBot bot;
+    private final PrayerTimesService prayerService;
+    private final List<Location> locations;
+    // Bucket for users who haven't saved a location (first REMINDER_LOCATIONS entry), or null
+    private final Location defaultLocation;
+    private final Duration catchUpWindow;
+    private final long refreshMinutes;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService workers;
+    // Buckets with a plan armed, by key; a bucket missing from activeKeys is dropped at its next re-plan
+    private final Map<String, Location> planned = new ConcurrentHashMap<>();
+    private final Set<String> activeKeys = ConcurrentHashMap.newKeySet();
+
+    // --- DELIVERY TRACKING ---
+    private final long resumeAfterSeconds;
+    private final int ledgerDays;
+    // Telegram verdicts waiting to be written to reminder_ledger
+    private final Queue<Outcome> outcomes = new ConcurrentLinkedQueue<>();
+    // Runs claimed by this instance and not finished yet, by Run.key
+    private final Map<String, Run> runs = new ConcurrentHashMap<>();
+    private final AtomicLong ledgerSkipped = new AtomicLong();
+
+    public ReminderScheduler(DatabaseManager dbManager, TelegramBot bot, PrayerTimesService prayerService) {
+        this.dbManager = dbManager;
+        this.bot = bot;
+        this.prayerService = prayerService;
+        this.locations = parseLocations(System.getenv("REMINDER_LOCATIONS"));
+        this.defaultLocation = locations.isEmpty() ? null : locations.get(0);
+        this.catchUpWindow = Duration.ofMinutes(parseInt(System.getenv("REMINDER_CATCHUP_MINUTES"), 20));
+        this.refreshMinutes = Math.max(1, parseInt(System.getenv("REMINDER_REFRESH_MINUTES"), 10));
+        // Well above OUTCOME_FLUSH_SECONDS, the heartbeat of a live run
+        this.resumeAfterSeconds = Math.max(30, parseInt(System.getenv("REMINDER_RESUME_SECONDS"), 300));
+        // Two days at least: a bucket's "today" can be the server's yesterday or tomorrow
+        this.ledgerDays = Math.max(2, parseInt(System.getenv("REMINDER_LEDGER_DAYS"), 3));
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "reminder-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicInteger workerCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, parseInt(System.getenv("REMINDER_PARALLELISM"), 4)), r -> {
+            Thread t = new Thread(r, "reminder-worker-" + workerCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public record Location(String city, String country) {
+        // Also stored as users.location_key
+        String key() {
+            return city.trim().toLowerCase(Locale.ROOT) + "|" + country.trim().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    public record Recipient(int userId, String chatId) {}
+
+    public record Outcome(LocalDate date, int slot, int userId, boolean sent) {}
+
+    // One claimed milestone being delivered; finished once walked and nothing is pending
+    private static final class Run {
+        final Location location;
+        final LocalDate date;
+        final String event;
+        final int minutes;
+        final AtomicInteger pending = new AtomicInteger();
+        volatile boolean walked;
+
+        Run(Location location, LocalDate date, String event, int minutes) {
+            this.location = location;
+            this.date = date;
+            this.event = event;
+            this.minutes = minutes;
+        }
+
+        String key() {
+            return location.key() + "|" + date + "|" + event + "|" + minutes;
+        }
+    }
+
+    // REMINDER_LOCATIONS="Riyadh,Saudi Arabia;London,United Kingdom"
+    static List<Location> parseLocations(String value) {
+        List<Location> result = new ArrayList<>();
+        if (value == null) {
+            return result;
+        }
+        for (String entry : value.split(";")) {
+            String[] parts = entry.split(",", 2);
+            if (parts.length == 2 && !parts[0].isBlank() && !parts[1].isBlank()) {
+                result.add(new Location(parts[0].trim(), parts[1].trim()));
+            }
+        }
+        return result;
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public void start() {
+        if (defaultLocation == null) {
+            System.out.println("Reminder scheduler: users without a saved location get no reminders (set REMINDER_LOCATIONS for a default).");
+        }
+        timer.scheduleWithFixedDelay(this::refreshLocations, 0, refreshMinutes, TimeUnit.MINUTES);
+        timer.scheduleWithFixedDelay(this::flushOutcomes, OUTCOME_FLUSH_SECONDS, OUTCOME_FLUSH_SECONDS, TimeUnit.SECONDS);
+        timer.scheduleWithFixedDelay(() -> {
+            dbManager.pruneReminderRuns(LocalDate.now().minusDays(7));
+            dbManager.pruneReminderLedger(LocalDate.now().minusDays(ledgerDays));
+        }, 1, 24, TimeUnit.HOURS);
+    }
+
+    /**
+     * Stops firing, then shuts the bot down so every queued reminder gets an
+     * outcome, and writes those to the ledger. Runs still in progress are left
+     * unfinished, so the next instance resumes them and retries what was dropped.
+     * Call before the pool is closed.
+     */
+    public void shutdown() {
+        timer.shutdownNow();
+        workers.shutdownNow();
+        try {
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        bot.shutdown();
+        // Left unfinished, even if every outcome is in: sends dropped just now get retried on resume
+        runs.clear();
+        flushOutcomes();
+    }
+
+    // --- BUCKETS ---
+
+    // Configured locations first, then every location a linked user has saved
+    private Map<String, Location> currentLocations() {
+        Map<String, Location> current = new LinkedHashMap<>();
+        for (Location location : locations) {
+            current.putIfAbsent(location.key(), location);
+        }
+        for (Location location : dbManager.getReminderLocations()) {
+            current.putIfAbsent(location.key(), location);
+        }
+        return current;
+    }
+
+    /** Every location reminders are currently planned for; also what the timetable refresher keeps warm. */
+    public List<Location> getLocations() {
+        return new ArrayList<>(currentLocations().values());
+    }
+
+    private void refreshLocations() {
+        try {
+            Map<String, Location> current = currentLocations();
+            activeKeys.addAll(current.keySet());
+            activeKeys.retainAll(current.keySet());
+            for (Location location : current.values()) {
+                addLocation(location);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Reminder location refresh failed: " + e.getMessage());
+        }
+    }
+
+    /** Starts planning a bucket for the location unless one is already running (e.g. after a user saves it). */
+    public void addLocation(Location location) {
+        activeKeys.add(location.key());
+        if (planned.putIfAbsent(location.key(), location) == null) {
+            schedulePlan(location, 0);
+        }
+    }
+
+    // Timetables may come from upstream, so planning runs on a worker rather than the timer thread
+    private void schedulePlan(Location location, long delayMillis) {
+        timer.schedule(() -> workers.execute(() -> planDay(location)), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // --- PLANNING ---
+
+    private void planDay(Location location) {
+        if (!activeKeys.contains(location.key())) {
+            // Nobody there any more; refreshLocations() adds it back if that changes
+            planned.remove(location.key());
+            return;
+        }
+        try {
+            PrayerTimetable timetable = prayerService.getTimetable(location.city(), location.country());
+            if (timetable == null) {
+                // Upstream unavailable: try again shortly rather than losing the whole day
+                schedulePlan(location, TimeUnit.MINUTES.toMillis(5));
+                return;
+            }
+            Map<String, LocalTime> timings = timetable.timings();
+            ZoneId zone = timetable.zone();
+            ZonedDateTime now = ZonedDateTime.now(zone);
+            LocalDate today = now.toLocalDate();
+
+            int armed = 0;
+            for (String[] deadline : DEADLINES) {
+                LocalTime deadlineTime = timings.get(deadline[0]);
+                if (deadlineTime == null) {
+                    continue;
+                }
+                ZonedDateTime deadlineAt = ZonedDateTime.of(today, deadlineTime, zone);
+                for (int minutes : MILESTONES) {
+                    ZonedDateTime fireAt = deadlineAt.minusMinutes(minutes);
+                    if (fireAt.isAfter(now)) {
+                        long delayMillis = Duration.between(now, fireAt).toMillis();
+                        timer.schedule(() -> fire(location, today, deadline[0], deadline[1], minutes), delayMillis, TimeUnit.MILLISECONDS);
+                        armed++;
+                    }
+                }
+            }
+            fireDue(location, timings, zone, now);
+            // A run a crashed instance left unfinished only becomes claimable once it goes stale
+            timer.schedule(() -> workers.execute(() -> fireDue(location, timings, zone, ZonedDateTime.now(zone))),
+                    resumeAfterSeconds + OUTCOME_FLUSH_SECONDS, TimeUnit.SECONDS);
+
+            // Re-plan shortly after the location's next midnight
+            ZonedDateTime nextPlan = today.plusDays(1).atStartOfDay(zone).plusMinutes(1);
+            schedulePlan(location, Duration.between(now, nextPlan).toMillis());
+            System.out.println("Reminder scheduler: armed " + armed + " milestones for " + location.city() + " (" + zone + ")"
+                    + (timetable.stale() ? " from stale timings" : ""));
+        } catch (RuntimeException e) {
+            System.err.println("Reminder planning failed for " + location.city() + ": " + e.getMessage());
+            schedulePlan(location, TimeUnit.MINUTES.toMillis(5));
+        }
+    }
+
+    /**
+     * Fires, for each deadline that hasn't passed yet, the most recent milestone
+     * whose time has already come (within the catch-up window). Already-fired
+     * milestones are skipped by the claim in fire().
+     */
+    private List<String> fireDue(Location location, Map<String, LocalTime> timings, ZoneId zone, ZonedDateTime now) {
+        List<String> fired = new ArrayList<>();
+        LocalDate today = now.toLocalDate();
+        for (String[] deadline : DEADLINES) {
+            LocalTime deadlineTime = timings.get(deadline[0]);
+            if (deadlineTime == null) {
+                continue;
+            }
+            ZonedDateTime deadlineAt = ZonedDateTime.of(today, deadlineTime, zone);
+            if (!deadlineAt.isAfter(now)) {
+                continue;
+            }
+            Integer due = null;
+            for (int minutes : MILESTONES) {
+                ZonedDateTime fireAt = deadlineAt.minusMinutes(minutes);
+                if (!fireAt.isAfter(now) && Duration.between(fireAt, now).compareTo(catchUpWindow) <= 0) {
+                    due = minutes;
+                }
+            }
+            if (due != null) {
+                String result = fire(location, today, deadline[0], deadline[1], due);
+                if (result != null) {
+                    fired.add(result);
+                }
+            }
+        }
+        return fired;
+    }
+
+    /**
+     * Starts any reminders that are due right now for the given city; used by
+     * /api/check-reminders. Returns once the milestones are claimed; delivery
+     * carries on in the background.
+     */
+    public String checkNow(String city, String country) {
+        PrayerTimetable timetable = prayerService.getTimetable(city, country);
+        if (timetable == null) {
+            return null;
+        }
+        ZoneId zone = timetable.zone();
+        List<String> fired = fireDue(new Location(city, country), timetable.timings(), zone, ZonedDateTime.now(zone));
+        if (timetable.stale() && !fired.isEmpty()) {
+            fired.add("(Today's timings are unavailable; used the last known ones.)");
+        }
+        return String.join(" ", fired);
+    }
+
+    /** Same as checkNow, for every bucket at once; timetables are resolved in parallel. One line per bucket with news. */
+    public String checkAll() {
+        List<CompletableFuture<String>> checks = new ArrayList<>();
+        for (Location location : currentLocations().values()) {
+            checks.add(CompletableFuture.supplyAsync(() -> {
+                String fired = checkNow(location.city(), location.country());
+                if (fired == null) {
+                    return location.city() + ": could not fetch prayer times.";
+                }
+                return fired.isEmpty() ? null : location.city() + ": " + fired;
+            }, workers));
+        }
+        List<String> lines = new ArrayList<>();
+        for (CompletableFuture<String> check : checks) {
+            String line = check.join();
+            if (line != null) {
+                lines.add(line);
+            }
+        }
+        return String.join("\n", lines);
+    }
+
+    // --- FIRING ---
+
+    // Claims the milestone, then hands the recipient walk to the fan-out thread
+    private String fire(Location location, LocalDate date, String event, String prayerToCheck, int minutes) {
+        if (!dbManager.claimReminderRun(location.key(), date, event, minutes, resumeAfterSeconds)) {
+            return null;
+        }
+        Run run = new Run(location, date, event, minutes);
+        runs.put(run.key(), run);
+        try {
+            workers.execute(() -> deliver(run, prayerToCheck));
+        } catch (RuntimeException e) {
+            // Shutting down; the run stays unfinished and is resumed later
+            runs.remove(run.key());
+            return null;
+        }
+        return "Sending " + minutes + "m warnings for " + prayerToCheck + " (due to " + event + ").";
+    }
+
+    // Recipients are streamed page by page straight into the send queue, so the
+    // first reminders leave while later pages are still being read. Each page is
+    // claimed in the ledger first and only the users it returns are messaged.
+    private void deliver(Run run, String prayerToCheck) {
+        Location location = run.location;
+        LocalDate date = run.date;
+        int minutes = run.minutes;
+        String msg = buildMessage(minutes, prayerToCheck, run.event);
+        int slot = DatabaseManager.reminderSlot(Prayer.fromName(prayerToCheck), minutes);
+        int[] queued = new int[1];
+        int[] skipped = new int[1];
+        boolean[] ledgerFailed = new boolean[1];
+        boolean includeUnset = defaultLocation != null && defaultLocation.key().equals(location.key());
+        int recipients = dbManager.forEachRecipientPage(location.key(), includeUnset, prayerToCheck, date, page -> {
+            if (ledgerFailed[0]) {
+                return;
+            }
+            List<Integer> userIds = new ArrayList<>(page.size());
+            for (Recipient recipient : page) {
+                userIds.add(recipient.userId());
+            }
+            Set<Integer> claimed = dbManager.claimReminders(date, slot, userIds, resumeAfterSeconds);
+            if (claimed == null) {
+                // Sending unclaimed could duplicate; leave the run unfinished so it is resumed instead
+                ledgerFailed[0] = true;
+                return;
+            }
+            skipped[0] += page.size() - claimed.size();
+            for (Recipient recipient : page) {
+                if (!claimed.contains(recipient.userId())) {
+                    continue;
+                }
+                int userId = recipient.userId();
+                run.pending.incrementAndGet();
+                boolean accepted = bot.sendMessage(recipient.chatId(), msg, ENQUEUE_WAIT_MILLIS, sent -> {
+                    outcomes.add(new Outcome(date, slot, userId, sent));
+                    run.pending.decrementAndGet();
+                });
+                if (accepted) {
+                    queued[0]++;
+                } else {
+                    outcomes.add(new Outcome(date, slot, userId, false));
+                    run.pending.decrementAndGet();
+                }
+            }
+        });
+        ledgerSkipped.addAndGet(skipped[0]);
+        String result;
+        if (recipients < 0 || ledgerFailed[0]) {
+            // No more heartbeats: another walk takes over once the run goes stale
+            runs.remove(run.key());
+            result = "Stopped after queueing " + queued[0] + " " + minutes + "m warnings for " + prayerToCheck + ": "
+                    + (ledgerFailed[0] ? "reminder ledger unavailable." : "recipient query failed.");
+        } else {
+            run.walked = true;
+            result = "Queued " + queued[0] + "/" + recipients + " " + minutes + "m warnings for " + prayerToCheck
+                    + " (due to " + run.event + ")" + (skipped[0] > 0 ? ", " + skipped[0] + " already had it." : ".");
+        }
+        System.out.println("Reminder scheduler: " + location.city() + ": " + result);
+    }
+
+    // Writes queued Telegram verdicts to the ledger, finishes runs that are fully
+    // delivered and heartbeats the rest so they aren't taken over
+    private synchronized void flushOutcomes() {
+        try {
+            // Runs are checked before draining, so the outcomes that made them finishable go out in this batch
+            List<Run> done = new ArrayList<>();
+            for (Run run : runs.values()) {
+                if (run.walked && run.pending.get() == 0) {
+                    done.add(run);
+                }
+            }
+            List<Outcome> batch = new ArrayList<>();
+            Outcome outcome;
+            while ((outcome = outcomes.poll()) != null) {
+                batch.add(outcome);
+            }
+            if (!batch.isEmpty() && !dbManager.recordReminderOutcomes(batch)) {
+                outcomes.addAll(batch);
+                done.clear();
+            }
+            for (Run run : done) {
+                dbManager.updateReminderRun(run.location.key(), run.date, run.event, run.minutes, true);
+                runs.remove(run.key());
+            }
+            for (Run run : runs.values()) {
+                dbManager.updateReminderRun(run.location.key(), run.date, run.event, run.minutes, false);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Reminder outcome flush failed: " + e.getMessage());
+        }
+    }
+
+    // --- METRICS ---
+
+    public long getLedgerSkipped() { return ledgerSkipped.get(); }
+    public int getPendingOutcomes() { return outcomes.size(); }
+    public int getActiveRuns() { return runs.size(); }
+
+    static String buildMessage(int minutes, String prayerToCheck, String timeLabel) {
+        if (minutes == 20) {
+            return "ℹ️ REMINDER: " + timeLabel + " is in exactly 20 mins.\n" +
+                   "Have you prayed " + prayerToCheck + " yet?";
+        }
+        else if (minutes == 10) {
+            return "⚠️ WARNING: Time for " + prayerToCheck + " is ending!\n" +
+                   timeLabel + " is in 10 minutes.";
+        }
+        return "🚨 URGENT: " + prayerToCheck + " will be missed in less than 5 minutes!\n" +
+               "Pray before " + timeLabel + "!";
+    }
+}
@@ -5,51 +5,449 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import org.json.JSONObject;
 
-public class TelegramBot {
+/**
+ * Sends Telegram messages through a bounded outbound queue.
+ *
+ * sendMessage() only enqueues. A single dispatcher thread takes messages off the
+ * queue, waits for a global token (Telegram allows ~30 msg/s per bot) and for the
+ * per-chat slot (~1 msg/s per chat), then hands the request to a small sender pool.
+ * 429 and 5xx responses are retried with backoff; chats that blocked the bot are
+ * dead-lettered and skipped for TELEGRAM_DEAD_LETTER_TTL_MINUTES (default 60), or
+ * until the chat is linked again. At most TELEGRAM_DEAD_LETTER_MAX chats (default
+ * 10,000) are remembered; the oldest go first.
+ */
+public final class TelegramBot {
+
+    private static final Metrics.Family<Metrics.Histogram> SEND_SECONDS = Metrics.histogram(
+            "telegram_send_duration_seconds", "Latency of sendMessage calls to the Telegram API, per attempt.", "outcome");
+    private static final Metrics.Histogram SEND_OK = SEND_SECONDS.labels("ok");
+    private static final Metrics.Histogram SEND_RATE_LIMITED = SEND_SECONDS.labels("rate_limited");
+    private static final Metrics.Histogram SEND_HTTP_ERROR = SEND_SECONDS.labels("http_error");
+    private static final Metrics.Histogram SEND_FAILED = SEND_SECONDS.labels("failed");
+    // From sendMessage() to Telegram accepting it, retries and rate-limit waits included
+    private static final Metrics.Histogram DELIVERY_SECONDS = Metrics.histogram(
+            "telegram_delivery_duration_seconds", "Time from enqueue to successful delivery.").labels();
 
-    
     private static final String BOT_TOKEN = System.getenv("TELEGRAM_BOT_TOKEN");
-    
-    private static final String TELEGRAM_API_URL = "https://api.telegram.org/bot" + BOT_TOKEN;
+
+    private final String apiUrl;
     private final HttpClient httpClient;
 
+    // --- DELIVERY PIPELINE ---
+    private final BlockingQueue<Delivery> outbound;
+    private final TokenBucket globalLimit;
+    private final long perChatIntervalNanos;
+    private final int maxAttempts;
+    private final Map<String, Long> nextSendPerChat = new ConcurrentHashMap<>();
+    // chat id -> System.nanoTime() when it may be tried again, oldest first; guarded by itself
+    private final LinkedHashMap<String, Long> deadLetteredChats;
+    private final long deadLetterTtlNanos;
+    // Deliveries waiting on retryScheduler to go back on the queue
+    private final Set<Delivery> parked = ConcurrentHashMap.newKeySet();
+    private final ExecutorService senders;
+    private final Semaphore senderSlots;
+    private final ScheduledExecutorService retryScheduler;
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+
+    // --- COUNTERS ---
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong retriedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong deadLetteredCount = new AtomicLong();
+
     public TelegramBot() {
+        this("https://api.telegram.org/bot" + BOT_TOKEN,
+                TimeUnit.MINUTES.toMillis(envInt("TELEGRAM_DEAD_LETTER_TTL_MINUTES", 60)),
+                envInt("TELEGRAM_DEAD_LETTER_MAX", 10_000));
         // Safety check: specific error if token is missing
         if (BOT_TOKEN == null || BOT_TOKEN.isEmpty()) {
             System.err.println("❌ FATAL ERROR: TELEGRAM_BOT_TOKEN is missing from Environment Variables!");
         }
+    }
+
+    // apiUrl is the base up to and including the bot token; tests point it at a local server
+    TelegramBot(String apiUrl, long deadLetterTtlMillis, int maxDeadLettered) {
+        this.apiUrl = apiUrl;
+        this.deadLetterTtlNanos = TimeUnit.MILLISECONDS.toNanos(deadLetterTtlMillis);
+        this.deadLetteredChats = boundedMap(Math.max(1, maxDeadLettered));
 
         this.httpClient = HttpClient.newBuilder()
                 .connectTimeout(Duration.ofSeconds(10))
                 .build();
+
+        int senderThreads = envInt("TELEGRAM_SENDER_THREADS", 4);
+        this.outbound = new ArrayBlockingQueue<>(envInt("TELEGRAM_QUEUE_CAPACITY", 10_000));
+        this.globalLimit = new TokenBucket(envInt("TELEGRAM_GLOBAL_BURST", 30), envInt("TELEGRAM_GLOBAL_PER_SECOND", 25));
+        this.perChatIntervalNanos = TimeUnit.MILLISECONDS.toNanos(envInt("TELEGRAM_PER_CHAT_INTERVAL_MS", 1_000));
+        this.maxAttempts = envInt("TELEGRAM_MAX_ATTEMPTS", 5);
+        this.senders = Executors.newFixedThreadPool(senderThreads, daemon("telegram-sender"));
+        this.senderSlots = new Semaphore(senderThreads);
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(daemon("telegram-retry"));
+        this.retryScheduler.scheduleWithFixedDelay(this::forgetIdleChats, 1, 1, TimeUnit.MINUTES);
+
+        this.dispatcher = daemon("telegram-dispatcher").newThread(this::dispatchLoop);
+        this.dispatcher.start();
+    }
+
+    private static int envInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    // Insertion-ordered map that drops its oldest entry past maxSize
+    private static <K, V> LinkedHashMap<K, V> boundedMap(int maxSize) {
+        return new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Queues a message for delivery. Returns false if it was not accepted:
+     * empty chat id, a dead-lettered chat, or a full queue (backpressure).
+     */
+    public boolean sendMessage(String chatId, String text) {
+        return sendMessage(chatId, text, 0);
+    }
+
+    /**
+     * Like {@link #sendMessage(String, String)}, but waits up to {@code maxWaitMillis}
+     * for queue space instead of dropping straight away. Bulk senders use this so
+     * they are paced by the delivery rate rather than overrunning the queue.
+     */
+    public boolean sendMessage(String chatId, String text, long maxWaitMillis) {
+        return sendMessage(chatId, text, maxWaitMillis, null);
     }
 
-    public void sendMessage(String chatId, String text) {
+    /**
+     * Like {@link #sendMessage(String, String, long)}; if the message is accepted,
+     * {@code onOutcome} is later called exactly once on a sender thread with true
+     * once Telegram has it, or false once it has been given up on. It is not
+     * called when this returns false.
+     */
+    public boolean sendMessage(String chatId, String text, long maxWaitMillis, Consumer<Boolean> onOutcome) {
         if (chatId == null || chatId.isEmpty()) {
             System.out.println("Cannot send Telegram message: Chat ID is empty.");
-            return;
+            return false;
+        }
+        if (isDeadLettered(chatId)) {
+            return false;
+        }
+        Delivery delivery = new Delivery(chatId, text, System.currentTimeMillis(), onOutcome);
+        boolean accepted;
+        try {
+            accepted = maxWaitMillis > 0
+                    ? outbound.offer(delivery, maxWaitMillis, TimeUnit.MILLISECONDS)
+                    : outbound.offer(delivery);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            accepted = false;
+        }
+        if (!accepted) {
+            droppedCount.incrementAndGet();
+            System.err.println("Telegram queue is full, dropping message for chat " + chatId);
+            return false;
+        }
+        queuedCount.incrementAndGet();
+        return true;
+    }
+
+    public void shutdown() {
+        running = false;
+        dispatcher.interrupt();
+        retryScheduler.shutdownNow();
+        senders.shutdown();
+        try {
+            senders.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            dispatcher.join(1_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        // Whatever is still queued or waiting for a retry won't go out from this process
+        List<Delivery> unsent = new ArrayList<>(parked);
+        parked.clear();
+        outbound.drainTo(unsent);
+        for (Delivery delivery : unsent) {
+            droppedCount.incrementAndGet();
+            report(delivery, false);
+        }
+    }
+
+    // --- DISPATCHER ---
+
+    private void dispatchLoop() {
+        while (running) {
+            Delivery delivery = null;
+            try {
+                delivery = outbound.take();
+
+                // Per-chat limit: if this chat was messaged too recently, park it and move on
+                long now = System.nanoTime();
+                Long chatReadyAt = nextSendPerChat.get(delivery.chatId);
+                if (chatReadyAt != null && chatReadyAt > now) {
+                    requeueAfter(delivery, chatReadyAt - now);
+                    continue;
+                }
+
+                long wait;
+                while ((wait = globalLimit.tryAcquire()) > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                nextSendPerChat.put(delivery.chatId, System.nanoTime() + perChatIntervalNanos);
+
+                senderSlots.acquire();
+                Delivery taken = delivery;
+                try {
+                    senders.execute(() -> {
+                        try {
+                            deliver(taken);
+                        } finally {
+                            senderSlots.release();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    senderSlots.release();
+                    throw e;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // Shutting down: put it back so shutdown() reports it with the rest of the queue
+                if (delivery != null && !outbound.offer(delivery)) {
+                    droppedCount.incrementAndGet();
+                    report(delivery, false);
+                }
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("Telegram dispatcher error: " + e.getMessage());
+            }
+        }
+    }
 
+    private void deliver(Delivery delivery) {
+        delivery.attempts++;
+        long started = System.nanoTime();
         try {
-            
-            String safeText = text.replace("\"", "\\\"").replace("\n", "\\n");
-            String jsonPayload = String.format("{\"chat_id\":\"%s\",\"text\":\"%s\"}", chatId, safeText);
+            String jsonPayload = new JSONObject()
+                    .put("chat_id", delivery.chatId)
+                    .put("text", delivery.text)
+                    .toString();
 
             HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(TELEGRAM_API_URL + "/sendMessage"))
+                    .uri(URI.create(apiUrl + "/sendMessage"))
                     .header("Content-Type", "application/json")
+                    .timeout(Duration.ofSeconds(15))
                     .POST(HttpRequest.BodyPublishers.ofString(jsonPayload))
                     .build();
 
-            httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
-                    .thenApply(HttpResponse::body)
-                    .thenAccept(response -> {
-                        // System.out.println("Telegram Response: " + response); 
-                    });
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            int status = response.statusCode();
+
+            (status == 200 ? SEND_OK : status == 429 ? SEND_RATE_LIMITED : SEND_HTTP_ERROR).observeSince(started);
+
+            if (status == 200) {
+                sentCount.incrementAndGet();
+                forgetDeadLetter(delivery.chatId);
+                long latency = System.currentTimeMillis() - delivery.enqueuedAtMillis;
+                DELIVERY_SECONDS.observeNanos(TimeUnit.MILLISECONDS.toNanos(latency));
+                report(delivery, true);
+            } else if (status == 429) {
+                long retryAfterSeconds = parseRetryAfter(response.body());
+                long pauseNanos = TimeUnit.SECONDS.toNanos(retryAfterSeconds);
+                globalLimit.pauseFor(pauseNanos);
+                nextSendPerChat.put(delivery.chatId, System.nanoTime() + pauseNanos);
+                retryOrFail(delivery, pauseNanos, "rate limited");
+            } else if (status >= 500) {
+                retryOrFail(delivery, backoffNanos(delivery.attempts), "HTTP " + status);
+            } else if (status == 403 || (status == 400 && response.body().contains("chat not found"))) {
+                // Bot blocked or chat gone: further messages would fail the same way
+                synchronized (deadLetteredChats) {
+                    // Re-inserted so a chat that fails again becomes the newest entry
+                    deadLetteredChats.remove(delivery.chatId);
+                    deadLetteredChats.put(delivery.chatId, System.nanoTime() + deadLetterTtlNanos);
+                }
+                deadLetteredCount.incrementAndGet();
+                failedCount.incrementAndGet();
+                report(delivery, false);
+                System.err.println("Telegram chat " + delivery.chatId + " dead-lettered: HTTP " + status);
+            } else {
+                failedCount.incrementAndGet();
+                report(delivery, false);
+                System.err.println("Failed to send Telegram message: HTTP " + status + " " + response.body());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failedCount.incrementAndGet();
+            report(delivery, false);
+        } catch (Exception e) {
+            SEND_FAILED.observeSince(started);
+            retryOrFail(delivery, backoffNanos(delivery.attempts), e.getMessage());
+        }
+    }
+
+    private void retryOrFail(Delivery delivery, long delayNanos, String reason) {
+        if (delivery.attempts >= maxAttempts) {
+            failedCount.incrementAndGet();
+            report(delivery, false);
+            System.err.println("Failed to send Telegram message after " + delivery.attempts + " attempts: " + reason);
+            return;
+        }
+        retriedCount.incrementAndGet();
+        requeueAfter(delivery, delayNanos);
+    }
+
+    private void requeueAfter(Delivery delivery, long delayNanos) {
+        parked.add(delivery);
+        try {
+            retryScheduler.schedule(() -> {
+                if (!parked.remove(delivery)) {
+                    return;
+                }
+                if (!outbound.offer(delivery)) {
+                    droppedCount.incrementAndGet();
+                    report(delivery, false);
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RuntimeException e) {
+            // Scheduler already shut down
+            if (parked.remove(delivery)) {
+                droppedCount.incrementAndGet();
+                report(delivery, false);
+            }
+        }
+    }
+
+    private static void report(Delivery delivery, boolean delivered) {
+        if (delivery.onOutcome == null) {
+            return;
+        }
+        try {
+            delivery.onOutcome.accept(delivered);
+        } catch (RuntimeException e) {
+            System.err.println("Telegram outcome callback failed: " + e.getMessage());
+        }
+    }
+
+    // Exponential backoff with full jitter: 1s, 2s, 4s ... capped at 60s
+    private static long backoffNanos(int attempts) {
+        long capMillis = Math.min(60_000L, 1_000L << Math.min(attempts - 1, 16));
+        return TimeUnit.MILLISECONDS.toNanos(ThreadLocalRandom.current().nextLong(capMillis / 2, capMillis + 1));
+    }
 
+    private static long parseRetryAfter(String body) {
+        try {
+            JSONObject parameters = new JSONObject(body).optJSONObject("parameters");
+            if (parameters != null) {
+                return Math.max(1, parameters.optLong("retry_after", 1));
+            }
         } catch (Exception e) {
-            System.err.println("Failed to send Telegram message: " + e.getMessage());
+            // Fall through to the default
+        }
+        return 1;
+    }
+
+    private void forgetIdleChats() {
+        long now = System.nanoTime();
+        nextSendPerChat.values().removeIf(readyAt -> readyAt < now);
+        synchronized (deadLetteredChats) {
+            deadLetteredChats.values().removeIf(retryAt -> retryAt - now <= 0);
+        }
+    }
+
+    // --- DEAD LETTERS ---
+
+    private boolean isDeadLettered(String chatId) {
+        synchronized (deadLetteredChats) {
+            Long retryAt = deadLetteredChats.get(chatId);
+            if (retryAt == null) {
+                return false;
+            }
+            if (retryAt - System.nanoTime() <= 0) {
+                deadLetteredChats.remove(chatId);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /** Lets messages to {@code chatId} through again, e.g. after the user links the chat anew. */
+    public void forgetDeadLetter(String chatId) {
+        synchronized (deadLetteredChats) {
+            deadLetteredChats.remove(chatId);
+        }
+    }
+
+    // --- STATS ---
+
+    public long getQueuedCount() { return queuedCount.get(); }
+    public long getSentCount() { return sentCount.get(); }
+    public long getFailedCount() { return failedCount.get(); }
+    public long getRetriedCount() { return retriedCount.get(); }
+    public long getDroppedCount() { return droppedCount.get(); }
+    public long getDeadLetteredCount() { return deadLetteredCount.get(); }
+    public int getQueueDepth() { return outbound.size(); }
+
+    public int getDeadLetteredChatCount() {
+        synchronized (deadLetteredChats) {
+            return deadLetteredChats.size();
+        }
+    }
+
+    private static final class Delivery {
+        final String chatId;
+        final String text;
+        final long enqueuedAtMillis;
+        final Consumer<Boolean> onOutcome;
+        int attempts;
+
+        Delivery(String chatId, String text, long enqueuedAtMillis, Consumer<Boolean> onOutcome) {
+            this.chatId = chatId;
+            this.text = text;
+            this.enqueuedAtMillis = enqueuedAtMillis;
+            this.onOutcome = onOutcome;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,46 @@
+package com.muayad.salaahtracker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classic token bucket: holds up to {@code capacity} tokens and refills at
+ * {@code tokensPerSecond}. Callers ask how long they must wait for a token
+ * instead of blocking inside the bucket.
+ */
+public class TokenBucket {
+
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long lastRefillNanos;
+    private long pausedUntilNanos;
+
+    public TokenBucket(double capacity, double tokensPerSecond) {
+        this.capacity = capacity;
+        this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /** Takes a token and returns 0, or returns how many nanos to wait before trying again. */
+    public synchronized long tryAcquire() {
+        long now = System.nanoTime();
+        if (now < pausedUntilNanos) {
+            return pausedUntilNanos - now;
+        }
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+        lastRefillNanos = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    /** Stops handing out tokens for the given time (e.g. after an upstream rate-limit response). */
+    public synchronized void pauseFor(long nanos) {
+        pausedUntilNanos = Math.max(pausedUntilNanos, System.nanoTime() + nanos);
+        lastRefillNanos = pausedUntilNanos;
+        tokens = 0;
+    }
+}
@@ -5,6 +5,10 @@ public class User {
     private String username;
     private String password;
     private String telegramChatId; 
+    // Reminder location; null until the user sets one
+    private String city;
+    private String country;
+    private String timezone;
 
     public User() {}
 
@@ -19,9 +23,15 @@ public class User {
     public String getUsername() { return username; }
     public String getPassword() { return password; }
     public String getTelegramChatId() { return telegramChatId; } 
+    public String getCity() { return city; }
+    public String getCountry() { return country; }
+    public String getTimezone() { return timezone; }
 
     public void setId(int id) { this.id = id; }
     public void setUsername(String username) { this.username = username; }
     public void setPassword(String password) { this.password = password; }
     public void setTelegramChatId(String telegramChatId) { this.telegramChatId = telegramChatId; } 
+    public void setCity(String city) { this.city = city; }
+    public void setCountry(String country) { this.country = country; }
+    public void setTimezone(String timezone) { this.timezone = timezone; }
 }
\ No newline at end of file
@@ -0,0 +1,69 @@
+package com.muayad.salaahtracker;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A version number per user that changes whenever their prayer data does.
+ * Used for ETags and to validate cached per-user results.
+ *
+ * Numbers come from one counter seeded from the clock, so they are never
+ * reused, not even across users or after a restart. A user not seen yet (or
+ * evicted) simply gets a fresh number. Versions also expire after ttlSeconds
+ * because a write on another instance can't bump them here; at worst a
+ * client refetches once per TTL.
+ */
+public class UserDataVersions {
+
+    private record Entry(long version, long assignedNanos) {}
+
+    private final AtomicLong counter = new AtomicLong(System.currentTimeMillis() * 1000);
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Map<Integer, Entry> entries;
+
+    public UserDataVersions(int maxEntries, long ttlSeconds) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                return size() > UserDataVersions.this.maxEntries;
+            }
+        };
+    }
+
+    /** The user's current version. Read it before reading the data it describes. */
+    public long current(int userId) {
+        long now = System.nanoTime();
+        synchronized (entries) {
+            Entry entry = entries.get(userId);
+            if (entry != null && now - entry.assignedNanos() < ttlNanos) {
+                return entry.version();
+            }
+            long version = counter.incrementAndGet();
+            entries.put(userId, new Entry(version, now));
+            return version;
+        }
+    }
+
+    // Called after any of the user's statuses change
+    public void bump(int userId) {
+        synchronized (entries) {
+            entries.put(userId, new Entry(counter.incrementAndGet(), System.nanoTime()));
+        }
+    }
+
+    /** A weak ETag for the user's current data; {@code variant} separates representations of one URL (e.g. today's date). */
+    public String etag(int userId, String variant) {
+        return "W/\"" + Long.toString(current(userId), 36) + (variant.isEmpty() ? "" : "-" + variant) + "\"";
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
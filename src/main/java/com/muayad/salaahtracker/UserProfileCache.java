@@ -0,0 +1,64 @@
+package com.muayad.salaahtracker;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small bounded LRU of user profiles (id, username, telegram chat id) so hot
+ * endpoints don't hit the users table on every request. Entries expire after a
+ * short TTL because another instance may have changed the row; changes made on
+ * this instance call invalidate() straight away.
+ */
+public class UserProfileCache {
+
+    private record Entry(User profile, long loadedNanos) {}
+
+    private final DatabaseManager dbManager;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Map<Integer, Entry> entries;
+
+    public UserProfileCache(DatabaseManager dbManager, int maxEntries, long ttlSeconds) {
+        this.dbManager = dbManager;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                return size() > UserProfileCache.this.maxEntries;
+            }
+        };
+    }
+
+    /** The user's profile (password hash never included), or null if the user doesn't exist. */
+    public User get(int userId) {
+        long now = System.nanoTime();
+        synchronized (entries) {
+            Entry entry = entries.get(userId);
+            if (entry != null && now - entry.loadedNanos() < ttlNanos) {
+                return entry.profile();
+            }
+        }
+        // Loaded outside the lock; two concurrent misses for one user just both read the row
+        User profile = dbManager.findUserById(userId);
+        if (profile != null) {
+            synchronized (entries) {
+                entries.put(userId, new Entry(profile, now));
+            }
+        }
+        return profile;
+    }
+
+    public void invalidate(int userId) {
+        synchronized (entries) {
+            entries.remove(userId);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
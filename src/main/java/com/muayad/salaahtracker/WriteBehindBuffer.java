@@ -0,0 +1,310 @@
+package com.muayad.salaahtracker;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Optional write-behind layer for checkbox toggles (WRITE_BEHIND_ENABLED=true).
+ *
+ * Toggles are kept in memory per (user, day, prayer), so tapping a box on and
+ * off five times ends up as one row write. Pending changes are flushed in one
+ * transaction every WRITE_BEHIND_INTERVAL_MS (default 2000), or sooner once
+ * WRITE_BEHIND_MAX_PENDING (default 500) keys are waiting, and on shutdown.
+ * The prayer-list reads here overlay the buffered state on what's in the
+ * database, so the UI sees its own toggles straight away. Other readers of
+ * the database (stats, reminders) should call flush() first if they need
+ * the latest state.
+ *
+ * When disabled every call goes straight to DatabaseManager.
+ */
+public class WriteBehindBuffer {
+
+    private record Key(int userId, long day, Prayer prayer) {}
+
+    private final DatabaseManager dbManager;
+    private final boolean enabled;
+    private final long intervalMillis;
+    private final int maxPending;
+    private final ScheduledExecutorService flusher;
+
+    // Both maps are guarded by lock; flushing holds the batch currently being written
+    private final Object lock = new Object();
+    private Map<Key, Boolean> pending = new HashMap<>();
+    private Map<Key, Boolean> flushing = Map.of();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    // Set under lock by shutdown(); from then on toggles bypass the buffer
+    private boolean closed;
+    // At most one early flush waits on the flusher, however many toggles cross the threshold
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+
+    // --- COUNTERS ---
+    private final AtomicLong bufferedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong flushedRows = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+
+    public WriteBehindBuffer(DatabaseManager dbManager, boolean enabled, long intervalMillis, int maxPending) {
+        this.dbManager = dbManager;
+        this.enabled = enabled;
+        this.intervalMillis = intervalMillis;
+        this.maxPending = Math.max(1, maxPending);
+        if (enabled) {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "write-behind-flusher");
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.flusher = null;
+        }
+    }
+
+    // Starts the periodic flush; early flushes at maxPending work without it
+    public void start() {
+        if (enabled) {
+            flusher.scheduleWithFixedDelay(this::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static WriteBehindBuffer fromEnvironment(DatabaseManager dbManager) {
+        boolean enabled = Boolean.parseBoolean(System.getenv("WRITE_BEHIND_ENABLED"));
+        long interval = envInt("WRITE_BEHIND_INTERVAL_MS", 2_000);
+        int maxPending = envInt("WRITE_BEHIND_MAX_PENDING", 500);
+        if (enabled) {
+            System.out.println("Write-behind enabled: flushing every " + interval + "ms or at " + maxPending + " pending changes");
+        }
+        return new WriteBehindBuffer(dbManager, enabled, Math.max(50, interval), maxPending);
+    }
+
+    private static int envInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    // --- WRITES ---
+
+    public boolean setPrayerStatus(int userId, LocalDate date, Prayer prayer, boolean isCompleted) {
+        if (!enabled) {
+            return dbManager.setPrayerStatus(userId, date, prayer, isCompleted);
+        }
+        Key key = new Key(userId, date.toEpochDay(), prayer);
+        int size;
+        synchronized (lock) {
+            if (!closed) {
+                if (pending.put(key, isCompleted) != null) {
+                    coalescedCount.incrementAndGet();
+                }
+                size = pending.size();
+            } else {
+                size = -1;
+            }
+        }
+        if (size < 0) {
+            return writeThrough(key, date, prayer, isCompleted);
+        }
+        bufferedCount.incrementAndGet();
+        if (size >= maxPending && flushQueued.compareAndSet(false, true)) {
+            flusher.execute(() -> {
+                flushQueued.set(false);
+                flush();
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Writes everything buffered so far. Changes from a failed flush go back
+     * into the buffer unless a newer toggle for the same prayer arrived meanwhile.
+     */
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            Map<Key, Boolean> batch;
+            synchronized (lock) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                flushing = batch;
+                pending = new HashMap<>();
+            }
+
+            Map<Integer, List<PrayerChange>> byUser = new HashMap<>();
+            for (Map.Entry<Key, Boolean> entry : batch.entrySet()) {
+                Key key = entry.getKey();
+                byUser.computeIfAbsent(key.userId(), id -> new ArrayList<>())
+                      .add(new PrayerChange(LocalDate.ofEpochDay(key.day()), key.prayer(), entry.getValue()));
+            }
+            boolean saved;
+            try {
+                saved = dbManager.setPrayerStatuses(byUser);
+            } catch (RuntimeException e) {
+                System.err.println("Write-behind flush failed: " + e.getMessage());
+                saved = false;
+            }
+
+            synchronized (lock) {
+                if (saved) {
+                    flushedRows.addAndGet(batch.size());
+                    flushCount.incrementAndGet();
+                } else {
+                    failedFlushes.incrementAndGet();
+                    for (Map.Entry<Key, Boolean> entry : batch.entrySet()) {
+                        pending.putIfAbsent(entry.getKey(), entry.getValue());
+                    }
+                }
+                flushing = Map.of();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // After shutdown: waits out the final flush so an older buffered value can't land on top of this one
+    private boolean writeThrough(Key key, LocalDate date, Prayer prayer, boolean isCompleted) {
+        flushLock.lock();
+        try {
+            synchronized (lock) {
+                pending.remove(key);
+            }
+            return dbManager.setPrayerStatus(key.userId(), date, prayer, isCompleted);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Stops buffering and writes whatever is still buffered; toggles arriving
+     * after this go straight to the database. Stop serving requests first.
+     */
+    public void shutdown() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (lock) {
+            closed = true;
+        }
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        synchronized (lock) {
+            if (!pending.isEmpty()) {
+                System.err.println("Write-behind: " + pending.size() + " prayer changes could not be saved on shutdown");
+            }
+        }
+    }
+
+    // --- READS (database state + buffered toggles) ---
+
+    public List<PrayerLog> getPrayersForToday(int userId, LocalDate date) {
+        return overlay(userId, date, date, () -> dbManager.getPrayersForToday(userId, date));
+    }
+
+    public List<PrayerLog> getPrayersForMonth(int userId, int year, int month) {
+        YearMonth yearMonth = YearMonth.of(year, month);
+        return overlay(userId, yearMonth.atDay(1), yearMonth.atEndOfMonth(), () -> dbManager.getPrayersForMonth(userId, year, month));
+    }
+
+    public List<PrayerLog> getPrayersBetweenDates(int userId, LocalDate startDate, LocalDate endDate) {
+        return overlay(userId, startDate, endDate, () -> dbManager.getPrayersBetweenDates(userId, startDate, endDate));
+    }
+
+    // Lists are whole days of five prayers in day order; buffered days missing from them are added.
+    // The buffer is read before the database so a flush committing in between can't be missed.
+    private List<PrayerLog> overlay(int userId, LocalDate from, LocalDate to, Supplier<List<PrayerLog>> read) {
+        if (!enabled) {
+            return read.get();
+        }
+        Map<Key, Boolean> buffered = new HashMap<>();
+        long fromDay = from.toEpochDay();
+        long toDay = to.toEpochDay();
+        synchronized (lock) {
+            collect(flushing, buffered, userId, fromDay, toDay);
+            collect(pending, buffered, userId, fromDay, toDay);
+        }
+        List<PrayerLog> stored = read.get();
+        if (buffered.isEmpty()) {
+            return stored;
+        }
+
+        TreeMap<Long, PrayerLog[]> days = new TreeMap<>();
+        for (PrayerLog prayerLog : stored) {
+            Prayer prayer = Prayer.fromName(prayerLog.getPrayerName());
+            if (prayer != null) {
+                days.computeIfAbsent(prayerLog.getPrayerDate().toEpochDay(), d -> new PrayerLog[Prayer.count()])[prayer.ordinal()] = prayerLog;
+            }
+        }
+        for (Map.Entry<Key, Boolean> entry : buffered.entrySet()) {
+            Key key = entry.getKey();
+            PrayerLog[] day = days.computeIfAbsent(key.day(), d -> new PrayerLog[Prayer.count()]);
+            PrayerLog prayerLog = day[key.prayer().ordinal()];
+            if (prayerLog == null) {
+                prayerLog = dbManager.blankPrayerLog(userId, LocalDate.ofEpochDay(key.day()), key.prayer());
+                day[key.prayer().ordinal()] = prayerLog;
+            }
+            prayerLog.setCompleted(entry.getValue());
+        }
+
+        List<PrayerLog> result = new ArrayList<>(days.size() * Prayer.count());
+        for (Map.Entry<Long, PrayerLog[]> day : days.entrySet()) {
+            PrayerLog[] byOrdinal = day.getValue();
+            for (int ordinal = 0; ordinal < byOrdinal.length; ordinal++) {
+                result.add(byOrdinal[ordinal] != null ? byOrdinal[ordinal]
+                        : dbManager.blankPrayerLog(userId, LocalDate.ofEpochDay(day.getKey()), Prayer.byOrdinal(ordinal)));
+            }
+        }
+        return result;
+    }
+
+    private static void collect(Map<Key, Boolean> source, Map<Key, Boolean> into, int userId, long fromDay, long toDay) {
+        for (Map.Entry<Key, Boolean> entry : source.entrySet()) {
+            Key key = entry.getKey();
+            if (key.userId() == userId && key.day() >= fromDay && key.day() <= toDay) {
+                into.put(key, entry.getValue());
+            }
+        }
+    }
+
+    // --- METRICS ---
+
+    public boolean isEnabled() { return enabled; }
+    public long getBufferedCount() { return bufferedCount.get(); }
+    public long getCoalescedCount() { return coalescedCount.get(); }
+    public long getFlushedRows() { return flushedRows.get(); }
+    public long getFlushCount() { return flushCount.get(); }
+    public long getFailedFlushes() { return failedFlushes.get(); }
+
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pending.size() + flushing.size();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.muayad.salaahtracker;
+
+import java.time.LocalDate;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-day completion counts for a whole year, packed for the heatmap:
+ * one nibble per day (0-5 prayers completed), two days per byte with the
+ * earlier day in the high nibble, base64 encoded. A leap year is 183 bytes,
+ * 244 characters.
+ *
+ * Built from daily_summary in one range scan and cached per user for as long
+ * as their UserDataVersions version doesn't change.
+ */
+public class YearSummaryCache {
+
+    private record Entry(String data, long version) {}
+
+    private final DatabaseManager dbManager;
+    private final WriteBehindBuffer prayerWrites;
+    private final UserDataVersions versions;
+    private final int maxUsers;
+    // userId -> year -> entry
+    private final Map<Integer, Map<Integer, Entry>> users;
+
+    public YearSummaryCache(DatabaseManager dbManager, WriteBehindBuffer prayerWrites, UserDataVersions versions, int maxUsers) {
+        this.dbManager = dbManager;
+        this.prayerWrites = prayerWrites;
+        this.versions = versions;
+        this.maxUsers = Math.max(1, maxUsers);
+        this.users = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Map<Integer, Entry>> eldest) {
+                return size() > YearSummaryCache.this.maxUsers;
+            }
+        };
+    }
+
+    /** The packed counts for every day of {@code year}, Jan 1 first. */
+    public String get(int userId, int year) {
+        // Read first: a change landing during the load gives a newer version, so the entry can't be reused
+        long version = versions.current(userId);
+        synchronized (users) {
+            Map<Integer, Entry> years = users.get(userId);
+            Entry entry = years != null ? years.get(year) : null;
+            if (entry != null && entry.version() == version) {
+                return entry.data();
+            }
+        }
+
+        // Buffered toggles have to be in daily_summary before it is scanned
+        prayerWrites.flush();
+        LocalDate from = LocalDate.of(year, 1, 1);
+        String data = encode(dbManager.getDailyMasks(userId, from, from.plusYears(1).minusDays(1)));
+
+        synchronized (users) {
+            users.computeIfAbsent(userId, id -> new HashMap<>()).put(year, new Entry(data, version));
+        }
+        return data;
+    }
+
+    public int size() {
+        synchronized (users) {
+            return users.size();
+        }
+    }
+
+    static String encode(int[] masks) {
+        byte[] packed = new byte[(masks.length + 1) / 2];
+        for (int day = 0; day < masks.length; day++) {
+            int count = Integer.bitCount(masks[day] & Prayer.ALL_COMPLETED_MASK);
+            packed[day / 2] |= (byte) (day % 2 == 0 ? count << 4 : count);
+        }
+        return Base64.getEncoder().encodeToString(packed);
+    }
+}
@@ -25,6 +25,9 @@ document.addEventListener("DOMContentLoaded", () => {
             step3: "3. Paste that number below:",
             connect_telegram: "Connect Telegram",
             send_test: "Send Test Message",
+            location_title: "Your Location",
+            location_help: "Reminders follow the prayer times of this city.",
+            save_location: "Save Location",
             loading: "Loading...",
             no_data: "No data found.",
             details: "Details",
@@ -54,6 +57,9 @@ document.addEventListener("DOMContentLoaded", () => {
             step3: "3. الصق الرقم هنا:",
             connect_telegram: "ربط تيليجرام",
             send_test: "إرسال رسالة تجريبية",
+            location_title: "موقعك",
+            location_help: "التنبيهات تتبع مواقيت الصلاة في هذه المدينة.",
+            save_location: "حفظ الموقع",
             loading: "جاري التحميل...",
             no_data: "لا توجد بيانات.",
             details: "التفاصيل",
@@ -103,9 +109,14 @@ document.addEventListener("DOMContentLoaded", () => {
     const telegramChatId = document.getElementById("telegram-chat-id");
     const telegramMessage = document.getElementById("telegram-message");
     const testTelegramBtn = document.getElementById("test-telegram-btn");
+    const locationForm = document.getElementById("location-form");
+    const locationCity = document.getElementById("location-city");
+    const locationCountry = document.getElementById("location-country");
+    const locationMessage = document.getElementById("location-message");
 
     let currentWeeklyStartDate = new Date();
     let currentMonthlyDate = new Date(); 
+    let liveUpdates = null;
 
     // --- 1. AUTO LOGIN CHECK ---
     function checkSession() {
@@ -121,6 +132,7 @@ document.addEventListener("DOMContentLoaded", () => {
                 const t = translations[currentLang];
                 welcomeMessage.textContent = `${t.welcome}, ${data.username}!`;
                 loadPrayers();
+                startLiveUpdates();
             }
         })
         .catch(() => {
@@ -182,13 +194,14 @@ document.addEventListener("DOMContentLoaded", () => {
             const checkbox = document.createElement("input");
             checkbox.type = "checkbox";
             checkbox.checked = prayer.completed;
-            checkbox.dataset.prayerId = prayer.id;
+            checkbox.dataset.prayerDate = prayer.prayerDate;
+            checkbox.dataset.prayerName = prayer.prayerName;
 
             checkbox.addEventListener('change', () => {
-                const prayerId = checkbox.dataset.prayerId;
+                const { prayerDate, prayerName } = checkbox.dataset;
                 const isChecked = checkbox.checked;
                 
-                fetch(`/api/prayers/${prayerId}?completed=${isChecked}`, { method: "PUT" })
+                fetch(`/api/prayers/date/${prayerDate}/${prayerName}?completed=${isChecked}`, { method: "PUT" })
                 .then(response => {
                     if (!response.ok) throw new Error("Update failed");
                     return response.json();
@@ -222,6 +235,31 @@ document.addEventListener("DOMContentLoaded", () => {
             });
     }
 
+    // --- LIVE UPDATES (changes made on other devices) ---
+    // EventSource reconnects by itself and sends Last-Event-ID, so missed changes are replayed
+    function startLiveUpdates() {
+        if (liveUpdates || !window.EventSource) return;
+        liveUpdates = new EventSource("/api/events");
+
+        liveUpdates.addEventListener("status", event => {
+            const change = JSON.parse(event.data);
+            document.querySelectorAll("input[type=checkbox][data-prayer-date]").forEach(checkbox => {
+                if (checkbox.dataset.prayerDate === change.date && checkbox.dataset.prayerName === change.prayer) {
+                    checkbox.checked = change.completed;
+                }
+            });
+            if (!summaryContainer.classList.contains('hidden')) updateMonthlyView();
+            if (!weeklyContainer.classList.contains('hidden')) updateWeeklyView();
+        });
+
+        // Too much changed, or the server no longer has what we missed: reload what's on screen
+        liveUpdates.addEventListener("resync", () => {
+            if (!appContainer.classList.contains('hidden')) loadPrayers();
+            if (!summaryContainer.classList.contains('hidden')) updateMonthlyView();
+            if (!weeklyContainer.classList.contains('hidden')) updateWeeklyView();
+        });
+    }
+
     function formatDateForApi(date) {
         const y = date.getFullYear();
         const m = String(date.getMonth() + 1).padStart(2, '0');
@@ -403,7 +441,7 @@ document.addEventListener("DOMContentLoaded", () => {
         selectedDateTitle.textContent = `${t.details}: ${dateKey}`;
         selectedDayPrayers.innerHTML = `<p>${t.loading}</p>`;
 
-        // Fetch missing days (creates them if needed)
+        // Days with no stored rows come back as 5 unchecked prayers
         fetch(`/api/prayers/date/${dateKey}`)
             .then(response => response.json())
             .then(prayers => {
@@ -441,8 +479,21 @@ document.addEventListener("DOMContentLoaded", () => {
         summaryContainer.classList.add("hidden");
         weeklyContainer.classList.add("hidden");
         settingsContainer.classList.remove("hidden");
+        loadSettings();
     });
 
+    function loadSettings() {
+        fetch("/api/settings")
+        .then(response => response.json())
+        .then(data => {
+            if (data.status !== "success") return;
+            locationCity.value = data.city || "";
+            locationCountry.value = data.country || "";
+            locationMessage.textContent = data.timezone ? data.timezone : "";
+        })
+        .catch(err => console.error(err));
+    }
+
     backToPrayersButton.addEventListener("click", () => {
         summaryContainer.classList.add("hidden");
         appContainer.classList.remove("hidden");
@@ -494,6 +545,7 @@ document.addEventListener("DOMContentLoaded", () => {
             const t = translations[currentLang];
             welcomeMessage.textContent = `${t.welcome}, ${data.username}!`;
             loadPrayers(); 
+            startLiveUpdates();
         })
         .catch(error => {
             loginMessage.textContent = error.message;
@@ -525,6 +577,7 @@ document.addEventListener("DOMContentLoaded", () => {
     });
 
     logoutButton.addEventListener("click", () => {
+        if (liveUpdates) liveUpdates.close();
         fetch("/api/logout", { method: "POST" })
         .then(() => window.location.reload())
         .catch(err => console.error(err));
@@ -549,6 +602,28 @@ document.addEventListener("DOMContentLoaded", () => {
         });
     });
 
+    locationForm.addEventListener("submit", (event) => {
+        event.preventDefault();
+        const formData = new URLSearchParams();
+        formData.append("city", locationCity.value);
+        formData.append("country", locationCountry.value);
+        locationMessage.textContent = "Saving...";
+
+        fetch("/api/settings/location", { method: "PUT", body: formData })
+        .then(response => response.json())
+        .then(data => {
+            if (data.status === "success") {
+                locationMessage.style.color = "green";
+                locationCity.value = data.city || "";
+                locationCountry.value = data.country || "";
+                locationMessage.textContent = data.timezone ? data.timezone : "";
+            } else {
+                locationMessage.style.color = "red";
+                locationMessage.textContent = data.message;
+            }
+        });
+    });
+
     testTelegramBtn.addEventListener("click", () => {
         telegramMessage.textContent = "Sending...";
         fetch("/api/telegram/test", { method: "POST" })
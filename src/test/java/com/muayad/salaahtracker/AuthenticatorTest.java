@@ -0,0 +1,127 @@
+package com.muayad.salaahtracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import io.javalin.http.Context;
+import io.javalin.http.Cookie;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.Test;
+
+public class AuthenticatorTest {
+
+    private static final String SECRET = "test-secret";
+    private static final String COOKIE = "salaah_token";
+    private static final long TTL = 3600;
+
+    private final Authenticator auth = new Authenticator(Authenticator.Mode.TOKEN, SECRET, TTL, false);
+
+    @Test
+    public void aLoginTokenIdentifiesTheUserOnTheNextRequest() {
+        Map<String, String> jar = new HashMap<>();
+        auth.login(request(jar), new User(42, "amina ☪", "hash", null));
+        assertNotNull(jar.get(COOKIE));
+
+        User user = auth.currentUser(request(new HashMap<>(jar)));
+        assertEquals(42, user.getId());
+        assertEquals("amina ☪", user.getUsername());
+        // Only identity travels in the token
+        assertNull(user.getPassword());
+    }
+
+    @Test
+    public void expiredTokensAreRejected() {
+        long now = System.currentTimeMillis() / 1000;
+        assertNull(auth.currentUser(request(token(SECRET, 42, "amina", now - 1))));
+        assertNull(auth.currentUser(request(token(SECRET, 42, "amina", now))));
+        assertNotNull(auth.currentUser(request(token(SECRET, 42, "amina", now + TTL))));
+    }
+
+    @Test
+    public void tokensPastHalfTheirLifetimeAreReissued() {
+        long now = System.currentTimeMillis() / 1000;
+        Map<String, String> fresh = token(SECRET, 42, "amina", now + TTL);
+        String freshToken = fresh.get(COOKIE);
+        auth.currentUser(request(fresh));
+        assertEquals(freshToken, fresh.get(COOKIE));
+
+        Map<String, String> old = token(SECRET, 42, "amina", now + TTL / 4);
+        String oldToken = old.get(COOKIE);
+        assertNotNull(auth.currentUser(request(old)));
+        assertNotEquals(oldToken, old.get(COOKIE));
+        assertEquals(42, auth.currentUser(request(old)).getId());
+    }
+
+    @Test
+    public void tamperedOrForeignTokensAreRejected() {
+        long expires = System.currentTimeMillis() / 1000 + TTL;
+        assertNull(auth.currentUser(request(token("other-secret", 42, "amina", expires))));
+
+        // Same signature, different user id
+        String token = token(SECRET, 42, "amina", expires).get(COOKIE);
+        assertNull(auth.currentUser(request(cookie(token.replaceFirst("^v1\\.42\\.", "v1.43.")))));
+
+        assertNull(auth.currentUser(request(cookie("v1.42.garbage"))));
+        assertNull(auth.currentUser(request(cookie("v2" + token.substring(2)))));
+        assertNull(auth.currentUser(request(cookie(token.substring(0, token.lastIndexOf('.') + 1) + "!!!"))));
+        assertNull(auth.currentUser(request(new HashMap<>())));
+    }
+
+    @Test
+    public void logoutClearsTheCookie() {
+        Map<String, String> jar = new HashMap<>();
+        auth.login(request(jar), new User(42, "amina", null, null));
+        auth.logout(request(jar));
+        assertNull(auth.currentUser(request(jar)));
+    }
+
+    // Builds a v1 token the way Authenticator does, so expiry and keys can be chosen freely
+    private static Map<String, String> token(String secret, int userId, String username, long expiresAt) {
+        String payload = "v1." + userId + "."
+                + Base64.getUrlEncoder().withoutPadding().encodeToString(username.getBytes(StandardCharsets.UTF_8))
+                + "." + expiresAt;
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            byte[] signature = mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+            return cookie(payload + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(signature));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Map<String, String> cookie(String value) {
+        Map<String, String> jar = new HashMap<>();
+        jar.put(COOKIE, value);
+        return jar;
+    }
+
+    // A Context that only knows about cookies: reads come from the jar and cookies set go back into it
+    private static Context request(Map<String, String> jar) {
+        return (Context) Proxy.newProxyInstance(Context.class.getClassLoader(), new Class<?>[] {Context.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("cookie") && args != null && args.length == 1) {
+                        if (args[0] instanceof String name) {
+                            return jar.get(name);
+                        }
+                        if (args[0] instanceof Cookie cookie) {
+                            if (cookie.getMaxAge() == 0) {
+                                jar.remove(cookie.getName());
+                            } else {
+                                jar.put(cookie.getName(), cookie.getValue());
+                            }
+                            return proxy;
+                        }
+                    }
+                    throw new UnsupportedOperationException(method.toString());
+                });
+    }
+}
@@ -0,0 +1,46 @@
+package com.muayad.salaahtracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void opensAfterTheThresholdAndClosesOnASuccessfulTrial() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(2, 1);
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+
+        Thread.sleep(1_050);
+        assertTrue(breaker.allowRequest());
+        assertFalse("only one trial at a time", breaker.allowRequest());
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1, breaker.getOpenedCount());
+    }
+
+    @Test
+    public void aReleasedTrialLetsTheNextCallerTryWithoutClosing() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1);
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        Thread.sleep(1_050);
+
+        assertTrue(breaker.allowRequest());
+        // e.g. the trial's thread was interrupted before upstream answered
+        breaker.release();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+}
@@ -0,0 +1,182 @@
+package com.muayad.salaahtracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionPoolTest {
+
+    private File dbFile;
+    private ConnectionPool pool;
+    private final ExecutorService threads = Executors.newCachedThreadPool();
+
+    @Before
+    public void setUp() throws Exception {
+        dbFile = File.createTempFile("connection-pool", ".db");
+    }
+
+    @After
+    public void tearDown() {
+        threads.shutdownNow();
+        if (pool != null) {
+            pool.close();
+        }
+        dbFile.delete();
+    }
+
+    private ConnectionPool open(int maxSize, long connectionTimeoutMillis, int maxConcurrency) {
+        pool = new ConnectionPool("jdbc:sqlite:" + dbFile.getAbsolutePath(), 1, maxSize, 8,
+                600_000, connectionTimeoutMillis, 5_000, maxConcurrency);
+        return pool;
+    }
+
+    // --- REUSE ---
+
+    @Test
+    public void closedConnectionsGoBackToThePool() throws Exception {
+        open(4, 1_000, 4);
+        for (int i = 0; i < 5; i++) {
+            try (Connection conn = pool.getConnection()) {
+                assertFalse(conn.isClosed());
+            }
+        }
+        assertEquals(1, pool.getTotalConnections());
+        assertEquals(1, pool.getIdleConnections());
+    }
+
+    @Test
+    public void anOpenTransactionIsRolledBackOnReturn() throws Exception {
+        open(1, 1_000, 1);
+        try (Connection conn = pool.getWriteConnection()) {
+            conn.createStatement().execute("CREATE TABLE t (x INTEGER)");
+        }
+        try (Connection conn = pool.getWriteConnection()) {
+            conn.setAutoCommit(false);
+            conn.createStatement().execute("INSERT INTO t VALUES (1)");
+        }
+        try (Connection conn = pool.getConnection()) {
+            assertTrue(conn.getAutoCommit());
+            ResultSet rs = conn.createStatement().executeQuery("SELECT COUNT(*) FROM t");
+            rs.next();
+            assertEquals(0, rs.getInt(1));
+        }
+    }
+
+    // --- WRITE SERIALIZATION ---
+
+    @Test
+    public void sqliteWritersWaitForTheWriterSlot() throws Exception {
+        open(4, 5_000, 4);
+        CountDownLatch secondWaiting = new CountDownLatch(1);
+        Future<Long> second;
+        try (Connection first = pool.getWriteConnection()) {
+            second = threads.submit(() -> {
+                secondWaiting.countDown();
+                long start = System.nanoTime();
+                try (Connection conn = pool.getWriteConnection()) {
+                    return System.nanoTime() - start;
+                }
+            });
+            assertTrue(secondWaiting.await(5, TimeUnit.SECONDS));
+            Thread.sleep(200);
+            assertFalse("second writer got in while the first held the slot", second.isDone());
+            // Readers are not serialized behind the writer
+            try (Connection reader = pool.getConnection()) {
+                assertFalse(reader.isClosed());
+            }
+        }
+        assertTrue(second.get(5, TimeUnit.SECONDS) >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    public void aWriterGivesUpAfterTheConnectionTimeout() throws Exception {
+        open(4, 150, 4);
+        try (Connection first = pool.getWriteConnection()) {
+            Future<?> second = threads.submit(() -> {
+                pool.getWriteConnection().close();
+                return null;
+            });
+            try {
+                second.get(5, TimeUnit.SECONDS);
+                fail("expected the second writer to time out");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof SQLException);
+            }
+        }
+        // The slot is free again once the holder closes
+        try (Connection conn = pool.getWriteConnection()) {
+            assertFalse(conn.isClosed());
+        }
+    }
+
+    // --- CONCURRENCY PERMITS ---
+
+    @Test
+    public void noMoreThanMaxConcurrencyConnectionsAreOut() throws Exception {
+        open(4, 150, 2);
+        assertEquals(2, pool.getMaxConcurrency());
+        try (Connection a = pool.getConnection(); Connection b = pool.getConnection()) {
+            assertEquals(2, pool.getInFlightOperations());
+            try {
+                pool.getConnection().close();
+                fail("expected the third borrower to time out");
+            } catch (SQLException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("max concurrency 2"));
+            }
+            // The pool itself had room; only the permit was missing
+            assertTrue(pool.getTotalConnections() <= 2);
+        }
+        assertEquals(0, pool.getInFlightOperations());
+    }
+
+    @Test
+    public void waitersGetAPermitWhenOneIsReturned() throws Exception {
+        open(4, 5_000, 1);
+        Future<?> waiter;
+        try (Connection held = pool.getConnection()) {
+            waiter = threads.submit(() -> {
+                pool.getConnection().close();
+                return null;
+            });
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (pool.getWaitingOperations() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, pool.getWaitingOperations());
+        }
+        waiter.get(5, TimeUnit.SECONDS);
+        assertEquals(0, pool.getInFlightOperations());
+    }
+
+    @Test
+    public void maxConcurrencyIsCappedAtThePoolSize() {
+        assertEquals(3, open(3, 1_000, 50).getMaxConcurrency());
+    }
+
+    @Test
+    public void aFailedWriteBorrowReleasesItsPermit() throws Exception {
+        open(1, 150, 1);
+        pool.close();
+        try {
+            pool.getWriteConnection();
+            fail("expected a closed pool to refuse");
+        } catch (SQLException e) {
+            assertEquals(0, pool.getInFlightOperations());
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.muayad.salaahtracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+
+public class DatabaseManagerTest {
+
+    private File dbFile;
+    private DatabaseManager db;
+    private int userId;
+
+    private void open(DatabaseManager.PrayerStorage storage) throws Exception {
+        dbFile = File.createTempFile("database-manager", ".db");
+        db = new DatabaseManager("jdbc:sqlite:" + dbFile.getAbsolutePath(), storage);
+        db.initializeDatabase();
+        db.registerUser("amina", "hash");
+        userId = db.searchUser("amina").getId();
+    }
+
+    // Same file, new DatabaseManager: runs initializeDatabase (and any storage switch) again
+    private void reopen(DatabaseManager.PrayerStorage storage) {
+        db.close();
+        db = new DatabaseManager("jdbc:sqlite:" + dbFile.getAbsolutePath(), storage);
+        db.initializeDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        if (db != null) {
+            db.close();
+            db = null;
+            dbFile.delete();
+        }
+    }
+
+    // --- EPOCH-DAY DATES ---
+
+    @Test
+    public void prayerDatesRoundTripThroughEpochDays() throws Exception {
+        open(DatabaseManager.PrayerStorage.ROWS);
+        LocalDate[] dates = {
+            LocalDate.of(1969, 12, 31), LocalDate.of(1970, 1, 1), LocalDate.of(2024, 2, 29),
+            LocalDate.of(2024, 12, 31), LocalDate.of(2025, 1, 1)
+        };
+        for (LocalDate date : dates) {
+            assertTrue(db.setPrayerStatus(userId, date, Prayer.MAGHRIB, true));
+        }
+
+        for (LocalDate date : dates) {
+            List<PrayerLog> day = db.getPrayersForToday(userId, date);
+            assertEquals(Prayer.count(), day.size());
+            for (PrayerLog prayerLog : day) {
+                assertEquals(date, prayerLog.getPrayerDate());
+                assertEquals(prayerLog.getPrayerName().equals("Maghrib"), prayerLog.isCompleted());
+            }
+        }
+        // The neighbours of each stored day stay empty, so no date is off by one
+        for (PrayerLog prayerLog : db.getPrayersForToday(userId, LocalDate.of(2024, 2, 28))) {
+            assertFalse(prayerLog.isCompleted());
+        }
+        assertEquals(dates.length, db.getPrayersBetweenDates(userId, dates[0], dates[dates.length - 1]).stream()
+                .filter(PrayerLog::isCompleted).count());
+    }
+
+    @Test
+    public void prayerDayColumnHoldsTheEpochDay() throws Exception {
+        open(DatabaseManager.PrayerStorage.ROWS);
+        LocalDate date = LocalDate.of(2024, 3, 5);
+        db.setPrayerStatus(userId, date, Prayer.FAJR, true);
+
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getAbsolutePath());
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT prayer_day FROM prayer_log")) {
+            assertTrue(rs.next());
+            assertEquals(date.toEpochDay(), rs.getLong(1));
+        }
+    }
+
+    @Test
+    public void reopeningAMigratedDatabaseKeepsItsPrayers() throws Exception {
+        open(DatabaseManager.PrayerStorage.ROWS);
+        LocalDate date = LocalDate.of(2024, 3, 5);
+        db.setPrayerStatus(userId, date, Prayer.ISHA, true);
+        reopen(DatabaseManager.PrayerStorage.ROWS);
+        assertTrue(db.getPrayersForToday(userId, date).get(Prayer.ISHA.ordinal()).isCompleted());
+    }
+
+    // --- MASK PRAYER IDS ---
+
+    @Test
+    public void maskIdsRoundTripOnBothSidesOfTheEpoch() {
+        for (long day : new long[] {-40_000, -1, 0, 1, LocalDate.of(2024, 2, 29).toEpochDay(), 2_000_000}) {
+            for (Prayer prayer : Prayer.values()) {
+                int id = DatabaseManager.maskPrayerId(day, prayer);
+                assertEquals(day, DatabaseManager.maskPrayerDay(id));
+                assertEquals(prayer.ordinal(), id & 7);
+            }
+        }
+    }
+
+    @Test
+    public void maskIdsUpdateTheirOwnDay() throws Exception {
+        open(DatabaseManager.PrayerStorage.MASK);
+        for (LocalDate date : new LocalDate[] {LocalDate.of(2000, 1, 1), LocalDate.of(2024, 2, 29), LocalDate.now()}) {
+            for (PrayerLog prayerLog : db.getPrayersForToday(userId, date)) {
+                boolean fajr = prayerLog.getPrayerName().equals("Fajr");
+                PrayerChange change = db.updatePrayerStatus(prayerLog.getId(), userId, fajr);
+                assertEquals(date, change.date());
+                assertEquals(prayerLog.getPrayerName(), change.prayer().getDisplayName());
+            }
+            for (PrayerLog prayerLog : db.getPrayersForToday(userId, date)) {
+                assertEquals(date, prayerLog.getPrayerDate());
+                assertEquals(prayerLog.getPrayerName().equals("Fajr"), prayerLog.isCompleted());
+            }
+        }
+    }
+
+    @Test
+    public void maskIdsOutsideTheTrackingWindowAreRejected() throws Exception {
+        open(DatabaseManager.PrayerStorage.MASK);
+        int id = DatabaseManager.maskPrayerId(LocalDate.of(2024, 3, 5).toEpochDay(), Prayer.ISHA) + 1;
+        assertNull("unused ordinal", db.updatePrayerStatus(id, userId, true));
+        assertNull(db.updatePrayerStatus(DatabaseManager.maskPrayerId(LocalDate.of(1999, 12, 31).toEpochDay(), Prayer.FAJR), userId, true));
+        assertNull(db.updatePrayerStatus(DatabaseManager.maskPrayerId(LocalDate.now().plusYears(2).toEpochDay(), Prayer.FAJR), userId, true));
+        assertNull(db.updatePrayerStatus(-1, userId, true));
+    }
+
+    @Test
+    public void staleRowsIdsAreRejectedAfterSwitchingToMask() throws Exception {
+        open(DatabaseManager.PrayerStorage.ROWS);
+        LocalDate date = LocalDate.of(2024, 3, 5);
+        db.setPrayerStatus(userId, date, Prayer.DHUHR, true);
+        int rowsId = db.getPrayersForToday(userId, date).get(Prayer.DHUHR.ordinal()).getId();
+        assertTrue(rowsId > 0);
+        reopen(DatabaseManager.PrayerStorage.MASK);
+
+        // A tab opened before the switch still sends prayer_log ids
+        for (int staleId : new int[] {rowsId, 17, 42}) {
+            assertNull(db.updatePrayerStatus(staleId, userId, false));
+        }
+        assertTrue(db.getPrayersForToday(userId, date).get(Prayer.DHUHR.ordinal()).isCompleted());
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getAbsolutePath());
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM daily_summary WHERE summary_day < 10957")) {
+            rs.next();
+            assertEquals("nothing written for 1970", 0, rs.getInt(1));
+        }
+    }
+
+    // --- STORAGE SWITCH ---
+
+    @Test
+    public void everyStatusSurvivesRowsToMaskAndBack() throws Exception {
+        LocalDate a = LocalDate.of(2024, 3, 4);
+        LocalDate b = LocalDate.of(2024, 3, 5);
+        LocalDate c = LocalDate.of(2024, 3, 6);
+        LocalDate d = LocalDate.of(2024, 3, 7);
+        open(DatabaseManager.PrayerStorage.ROWS);
+        db.setPrayerStatus(userId, a, Prayer.FAJR, true);
+        db.setPrayerStatus(userId, a, Prayer.ASR, true);
+        db.setPrayerStatus(userId, b, Prayer.ISHA, true);
+        db.setPrayerStatus(userId, b, Prayer.DHUHR, false);
+        // A row written without its daily_summary (e.g. by an old build) must be picked up too
+        sql("INSERT INTO prayer_log (user_id, prayer_name, prayer_date, prayer_day, is_completed) VALUES ("
+                + userId + ", 'Maghrib', '" + c + "', " + c.toEpochDay() + ", 1)");
+
+        reopen(DatabaseManager.PrayerStorage.MASK);
+        assertCompleted(a, Prayer.FAJR, Prayer.ASR);
+        assertCompleted(b, Prayer.ISHA);
+        assertCompleted(c, Prayer.MAGHRIB);
+        awaitEmptyPrayerLog();
+        db.setPrayerStatus(userId, a, Prayer.ASR, false);
+        db.setPrayerStatus(userId, d, Prayer.DHUHR, true);
+        assertTrue(db.setPrayerStatuses(userId, List.of(new PrayerChange(c, Prayer.FAJR, true))));
+
+        reopen(DatabaseManager.PrayerStorage.ROWS);
+        assertCompleted(a, Prayer.FAJR);
+        assertCompleted(b, Prayer.ISHA);
+        assertCompleted(c, Prayer.FAJR, Prayer.MAGHRIB);
+        assertCompleted(d, Prayer.DHUHR);
+        // prayer_log is whole again: five rows for each of the four days
+        assertEquals(20, count("SELECT COUNT(*) FROM prayer_log WHERE user_id = " + userId));
+        assertEquals(5, count("SELECT COUNT(*) FROM prayer_log WHERE is_completed = 1"));
+
+        // and ROWS-mode writes keep working on the rebuilt rows
+        db.setPrayerStatus(userId, d, Prayer.DHUHR, false);
+        assertCompleted(d);
+    }
+
+    private void assertCompleted(LocalDate date, Prayer... completed) {
+        List<Prayer> expected = List.of(completed);
+        for (PrayerLog prayerLog : db.getPrayersForToday(userId, date)) {
+            assertEquals(date + " " + prayerLog.getPrayerName(),
+                    expected.contains(Prayer.fromName(prayerLog.getPrayerName())), prayerLog.isCompleted());
+        }
+    }
+
+    // The prune runs on its own thread after a switch to MASK
+    private void awaitEmptyPrayerLog() throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (count("SELECT COUNT(*) FROM prayer_log") > 0) {
+            assertTrue("prayer_log was not pruned", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private void sql(String statement) throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getAbsolutePath());
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(statement);
+        }
+    }
+
+    private int count(String query) throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getAbsolutePath());
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(query)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    // --- REMINDER RECIPIENTS ---
+
+    @Test
+    public void recipientsAreThoseWhoHaveNotPrayedYet() throws Exception {
+        for (DatabaseManager.PrayerStorage storage : DatabaseManager.PrayerStorage.values()) {
+            open(storage);
+            LocalDate date = LocalDate.of(2024, 3, 5);
+            db.linkTelegramUser(userId, "chat-1");
+            db.registerUser("bilal", "hash");
+            int other = db.searchUser("bilal").getId();
+            db.linkTelegramUser(other, "chat-2");
+            db.setPrayerStatus(userId, date, Prayer.ASR, true);
+
+            List<String> chats = new ArrayList<>();
+            assertEquals(1, db.forEachChatIdMissingPrayer("unset", true, "Asr", date, chats::add));
+            assertEquals(List.of("chat-2"), chats);
+            tearDown();
+        }
+    }
+
+    @Test
+    public void anUnknownPrayerMatchesNobody() throws Exception {
+        for (DatabaseManager.PrayerStorage storage : DatabaseManager.PrayerStorage.values()) {
+            open(storage);
+            db.linkTelegramUser(userId, "chat-1");
+            List<String> chats = new ArrayList<>();
+            assertEquals(-1, db.forEachChatIdMissingPrayer("unset", true, "Sunrise", LocalDate.of(2024, 3, 5), chats::add));
+            assertEquals(-1, db.forEachChatIdMissingPrayer("unset", true, null, LocalDate.of(2024, 3, 5), chats::add));
+            assertTrue(chats.isEmpty());
+            tearDown();
+        }
+    }
+}
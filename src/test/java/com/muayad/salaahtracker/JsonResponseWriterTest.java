@@ -0,0 +1,135 @@
+package com.muayad.salaahtracker;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class JsonResponseWriterTest {
+
+    @Test
+    public void quotesAndBackslashesAreEscaped() throws IOException {
+        assertEquals("\"say \\\"hi\\\" C:\\\\dir\"", write("say \"hi\" C:\\dir"));
+        assertRoundTrips("say \"hi\" C:\\dir");
+    }
+
+    @Test
+    public void controlCharactersAreEscaped() throws IOException {
+        assertEquals("\"a\\nb\\rc\\td\\u0001e\\u001f\"", write("a\nb\rc\td\u0001e\u001f"));
+        assertRoundTrips("a\nb\rc\td\u0001e\u001f");
+    }
+
+    @Test
+    public void multiByteCharactersAreWrittenAsUtf8() throws IOException {
+        // 2-byte é, 3-byte ☪ and the 4-byte surrogate pair 😀
+        String s = "é ☪ \uD83D\uDE00";
+        assertEquals("\"" + s + "\"", write(s));
+        assertRoundTrips(s);
+    }
+
+    @Test
+    public void loneSurrogatesAreEscapedInsteadOfWrittenAsInvalidUtf8() throws IOException {
+        assertEquals("\"a\\ud83db\"", write("a\uD83Db"));
+        assertEquals("\"\\ude00\"", write("\uDE00"));
+        // A high surrogate at the very end has no partner to pair with
+        assertEquals("\"x\\ud83d\"", write("x\uD83D"));
+        assertRoundTrips("a\uD83Db\uDE00x\uD83D");
+    }
+
+    @Test
+    public void stringsLongerThanTheBufferSurviveFlushing() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            sb.append("\"☪\uD83D\uDE00");
+        }
+        assertRoundTrips(sb.toString());
+    }
+
+    @Test
+    public void gzippedListsDecompressToThePlainOutput() throws IOException {
+        List<PrayerLog> prayers = new ArrayList<>();
+        LocalDate day = LocalDate.of(2024, 1, 1);
+        for (int i = 0; i < 1825; i++) {
+            prayers.add(prayer(i, i % 2 == 0 ? "Fajr" : "Isha \"late\"", day.plusDays(i / 5), i % 3 == 0));
+        }
+
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        try (JsonResponseWriter writer = new JsonResponseWriter(plain)) {
+            writer.writePrayerList(prayers);
+        }
+        // The second gzip writer reuses the pooled Deflater the first one returned
+        for (int run = 0; run < 2; run++) {
+            ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+            try (JsonResponseWriter writer = new JsonResponseWriter(zipped, true)) {
+                writer.writePrayerList(prayers);
+            }
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(zipped.toByteArray()))) {
+                assertEquals(plain.toString(StandardCharsets.UTF_8), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        JSONObject last = new JSONArray(plain.toString(StandardCharsets.UTF_8)).getJSONObject(1824);
+        assertEquals("2024-12-30", last.getString("prayerDate"));
+        assertEquals("Fajr", last.getString("prayerName"));
+    }
+
+    @Test
+    public void anEmptyGzipBodyIsStillAValidStream() throws IOException {
+        ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+        new JsonResponseWriter(zipped, true).close();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(zipped.toByteArray()))) {
+            assertEquals(0, in.readAllBytes().length);
+        }
+    }
+
+    @Test
+    public void closingTwiceWritesNothingMore() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonResponseWriter writer = new JsonResponseWriter(out);
+        writer.writeFields("status", "ok");
+        writer.close();
+        writer.close();
+        assertEquals("{\"status\":\"ok\"}", out.toString(StandardCharsets.UTF_8));
+    }
+
+    private static String write(String s) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonResponseWriter writer = new JsonResponseWriter(out)) {
+            writer.writeString(s);
+        }
+        // Strict decoding: any malformed UTF-8 fails the test instead of becoming U+FFFD
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(out.toByteArray()))
+                    .toString();
+        } catch (CharacterCodingException e) {
+            throw new AssertionError("writer produced invalid UTF-8", e);
+        }
+    }
+
+    private static void assertRoundTrips(String s) throws IOException {
+        assertEquals(s, new JSONArray("[" + write(s) + "]").getString(0));
+    }
+
+    private static PrayerLog prayer(int id, String name, LocalDate date, boolean completed) {
+        PrayerLog p = new PrayerLog();
+        p.setId(id);
+        p.setPrayerName(name);
+        p.setPrayerDate(date);
+        p.setCompleted(completed);
+        return p;
+    }
+}
@@ -0,0 +1,63 @@
+package com.muayad.salaahtracker;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PasswordHasherTest {
+
+    private PasswordHasher hasher;
+
+    @Before
+    public void setUp() {
+        hasher = new PasswordHasher(1, 16, 8);
+    }
+
+    @After
+    public void tearDown() {
+        hasher.shutdown();
+    }
+
+    @Test
+    public void verifiesWhatItHashed() {
+        String hash = hasher.hash("secret").join();
+        assertTrue(hasher.verify("secret", hash).join());
+        assertFalse(hasher.verify("wrong", hash).join());
+        assertFalse(hasher.verify("secret", null).join());
+        assertFalse(hasher.verify("secret", "not-a-bcrypt-hash").join());
+    }
+
+    @Test
+    public void rehashIsNeededOnlyForOtherCosts() {
+        assertFalse(hasher.needsRehash(hasher.hash("secret").join()));
+        assertTrue(new PasswordHasher(1, 16, 9).needsRehash(hasher.hash("secret").join()));
+    }
+
+    @Test
+    public void unknownUserTakesAsLongAsAKnownOne() {
+        String hash = hasher.hash("secret").join();
+        // Warm up (this also builds the dummy hash)
+        hasher.verify("secret", hash).join();
+        hasher.verify("secret", null).join();
+
+        long known = medianNanos(() -> hasher.verify("wrong", hash).join());
+        long unknown = medianNanos(() -> hasher.verify("wrong", null).join());
+        // A cheaper dummy hash would make unknown users 2^(cost - 4) times faster
+        assertTrue("known " + known + "ns, unknown " + unknown + "ns", unknown * 2 > known);
+    }
+
+    private static long medianNanos(Runnable check) {
+        long[] samples = new long[7];
+        for (int i = 0; i < samples.length; i++) {
+            long started = System.nanoTime();
+            check.run();
+            samples[i] = System.nanoTime() - started;
+        }
+        Arrays.sort(samples);
+        return samples[samples.length / 2];
+    }
+}
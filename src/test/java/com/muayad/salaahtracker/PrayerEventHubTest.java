@@ -0,0 +1,252 @@
+package com.muayad.salaahtracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.javalin.http.Context;
+import io.javalin.http.sse.SseClient;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import java.lang.reflect.Proxy;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Test;
+
+public class PrayerEventHubTest {
+
+    private static final LocalDate DAY = LocalDate.of(2024, 3, 5);
+    private static final int USER = 7;
+
+    // Long heartbeat: no pings arrive during a test
+    private PrayerEventHub hub = new PrayerEventHub(16, 64, 3600);
+
+    @After
+    public void tearDown() {
+        hub.shutdown();
+    }
+
+    @Test
+    public void aReconnectWithLastEventIdGetsOnlyTheEventsAfterIt() throws Exception {
+        StubClient first = subscribe(null);
+        hub.publish(USER, changes(3));
+        first.awaitEvents(3);
+
+        StubClient resumed = subscribe(first.events.get(0).id());
+        resumed.awaitEvents(2);
+
+        assertEquals(first.events.subList(1, 3), resumed.events);
+        assertEquals(1, hub.getResumedCount());
+        assertEquals(0, hub.getResyncCount());
+    }
+
+    @Test
+    public void aReconnectFromBeforeTheKeptHistoryGetsAResync() throws Exception {
+        hub.shutdown();
+        hub = new PrayerEventHub(16, 2, 3600);
+        StubClient first = subscribe(null);
+        hub.publish(USER, changes(1));
+        first.awaitEvents(1);
+        String seen = first.events.get(0).id();
+
+        // Exactly at droppedUpTo: the client already has everything that was dropped
+        hub.publish(USER, changes(2));
+        first.awaitEvents(3);
+        StubClient upToDate = subscribe(seen);
+        upToDate.awaitEvents(2);
+        assertEquals(first.events.subList(1, 3), upToDate.events);
+
+        // One more pushes the event after it out as well
+        hub.publish(USER, changes(1));
+        StubClient behind = subscribe(seen);
+        behind.awaitEvents(1);
+        assertEquals("resync", behind.events.get(0).name());
+        assertEquals(1, behind.events.size());
+
+        // An id the hub can't read is treated the same way
+        StubClient garbled = subscribe("not-a-number");
+        garbled.awaitEvents(1);
+        assertEquals("resync", garbled.events.get(0).name());
+        assertEquals(2, hub.getResyncCount());
+    }
+
+    @Test
+    public void moreThanSixteenChangesAreSentAsOneResync() throws Exception {
+        StubClient client = subscribe(null);
+        hub.publish(USER, changes(16));
+        client.awaitEvents(16);
+        for (SentEvent event : client.events) {
+            assertEquals("status", event.name());
+        }
+
+        hub.publish(USER, changes(17));
+        client.awaitEvents(17);
+        SentEvent resync = client.events.get(16);
+        assertEquals("resync", resync.name());
+        assertEquals("{}", resync.data());
+        assertEquals(1, hub.getResyncCount());
+
+        // A tab that missed the batch resyncs too, rather than replaying from before it
+        StubClient resumed = subscribe(client.events.get(15).id());
+        resumed.awaitEvents(1);
+        assertEquals(List.of(resync), resumed.events);
+    }
+
+    @Test
+    public void aSubscriberWhoseBufferOverflowsIsDroppedAndClosed() throws Exception {
+        StubClient stalled = subscribe(null);
+        stalled.stall();
+        StubClient healthy = subscribe(null);
+
+        hub.publish(USER, changes(1));
+        assertTrue(stalled.writing.await(5, TimeUnit.SECONDS));
+        healthy.awaitEvents(1);
+        // The writer holds the first event, so these fill the 16-event buffer exactly
+        hub.publish(USER, changes(16));
+        healthy.awaitEvents(17);
+        assertEquals(0, hub.getDroppedSubscribers());
+        assertEquals(2, hub.getSubscriberCount());
+
+        hub.publish(USER, changes(1));
+        await(stalled.client::terminated);
+        assertEquals(1, hub.getDroppedSubscribers());
+        assertEquals(1, hub.getSubscriberCount());
+
+        // The other tab got everything
+        healthy.awaitEvents(18);
+        assertFalse(healthy.client.terminated());
+        stalled.release();
+    }
+
+    // --- HELPERS ---
+
+    private record SentEvent(String id, String name, String data) {}
+
+    private StubClient subscribe(String lastEventId) {
+        StubClient stub = new StubClient();
+        hub.subscribe(USER, stub.client, lastEventId);
+        return stub;
+    }
+
+    private static List<PrayerChange> changes(int count) {
+        List<PrayerChange> changes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            changes.add(new PrayerChange(DAY.plusDays(i / Prayer.count()), Prayer.values()[i % Prayer.count()], true));
+        }
+        return changes;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("timed out");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * A real SseClient over a stub response that records the events written to
+     * it. stall() makes the next write block until release().
+     */
+    private static final class StubClient {
+        final List<SentEvent> events = new CopyOnWriteArrayList<>();
+        final CountDownLatch writing = new CountDownLatch(1);
+        final SseClient client;
+        private final StringBuilder written = new StringBuilder();
+        private boolean stalled;
+
+        StubClient() {
+            ServletOutputStream out = new ServletOutputStream() {
+                @Override
+                public void write(int b) {
+                    synchronized (written) {
+                        written.append((char) b);
+                    }
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener listener) {
+                }
+            };
+            HttpServletResponse res = (HttpServletResponse) Proxy.newProxyInstance(
+                    HttpServletResponse.class.getClassLoader(), new Class<?>[] {HttpServletResponse.class},
+                    (proxy, method, args) -> switch (method.getName()) {
+                        case "getOutputStream" -> out;
+                        case "flushBuffer" -> {
+                            flushed();
+                            yield null;
+                        }
+                        default -> throw new UnsupportedOperationException(method.toString());
+                    });
+            Context ctx = (Context) Proxy.newProxyInstance(Context.class.getClassLoader(), new Class<?>[] {Context.class},
+                    (proxy, method, args) -> switch (method.getName()) {
+                        case "res" -> res;
+                        // keepAlive() hands its future to the request; nothing to hold here
+                        case "future" -> null;
+                        default -> throw new UnsupportedOperationException(method.toString());
+                    });
+            this.client = new SseClient(ctx);
+        }
+
+        synchronized void stall() {
+            stalled = true;
+        }
+
+        synchronized void release() {
+            stalled = false;
+            notifyAll();
+        }
+
+        void awaitEvents(int count) throws InterruptedException {
+            await(() -> events.size() >= count);
+            assertEquals(count, events.size());
+        }
+
+        // Each flush ends one complete event or comment
+        private void flushed() throws InterruptedException {
+            String block;
+            synchronized (written) {
+                block = written.toString();
+                written.setLength(0);
+            }
+            // Object.wait() rather than a latch: the writer is inside SseClient's monitor here, and
+            // only wait() lets the virtual thread scheduler add a carrier for the other writers
+            synchronized (this) {
+                long deadline = System.currentTimeMillis() + 5_000;
+                while (stalled && System.currentTimeMillis() < deadline) {
+                    writing.countDown();
+                    wait(100);
+                }
+            }
+            String id = null;
+            String name = null;
+            String data = null;
+            for (String line : block.split("\n")) {
+                if (line.startsWith("id: ")) {
+                    id = line.substring(4);
+                } else if (line.startsWith("event: ")) {
+                    name = line.substring(7);
+                } else if (line.startsWith("data: ")) {
+                    data = line.substring(6);
+                }
+            }
+            if (name != null) {
+                events.add(new SentEvent(id, name, data));
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.muayad.salaahtracker;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrayerStatsTest {
+
+    private File dbFile;
+    private DatabaseManager db;
+    private int userId;
+
+    @Before
+    public void setUp() throws Exception {
+        dbFile = File.createTempFile("prayer-stats", ".db");
+        db = new DatabaseManager("jdbc:sqlite:" + dbFile.getAbsolutePath());
+        db.initializeDatabase();
+        db.registerUser("amina", "hash");
+        userId = db.searchUser("amina").getId();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        dbFile.delete();
+    }
+
+    @Test
+    public void longestAndCurrentStreaksCountFullDaysOnly() {
+        fullDays(LocalDate.of(2024, 3, 1), LocalDate.of(2024, 3, 3));
+        db.setPrayerStatus(userId, LocalDate.of(2024, 3, 4), Prayer.FAJR, true);
+        fullDays(LocalDate.of(2024, 3, 5), LocalDate.of(2024, 3, 9));
+
+        String json = PrayerStats.forYear(db, userId, 2024, LocalDate.of(2024, 3, 10)).toJson();
+        assertContains(json, "\"daysCounted\":70");
+        assertContains(json, "\"completedPrayers\":41");
+        assertContains(json, "\"fullDays\":8");
+        assertContains(json, "\"longestStreak\":5");
+        assertContains(json, "\"Fajr\":{\"completed\":9");
+    }
+
+    @Test
+    public void anUnfinishedTodayDoesNotBreakTheCurrentStreak() {
+        fullDays(LocalDate.of(2024, 3, 5), LocalDate.of(2024, 3, 9));
+        db.setPrayerStatus(userId, LocalDate.of(2024, 3, 10), Prayer.FAJR, true);
+        assertContains(stats(LocalDate.of(2024, 3, 10)), "\"currentStreak\":5");
+
+        fullDays(LocalDate.of(2024, 3, 10), LocalDate.of(2024, 3, 10));
+        assertContains(stats(LocalDate.of(2024, 3, 10)), "\"currentStreak\":6");
+    }
+
+    @Test
+    public void aMissedYesterdayEndsTheCurrentStreak() {
+        fullDays(LocalDate.of(2024, 3, 1), LocalDate.of(2024, 3, 8));
+        fullDays(LocalDate.of(2024, 3, 10), LocalDate.of(2024, 3, 10));
+        assertContains(stats(LocalDate.of(2024, 3, 10)), "\"currentStreak\":1");
+        assertContains(stats(LocalDate.of(2024, 3, 11)), "\"currentStreak\":1");
+        assertContains(stats(LocalDate.of(2024, 3, 12)), "\"currentStreak\":0");
+    }
+
+    @Test
+    public void theCurrentStreakRunsBackIntoEarlierYears() {
+        fullDays(LocalDate.of(2023, 12, 30), LocalDate.of(2024, 1, 2));
+        String json = stats(LocalDate.of(2024, 1, 2));
+        assertContains(json, "\"longestStreak\":2");
+        assertContains(json, "\"currentStreak\":4");
+    }
+
+    @Test
+    public void theCurrentStreakSpansMoreThanOneLookupWindow() {
+        LocalDate today = LocalDate.of(2024, 3, 10);
+        fullDays(today.minusDays(399), today);
+        assertContains(stats(today), "\"currentStreak\":400");
+    }
+
+    @Test
+    public void aFutureYearCountsNothing() {
+        fullDays(LocalDate.of(2024, 3, 1), LocalDate.of(2024, 3, 3));
+        String json = PrayerStats.forYear(db, userId, 2025, LocalDate.of(2024, 3, 3)).toJson();
+        assertContains(json, "\"daysCounted\":0");
+        assertContains(json, "\"completionRate\":0");
+    }
+
+    private String stats(LocalDate today) {
+        return PrayerStats.forYear(db, userId, today.getYear(), today).toJson();
+    }
+
+    private void fullDays(LocalDate from, LocalDate to) {
+        List<PrayerChange> changes = new ArrayList<>();
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            for (Prayer prayer : Prayer.values()) {
+                changes.add(new PrayerChange(date, prayer, true));
+            }
+        }
+        assertTrue(db.setPrayerStatuses(userId, changes));
+    }
+
+    private static void assertContains(String json, String fragment) {
+        assertTrue(json + " should contain " + fragment, json.contains(fragment));
+    }
+}
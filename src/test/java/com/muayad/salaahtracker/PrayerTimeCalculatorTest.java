@@ -0,0 +1,99 @@
+package com.muayad.salaahtracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.muayad.salaahtracker.PrayerTimeCalculator.AsrMethod;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * Pins the offline calculator to reference timetables, within a minute.
+ *
+ * The expected times come from an independent sun-position calculation
+ * (commons-suncalc) using each method's angles, rounded to the minute. Where
+ * the sun never gets low enough (Oslo and London in June) Fajr and Isha are
+ * the angle-based rule applied to that reference's sunrise and sunset.
+ */
+public class PrayerTimeCalculatorTest {
+
+    private static final String[] ORDER = {"Fajr", "Sunrise", "Dhuhr", "Asr", "Maghrib", "Isha"};
+
+    @Test
+    public void ummAlQuraInMakkah() {
+        assertTimes(CalculationMethod.UMM_AL_QURA, AsrMethod.SHAFI, 21.4225, 39.8262, "Asia/Riyadh",
+                LocalDate.of(2024, 1, 15), "05:41", "07:01", "12:30", "15:38", "17:59", "19:29");
+    }
+
+    @Test
+    public void ummAlQuraIshaIsTwoHoursAfterMaghribInRamadan() {
+        // 2024-03-20 is 10 Ramadan 1445
+        assertTimes(CalculationMethod.UMM_AL_QURA, AsrMethod.SHAFI, 21.4225, 39.8262, "Asia/Riyadh",
+                LocalDate.of(2024, 3, 20), "05:08", "06:25", "12:28", "15:53", "18:32", "20:32");
+    }
+
+    @Test
+    public void egyptianInCairo() {
+        assertTimes(CalculationMethod.EGYPTIAN, AsrMethod.SHAFI, 30.0444, 31.2357, "Africa/Cairo",
+                LocalDate.of(2024, 4, 10), "04:04", "05:34", "11:56", "15:31", "18:20", "19:40");
+    }
+
+    @Test
+    public void karachiHanafiInKarachi() {
+        assertTimes(CalculationMethod.KARACHI, AsrMethod.HANAFI, 24.8607, 67.0011, "Asia/Karachi",
+                LocalDate.of(2024, 9, 1), "04:55", "06:13", "12:32", "17:03", "18:50", "20:08");
+    }
+
+    @Test
+    public void isnaInNewYorkWithBothAsrSchools() {
+        LocalDate date = LocalDate.of(2024, 11, 15);
+        assertTimes(CalculationMethod.ISNA, AsrMethod.SHAFI, 40.7128, -74.0060, "America/New_York",
+                date, "05:25", "06:44", "11:41", "14:17", "16:38", "17:56");
+        assertTimes(CalculationMethod.ISNA, AsrMethod.HANAFI, 40.7128, -74.0060, "America/New_York",
+                date, "05:25", "06:44", "11:41", "14:57", "16:38", "17:56");
+    }
+
+    @Test
+    public void mwlInIstanbul() {
+        assertTimes(CalculationMethod.MWL, AsrMethod.SHAFI, 41.0082, 28.9784, "Europe/Istanbul",
+                LocalDate.of(2024, 2, 5), "06:38", "08:11", "13:18", "16:02", "18:25", "19:54");
+    }
+
+    @Test
+    public void highLatitudeRuleInOsloAtMidsummer() {
+        // The sun stays above -18 degrees all night, so Fajr and Isha come from the 18/60 night portion
+        assertTimes(CalculationMethod.MWL, AsrMethod.SHAFI, 59.9139, 10.7522, "Europe/Oslo",
+                LocalDate.of(2024, 6, 21), "02:21", "03:54", "13:19", "18:01", "22:44", "00:12");
+    }
+
+    @Test
+    public void highLatitudeRuleInLondonAtMidsummer() {
+        assertTimes(CalculationMethod.MWL, AsrMethod.HANAFI, 51.5074, -0.1278, "Europe/London",
+                LocalDate.of(2024, 6, 21), "02:31", "04:43", "13:02", "18:40", "21:22", "23:27");
+    }
+
+    @Test
+    public void namesFallBackToDefaults() {
+        assertEquals(CalculationMethod.MWL, CalculationMethod.fromName(" mwl "));
+        assertEquals(CalculationMethod.UMM_AL_QURA, CalculationMethod.fromName("unknown"));
+        assertEquals(CalculationMethod.UMM_AL_QURA, CalculationMethod.fromName(null));
+        assertEquals(AsrMethod.HANAFI, AsrMethod.fromName("Hanafi"));
+        assertEquals(AsrMethod.SHAFI, AsrMethod.fromName(null));
+    }
+
+    private static void assertTimes(CalculationMethod method, AsrMethod asr, double latitude, double longitude,
+                                    String zone, LocalDate date, String... expected) {
+        Map<String, LocalTime> times = new PrayerTimeCalculator(method, asr).calculate(date, latitude, longitude, ZoneId.of(zone));
+        for (int i = 0; i < ORDER.length; i++) {
+            LocalTime want = LocalTime.parse(expected[i]);
+            LocalTime got = times.get(ORDER[i]);
+            // Minutes apart on the clock face, so 23:59 and 00:00 are one minute apart
+            int diff = Math.floorMod(got.toSecondOfDay() / 60 - want.toSecondOfDay() / 60, 24 * 60);
+            assertTrue(method + "/" + asr + " " + ORDER[i] + " on " + date + ": expected " + want + " got " + got,
+                    Math.min(diff, 24 * 60 - diff) <= 1);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.muayad.salaahtracker;
+
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrayerTimesServiceTest {
+
+    private File dbFile;
+    private DatabaseManager store;
+
+    @Before
+    public void setUp() throws Exception {
+        dbFile = File.createTempFile("prayer-times", ".db");
+        // A store that fails every read, like a broken database or a bad row
+        store = new DatabaseManager("jdbc:sqlite:" + dbFile.getAbsolutePath()) {
+            @Override
+            public PrayerTimetable findTimetable(String timetableKey, LocalDate date) {
+                throw new IllegalStateException("store unavailable");
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+        dbFile.delete();
+    }
+
+    @Test
+    public void failedLoadDoesNotLeaveWaitersBlocked() throws Exception {
+        PrayerTimesService service = new PrayerTimesService(store);
+        try {
+            for (int call = 0; call < 3; call++) {
+                CompletableFuture<PrayerTimetable> lookup = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return service.getTimetable("Nowhere", "Atlantis");
+                    } catch (RuntimeException e) {
+                        return null;
+                    }
+                });
+                // Every call returns within the timeout; none waits on an earlier call's failed load
+                assertNull(lookup.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            service.shutdown();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.muayad.salaahtracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReminderLedgerTest {
+
+    private static final long LEASE_SECONDS = 300;
+    private static final LocalDate DAY = LocalDate.of(2024, 3, 5);
+    private static final int SLOT = DatabaseManager.reminderSlot(Prayer.ASR, 10);
+
+    private File dbFile;
+    private DatabaseManager db;
+
+    @Before
+    public void setUp() throws Exception {
+        dbFile = File.createTempFile("reminder-ledger", ".db");
+        db = new DatabaseManager("jdbc:sqlite:" + dbFile.getAbsolutePath());
+        db.initializeDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        dbFile.delete();
+    }
+
+    @Test
+    public void claimIsIdempotent() {
+        assertEquals(Set.of(1, 2, 3, 4, 5), db.claimReminders(DAY, SLOT, List.of(1, 2, 3, 4, 5), LEASE_SECONDS));
+        assertEquals(Set.of(), db.claimReminders(DAY, SLOT, List.of(1, 2, 3, 4, 5), LEASE_SECONDS));
+        // Overlapping page: only the new user is claimed
+        assertEquals(Set.of(6), db.claimReminders(DAY, SLOT, List.of(4, 5, 6), LEASE_SECONDS));
+    }
+
+    @Test
+    public void otherMilestonesAndDaysAreSeparate() {
+        db.claimReminders(DAY, SLOT, List.of(1, 2), LEASE_SECONDS);
+        assertEquals(Set.of(1, 2), db.claimReminders(DAY, DatabaseManager.reminderSlot(Prayer.ASR, 5), List.of(1, 2), LEASE_SECONDS));
+        assertEquals(Set.of(1, 2), db.claimReminders(DAY, DatabaseManager.reminderSlot(Prayer.ISHA, 10), List.of(1, 2), LEASE_SECONDS));
+        assertEquals(Set.of(1, 2), db.claimReminders(DAY.plusDays(1), SLOT, List.of(1, 2), LEASE_SECONDS));
+    }
+
+    @Test
+    public void failedSendsCanBeClaimedAgainButSentOnesCannot() {
+        db.claimReminders(DAY, SLOT, List.of(1, 2, 3), LEASE_SECONDS);
+        assertTrue(db.recordReminderOutcomes(List.of(
+                new ReminderScheduler.Outcome(DAY, SLOT, 1, false),
+                new ReminderScheduler.Outcome(DAY, SLOT, 2, true))));
+
+        assertEquals(Set.of(1), db.claimReminders(DAY, SLOT, List.of(1, 2, 3), LEASE_SECONDS));
+        assertEquals(Set.of(), db.claimReminders(DAY, SLOT, List.of(1, 2, 3), LEASE_SECONDS));
+    }
+
+    @Test
+    public void queuedRowsOfACrashedSenderAreClaimedAgainAfterTheLease() throws Exception {
+        // Claimed, then the process dies before any outcome is written
+        db.claimReminders(DAY, SLOT, List.of(1, 2, 3), LEASE_SECONDS);
+        db.recordReminderOutcomes(List.of(new ReminderScheduler.Outcome(DAY, SLOT, 3, true)));
+
+        // Within the lease the sender might still be alive
+        assertEquals(Set.of(), db.claimReminders(DAY, SLOT, List.of(1, 2, 3), LEASE_SECONDS));
+
+        ageLedger(LEASE_SECONDS + 60);
+        assertEquals(Set.of(1, 2), db.claimReminders(DAY, SLOT, List.of(1, 2, 3), LEASE_SECONDS));
+        // The new claim starts a new lease
+        assertEquals(Set.of(), db.claimReminders(DAY, SLOT, List.of(1, 2, 3), LEASE_SECONDS));
+    }
+
+    @Test
+    public void unfinishedRunIsResumedOnlyOnceStale() throws Exception {
+        assertTrue(db.claimReminderRun("riyadh|saudi arabia", DAY, "Maghrib", 10, LEASE_SECONDS));
+        assertFalse(db.claimReminderRun("riyadh|saudi arabia", DAY, "Maghrib", 10, LEASE_SECONDS));
+
+        ageRuns(LEASE_SECONDS + 60);
+        assertTrue(db.claimReminderRun("riyadh|saudi arabia", DAY, "Maghrib", 10, LEASE_SECONDS));
+
+        db.updateReminderRun("riyadh|saudi arabia", DAY, "Maghrib", 10, true);
+        ageRuns(LEASE_SECONDS + 60);
+        assertFalse(db.claimReminderRun("riyadh|saudi arabia", DAY, "Maghrib", 10, LEASE_SECONDS));
+    }
+
+    @Test
+    public void pruneDropsOldDaysOnly() {
+        db.claimReminders(DAY, SLOT, List.of(1), LEASE_SECONDS);
+        db.claimReminders(DAY.plusDays(1), SLOT, List.of(1), LEASE_SECONDS);
+        db.pruneReminderLedger(DAY.plusDays(1));
+
+        assertEquals(Set.of(1), db.claimReminders(DAY, SLOT, List.of(1), LEASE_SECONDS));
+        assertEquals(Set.of(), db.claimReminders(DAY.plusDays(1), SLOT, List.of(1), LEASE_SECONDS));
+    }
+
+    private void ageLedger(long seconds) throws Exception {
+        execute("UPDATE reminder_ledger SET claimed_at = claimed_at - " + seconds);
+    }
+
+    private void ageRuns(long seconds) throws Exception {
+        execute("UPDATE reminder_runs SET claimed_at = claimed_at - " + seconds);
+    }
+
+    private void execute(String sql) throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getAbsolutePath());
+             Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate(sql);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.muayad.salaahtracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TelegramBotTest {
+
+    private HttpServer server;
+    // Chats the fake API answers 403 for, as if they had blocked the bot
+    private final Set<String> blocked = ConcurrentHashMap.newKeySet();
+    private TelegramBot bot;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/bottest/sendMessage", exchange -> {
+            String chatId = new JSONObject(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8))
+                    .getString("chat_id");
+            int status = blocked.contains(chatId) ? 403 : 200;
+            byte[] body = (status == 200 ? "{\"ok\":true}" : "{\"ok\":false}").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        bot.shutdown();
+        server.stop(0);
+    }
+
+    private TelegramBot open(long deadLetterTtlMillis, int maxDeadLettered) {
+        bot = new TelegramBot("http://127.0.0.1:" + server.getAddress().getPort() + "/bottest",
+                deadLetterTtlMillis, maxDeadLettered);
+        return bot;
+    }
+
+    @Test
+    public void aBlockedChatIsSkippedUntilItIsLinkedAgain() throws Exception {
+        open(TimeUnit.HOURS.toMillis(1), 100);
+        blocked.add("42");
+        assertFalse(send("42"));
+        assertEquals(1, bot.getDeadLetteredCount());
+        assertFalse("dead-lettered chats are refused up front", bot.sendMessage("42", "hi"));
+
+        // The user unblocks the bot and links the chat again
+        blocked.remove("42");
+        bot.forgetDeadLetter("42");
+        assertTrue(send("42"));
+        assertEquals(0, bot.getDeadLetteredChatCount());
+    }
+
+    @Test
+    public void deadLettersExpire() throws Exception {
+        open(200, 100);
+        blocked.add("42");
+        assertFalse(send("42"));
+        assertFalse(bot.sendMessage("42", "hi"));
+
+        blocked.remove("42");
+        Thread.sleep(300);
+        assertTrue(send("42"));
+    }
+
+    @Test
+    public void onlyTheNewestDeadLettersAreKept() throws Exception {
+        open(TimeUnit.HOURS.toMillis(1), 2);
+        blocked.addAll(Set.of("1", "2", "3"));
+        for (String chatId : new String[] {"1", "2", "3"}) {
+            assertFalse(send(chatId));
+        }
+        assertEquals(2, bot.getDeadLetteredChatCount());
+        assertEquals(3, bot.getDeadLetteredCount());
+
+        // "1" was evicted, so it is tried (and refused by Telegram) again
+        assertTrue(bot.sendMessage("1", "hi"));
+        assertFalse(bot.sendMessage("2", "hi"));
+        assertFalse(bot.sendMessage("3", "hi"));
+    }
+
+    // Sends one message and waits for Telegram's verdict; false if it was refused or not accepted
+    private boolean send(String chatId) throws Exception {
+        CompletableFuture<Boolean> outcome = new CompletableFuture<>();
+        if (!bot.sendMessage(chatId, "hi", 0, outcome::complete)) {
+            return false;
+        }
+        return outcome.get(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,87 @@
+package com.muayad.salaahtracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.time.LocalDate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteBehindBufferTest {
+
+    private static final LocalDate DAY = LocalDate.of(2024, 3, 5);
+
+    private File dbFile;
+    private DatabaseManager db;
+    private int userId;
+
+    @Before
+    public void setUp() throws Exception {
+        dbFile = File.createTempFile("write-behind", ".db");
+        db = new DatabaseManager("jdbc:sqlite:" + dbFile.getAbsolutePath());
+        db.initializeDatabase();
+        db.registerUser("amina", "hash");
+        userId = db.searchUser("amina").getId();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        dbFile.delete();
+    }
+
+    @Test
+    public void shutdownWritesBufferedTogglesAndLaterOnesGoStraightThrough() {
+        // Long interval and high threshold: nothing is flushed on its own during the test
+        WriteBehindBuffer buffer = new WriteBehindBuffer(db, true, 60_000, 1_000);
+
+        assertTrue(buffer.setPrayerStatus(userId, DAY, Prayer.FAJR, true));
+        assertFalse(storedCompleted(Prayer.FAJR));
+        assertTrue(buffer.getPrayersForToday(userId, DAY).get(Prayer.FAJR.ordinal()).isCompleted());
+
+        buffer.shutdown();
+        assertTrue(storedCompleted(Prayer.FAJR));
+
+        // A request still in flight after shutdown must not be buffered and lost
+        assertTrue(buffer.setPrayerStatus(userId, DAY, Prayer.DHUHR, true));
+        assertTrue(storedCompleted(Prayer.DHUHR));
+        assertTrue(buffer.setPrayerStatus(userId, DAY, Prayer.FAJR, false));
+        assertFalse(storedCompleted(Prayer.FAJR));
+    }
+
+    @Test
+    public void togglesOfOnePrayerCoalesce() {
+        WriteBehindBuffer buffer = new WriteBehindBuffer(db, true, 60_000, 1_000);
+        for (int i = 0; i < 5; i++) {
+            buffer.setPrayerStatus(userId, DAY, Prayer.ASR, i % 2 == 0);
+        }
+        buffer.flush();
+
+        assertTrue(storedCompleted(Prayer.ASR));
+        assertEquals(4, buffer.getCoalescedCount());
+        assertEquals(1, buffer.getFlushedRows());
+        buffer.shutdown();
+    }
+
+    @Test
+    public void togglesPastTheThresholdQueueOneEarlyFlush() {
+        // With a threshold of 1 every toggle is over it, but only one early flush waits at a time
+        WriteBehindBuffer buffer = new WriteBehindBuffer(db, true, 60_000, 1);
+        for (Prayer prayer : Prayer.values()) {
+            buffer.setPrayerStatus(userId, DAY, prayer, true);
+        }
+        buffer.shutdown();
+
+        for (Prayer prayer : Prayer.values()) {
+            assertTrue(storedCompleted(prayer));
+        }
+        assertTrue(buffer.getFlushCount() <= Prayer.values().length);
+    }
+
+    private boolean storedCompleted(Prayer prayer) {
+        return db.getPrayersForToday(userId, DAY).get(prayer.ordinal()).isCompleted();
+    }
+}
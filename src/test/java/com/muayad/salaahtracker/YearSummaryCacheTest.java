@@ -0,0 +1,92 @@
+package com.muayad.salaahtracker;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.util.Base64;
+import org.junit.Test;
+
+public class YearSummaryCacheTest {
+
+    @Test
+    public void theEarlierDayOfEachPairIsTheHighNibble() {
+        int[] masks = new int[366];
+        masks[0] = Prayer.ALL_COMPLETED_MASK;
+        masks[1] = Prayer.FAJR.bit() | Prayer.ISHA.bit();
+        masks[365] = Prayer.ASR.bit();
+
+        byte[] packed = Base64.getDecoder().decode(YearSummaryCache.encode(masks));
+
+        assertEquals(183, packed.length);
+        assertEquals(0x52, packed[0] & 0xFF);
+        for (int i = 1; i < 182; i++) {
+            assertEquals(0, packed[i]);
+        }
+        assertEquals(0x01, packed[182] & 0xFF);
+    }
+
+    @Test
+    public void anOddDayCountLeavesTheLastLowNibbleEmpty() {
+        int[] masks = new int[365];
+        masks[364] = Prayer.ALL_COMPLETED_MASK;
+
+        String data = YearSummaryCache.encode(masks);
+        byte[] packed = Base64.getDecoder().decode(data);
+
+        assertEquals(244, data.length());
+        assertEquals(183, packed.length);
+        assertEquals(0x50, packed[182] & 0xFF);
+    }
+
+    @Test
+    public void bitsOutsideThePrayerMaskAreNotCounted() {
+        int[] masks = {Prayer.DHUHR.bit() | 1 << Prayer.count() | 1 << 30};
+        assertEquals(0x10, Base64.getDecoder().decode(YearSummaryCache.encode(masks))[0] & 0xFF);
+    }
+
+    @Test
+    public void aLeapYearHasACountForFebruary29AndDecember31() throws Exception {
+        File dbFile = File.createTempFile("year-summary", ".db");
+        DatabaseManager db = new DatabaseManager("jdbc:sqlite:" + dbFile.getAbsolutePath());
+        try {
+            db.initializeDatabase();
+            db.registerUser("amina", "hash");
+            int userId = db.searchUser("amina").getId();
+            db.setPrayerStatus(userId, LocalDate.of(2024, 1, 1), Prayer.FAJR, true);
+            db.setPrayerStatus(userId, LocalDate.of(2024, 2, 29), Prayer.FAJR, true);
+            db.setPrayerStatus(userId, LocalDate.of(2024, 2, 29), Prayer.MAGHRIB, true);
+            for (Prayer prayer : Prayer.values()) {
+                db.setPrayerStatus(userId, LocalDate.of(2024, 12, 31), prayer, true);
+            }
+            // Outside the year: must not shift or spill into it
+            db.setPrayerStatus(userId, LocalDate.of(2025, 1, 1), Prayer.ISHA, true);
+
+            WriteBehindBuffer writes = new WriteBehindBuffer(db, false, 60_000, 1);
+            YearSummaryCache cache = new YearSummaryCache(db, writes, new UserDataVersions(100, 60), 10);
+            int[] counts = decode(Base64.getDecoder().decode(cache.get(userId, 2024)), 366);
+
+            assertEquals(1, counts[0]);
+            assertEquals(2, counts[LocalDate.of(2024, 2, 29).getDayOfYear() - 1]);
+            assertEquals(0, counts[LocalDate.of(2024, 3, 1).getDayOfYear() - 1]);
+            assertEquals(Prayer.count(), counts[365]);
+            int total = 0;
+            for (int count : counts) {
+                total += count;
+            }
+            assertEquals(3 + Prayer.count(), total);
+        } finally {
+            db.close();
+            dbFile.delete();
+        }
+    }
+
+    private static int[] decode(byte[] packed, int days) {
+        int[] counts = new int[days];
+        for (int day = 0; day < days; day++) {
+            int b = packed[day / 2] & 0xFF;
+            counts[day] = day % 2 == 0 ? b >> 4 : b & 0x0F;
+        }
+        return counts;
+    }
+}